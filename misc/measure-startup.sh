@@ -0,0 +1,41 @@
+#!/bin/sh
+#
+# Startup time of a -validate run over ndex-copy-plans with the JDK's default
+# class-data-sharing archive and with the app archive built by the appcds profile.
+# Run from the project directory with the JDK the archive is meant for:
+#
+#   misc/measure-startup.sh [runs]
+#
+# Prints the mean wall time of runs runs (default 20) of each.
+#
+set -e
+
+RUNS=${1:-20}
+JAR=target/ndexbio-sync.jar
+JSA=target/ndexbio-sync.jsa
+
+mvn -q -P appcds -DskipTests package
+
+run_once() {
+	java "$@" -jar "$JAR" -validate -progressInterval 0 ndex-copy-plans >/dev/null 2>&1 ||
+		{ echo "-validate run failed: java $* -jar $JAR -validate ndex-copy-plans" >&2; exit 1; }
+}
+
+measure() {
+	label=$1
+	shift
+	# one untimed run so both start from a warm file cache
+	run_once "$@"
+	start=$(date +%s%N)
+	i=0
+	while [ $i -lt "$RUNS" ]; do
+		run_once "$@"
+		i=$((i + 1))
+	done
+	end=$(date +%s%N)
+	echo "$label: $(( (end - start) / RUNS / 1000000 )) ms mean of $RUNS runs"
+}
+
+java -version 2>&1 | head -1
+measure "default CDS archive" -Xshare:auto
+measure "ndexbio-sync.jsa   " -XX:SharedArchiveFile="$JSA"
@@ -0,0 +1,243 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongConsumer;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Aspects to drop from the CX on its way to the target, read from the
+// "aspectFilter" object of the plan file. The CX is filtered as it streams:
+// one aspect element at a time is parsed and written, so the network is never
+// held in memory. The metaData entries of dropped aspects are removed as well,
+// so the target doesn't expect aspects that never arrive.
+//
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class AspectFilter {
+	private final static Logger LOGGER = Logger.getLogger(AspectFilter.class.getName());
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	List<String> dropAspects = new ArrayList<>();
+
+	public AspectFilter() {
+		super();
+	}
+
+	// The CX stream without the dropped aspects, or the stream itself if nothing is dropped
+	public InputStream filter(InputStream cx, String description) throws IOException {
+		return filter(cx, description, null);
+	}
+
+	// As above; the size in the source CX of each dropped aspect and metaData entry
+	// is passed to droppedBytes, if given
+	public InputStream filter(InputStream cx, String description, LongConsumer droppedBytes) throws IOException {
+		if (null == dropAspects || dropAspects.isEmpty())
+			return cx;
+		return new FilteringInputStream(cx, new HashSet<>(dropAspects), description, droppedBytes);
+	}
+
+	public List<String> getDropAspects() {
+		return dropAspects;
+	}
+
+	public void setDropAspects(List<String> dropAspects) {
+		this.dropAspects = dropAspects;
+	}
+
+	// Pulls tokens from the parser only when the reader needs more bytes
+	private static class FilteringInputStream extends InputStream {
+
+		private enum State { START, TOP, FRAGMENT, ELEMENTS, METADATA, DONE }
+
+		private final JsonParser parser;
+		private final JsonGenerator generator;
+		private final Buffer buffer = new Buffer();
+		private final Set<String> drop;
+		private final Set<String> dropped = new HashSet<>();
+		private final String description;
+		private final LongConsumer droppedBytes;
+		private State state = State.START;
+		private boolean fragmentOpen;
+
+		FilteringInputStream(InputStream cx, Set<String> drop, String description, LongConsumer droppedBytes) throws IOException {
+			this.parser = MAPPER.getFactory().createParser(cx);
+			this.generator = MAPPER.getFactory().createGenerator(buffer);
+			this.drop = drop;
+			this.description = description;
+			this.droppedBytes = droppedBytes;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] one = new byte[1];
+			return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			while (buffer.available() == 0) {
+				if (state == State.DONE)
+					return -1;
+				step();
+				generator.flush();
+			}
+			return buffer.read(b, off, len);
+		}
+
+		// Handle the next token of the source CX
+		private void step() throws IOException {
+			JsonToken token = parser.nextToken();
+			if (null == token)
+				throw new IOException("CX stream of " + description + " ended unexpectedly");
+			switch (state) {
+			case START:
+				if (token != JsonToken.START_ARRAY)
+					throw new IOException("CX stream of " + description + " is not a JSON array");
+				generator.writeStartArray();
+				state = State.TOP;
+				break;
+			case TOP:
+				if (token == JsonToken.END_ARRAY) {
+					generator.writeEndArray();
+					generator.close();
+					state = State.DONE;
+					if (!dropped.isEmpty())
+						LOGGER.info("Dropped aspects " + dropped + " from " + description);
+				} else if (token == JsonToken.START_OBJECT) {
+					fragmentOpen = false;
+					state = State.FRAGMENT;
+				} else {
+					throw new IOException("Unexpected " + token + " in CX stream of " + description);
+				}
+				break;
+			case FRAGMENT:
+				if (token == JsonToken.END_OBJECT) {
+					if (fragmentOpen)
+						generator.writeEndObject();
+					state = State.TOP;
+					break;
+				}
+				String aspect = parser.getCurrentName();
+				JsonLocation start = parser.getTokenLocation();
+				JsonToken value = parser.nextToken();
+				if (drop.contains(aspect)) {
+					parser.skipChildren();
+					dropped.add(aspect);
+					countDropped(start);
+					break;
+				}
+				if (!fragmentOpen) {
+					generator.writeStartObject();
+					fragmentOpen = true;
+				}
+				generator.writeFieldName(aspect);
+				if (value == JsonToken.START_ARRAY) {
+					generator.writeStartArray();
+					state = "metaData".equals(aspect) ? State.METADATA : State.ELEMENTS;
+				} else {
+					generator.copyCurrentStructure(parser);
+				}
+				break;
+			case ELEMENTS:
+			case METADATA:
+				if (token == JsonToken.END_ARRAY) {
+					generator.writeEndArray();
+					state = State.FRAGMENT;
+				} else if (state == State.METADATA && token == JsonToken.START_OBJECT) {
+					JsonLocation entryStart = parser.getTokenLocation();
+					JsonNode entry = parser.readValueAsTree();
+					if (!drop.contains(entry.path("name").asText()))
+						generator.writeTree(entry);
+					else
+						countDropped(entryStart);
+				} else {
+					generator.copyCurrentStructure(parser);
+				}
+				break;
+			default:
+				break;
+			}
+		}
+
+		// Report the source bytes from start to the end of the value just skipped
+		private void countDropped(JsonLocation start) {
+			if (null == droppedBytes || start.getByteOffset() < 0)
+				return;
+			long end = parser.getCurrentLocation().getByteOffset();
+			if (end > start.getByteOffset())
+				droppedBytes.accept(end - start.getByteOffset());
+		}
+
+		@Override
+		public void close() throws IOException {
+			state = State.DONE;
+			parser.close();
+		}
+	}
+
+	// Output of the generator, drained by the reader
+	private static class Buffer extends ByteArrayOutputStream {
+		private int position = 0;
+
+		int available() {
+			return count - position;
+		}
+
+		int read(byte[] b, int off, int len) {
+			int n = Math.min(len, count - position);
+			System.arraycopy(buf, position, b, off, n);
+			position += n;
+			if (position == count) {
+				reset();
+				position = 0;
+			}
+			return n;
+		}
+	}
+
+}
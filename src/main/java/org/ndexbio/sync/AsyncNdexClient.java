@@ -0,0 +1,518 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.ndexbio.model.exceptions.NdexException;
+import org.ndexbio.model.exceptions.ObjectNotFoundException;
+import org.ndexbio.model.object.ProvenanceEntity;
+import org.ndexbio.model.object.network.NetworkSummary;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Non-blocking NDEx v2 REST client on java.net.http.HttpClient. It covers the calls
+// the sync uses; every call returns a CompletableFuture, so thousands of summary and
+// provenance lookups can be in flight without a thread per request. The number of
+// requests actually sent at once is bounded by maxInFlight; the rest wait in a queue
+// without holding a thread.
+//
+public class AsyncNdexClient {
+	private final static Logger LOGGER = Logger.getLogger(AsyncNdexClient.class.getName());
+
+	private static final String CX_FORM_FIELD = "CXNetworkStream";
+	// runs the handling of responses that reads from the network, so that it
+	// doesn't block the HttpClient's own threads
+	private static final Executor BLOCKING = Executors.newVirtualThreadPerTaskExecutor();
+
+	private final String route;
+	private final String authorization;
+	private final HttpClient http;
+	private final ObjectMapper mapper;
+	private final Duration requestTimeout;
+
+	private volatile boolean compressUploads = false;
+	private volatile boolean acceptGzip = true;
+	// hedges slow GETs, if the server has hedging on
+	private volatile Hedger hedger;
+
+	private final int maxInFlight;
+	private int inFlight = 0;
+	private final Queue<Runnable> waiting = new ArrayDeque<>();
+
+	public AsyncNdexClient(String route, String username, String password, int maxInFlight,
+			Duration connectTimeout, Duration requestTimeout) {
+		this.route = route.endsWith("/") ? route.substring(0, route.length() - 1) : route;
+		this.authorization = null == username ? null : "Basic " + Base64.getEncoder()
+				.encodeToString((username + ":" + password).getBytes(StandardCharsets.UTF_8));
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.requestTimeout = requestTimeout;
+		HttpClient.Builder http = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NORMAL);
+		if (null != connectTimeout)
+			http.connectTimeout(connectTimeout);
+		this.http = http.build();
+		this.mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+	}
+
+	public String getRoute() {
+		return route;
+	}
+
+	//____________________________________ calls
+
+	public CompletableFuture<Map<String, Object>> getStatus() {
+		return sendJson(get("/admin/status"), new TypeReference<Map<String, Object>>() {});
+	}
+
+	public CompletableFuture<List<NetworkSummary>> findNetworks(String searchString, String accountName, int start, int size) {
+		Map<String, String> query = new LinkedHashMap<>();
+		query.put("searchString", searchString);
+		if (null != accountName)
+			query.put("accountName", accountName);
+		HttpRequest.Builder request = request("/search/network?start=" + start + "&size=" + size)
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofByteArray(toJson(query)));
+		return sendJson(request, JsonNode.class).thenApply(result -> {
+			JsonNode networks = result.get("networks");
+			if (null == networks)
+				return Collections.<NetworkSummary>emptyList();
+			return mapper.convertValue(networks, new TypeReference<List<NetworkSummary>>() {});
+		});
+	}
+
+	public CompletableFuture<NetworkSummary> getNetworkSummary(UUID networkId) {
+		return sendJson(get("/network/" + networkId + "/summary"), NetworkSummary.class);
+	}
+
+	public CompletableFuture<ProvenanceEntity> getNetworkProvenance(UUID networkId) {
+		return sendJson(get("/network/" + networkId + "/provenance"), ProvenanceEntity.class);
+	}
+
+	public CompletableFuture<Void> setNetworkProvenance(UUID networkId, ProvenanceEntity provenance) {
+		HttpRequest.Builder request = request("/network/" + networkId + "/provenance")
+				.header("Content-Type", "application/json")
+				.PUT(HttpRequest.BodyPublishers.ofByteArray(toJson(provenance)));
+		return sendDiscarding(request);
+	}
+
+	public CompletableFuture<Void> setNetworkFlag(UUID networkId, String parameter, Object value) {
+		HttpRequest.Builder request = request("/network/" + networkId + "/systemproperty")
+				.header("Content-Type", "application/json")
+				.PUT(HttpRequest.BodyPublishers.ofByteArray(toJson(Collections.singletonMap(parameter, value))));
+		return sendDiscarding(request);
+	}
+
+	public CompletableFuture<Void> deleteNetwork(UUID networkId) {
+		return sendDiscarding(request("/network/" + networkId).DELETE());
+	}
+
+	// The CX of a network as a stream. The caller must close it.
+	// Gzip is offered unless disabled; the stream is decompressed as it is read if the server used it.
+	public CompletableFuture<InputStream> getNetworkAsCXStream(UUID networkId) {
+		HttpRequest.Builder builder = get("/network/" + networkId);
+		if (acceptGzip)
+			builder.header("Accept-Encoding", "gzip");
+		HttpRequest request = timed(builder);
+		// wrapping the body in a GZIPInputStream reads its header, and an error body
+		// is read in full, so both happen off the HttpClient's threads
+		return limit(() -> http.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream()))
+				.thenApplyAsync(response -> {
+					InputStream body = response.body();
+					try {
+						if (isGzip(response))
+							body = new GZIPInputStream(body, 64 * 1024);
+					} catch (IOException e) {
+						// a bad gzip header: nobody else will close the body
+						try {
+							body.close();
+						} catch (IOException ignored) {
+							e.addSuppressed(ignored);
+						}
+						throw new CompletionException(e);
+					}
+					if (response.statusCode() / 100 != 2)
+						throw new CompletionException(errorFrom(response.statusCode(), readQuietly(body)));
+					return body;
+				}, BLOCKING);
+	}
+
+	// Send a small gzip-compressed request body: an empty network search. Only a
+	// server that decodes it answers with a search result, one that takes the body
+	// as it is fails to parse it. Whether a server compresses its responses says
+	// nothing about what it accepts, so that isn't asked.
+	public CompletableFuture<Boolean> probeCompression() {
+		byte[] query = toJson(Collections.singletonMap("searchString", ""));
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+		try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+			gzip.write(query);
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+		HttpRequest request = timed(request("/search/network?start=0&size=1")
+				.header("Content-Type", "application/json")
+				.header("Content-Encoding", "gzip")
+				.POST(HttpRequest.BodyPublishers.ofByteArray(compressed.toByteArray())));
+		return limit(() -> http.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()))
+				.thenApply(response -> {
+					if (response.statusCode() / 100 != 2)
+						return false;
+					try {
+						return mapper.readTree(response.body()).has("networks");
+					} catch (IOException e) {
+						return false;
+					}
+				});
+	}
+
+	public void setAcceptGzip(boolean acceptGzip) {
+		this.acceptGzip = acceptGzip;
+	}
+
+	public void setHedger(Hedger hedger) {
+		this.hedger = hedger;
+	}
+
+	public boolean getCompressUploads() {
+		return compressUploads;
+	}
+
+	public void setCompressUploads(boolean compressUploads) {
+		this.compressUploads = compressUploads;
+	}
+
+	// Create a network from a CX stream, which is streamed to the server as it is read.
+	// Cancelling the result aborts the upload.
+	public CompletableFuture<UUID> createCXNetwork(InputStream cx) {
+		CompletableFuture<String> upload = sendMultipart(request("/network"), "POST", cx);
+		return cancels(upload.thenApply(body -> parseNetworkId(body)), upload);
+	}
+
+	public CompletableFuture<Void> updateCXNetwork(UUID networkId, InputStream cx) {
+		CompletableFuture<String> upload = sendMultipart(request("/network/" + networkId), "PUT", cx);
+		return cancels(upload.thenApply(body -> null), upload);
+	}
+
+	//____________________________________ blocking helpers
+
+	// Wait for an async call and unwrap its failure into the exceptions the blocking API throws
+	public static <T> T await(CompletableFuture<T> future) throws IOException, NdexException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			future.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new java.io.InterruptedIOException("Interrupted while waiting for NDEx server");
+		} catch (ExecutionException e) {
+			Throwable cause = cause(e.getCause());
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof NdexException)
+				throw (NdexException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			throw new NdexException("NDEx request failed: " + cause);
+		}
+	}
+
+	// The failure behind a CompletionException, for messages
+	public static Throwable cause(Throwable error) {
+		while (error instanceof CompletionException && null != error.getCause())
+			error = error.getCause();
+		return error;
+	}
+
+	//____________________________________ plumbing
+
+	private HttpRequest.Builder request(String path) {
+		HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(route + path));
+		if (null != authorization)
+			builder.header("Authorization", authorization);
+		return builder;
+	}
+
+	// Uploads get no request timeout, since the response only comes after the whole CX was sent;
+	// TransferGuard watches those.
+	private HttpRequest timed(HttpRequest.Builder request) {
+		if (null != requestTimeout)
+			request.timeout(requestTimeout);
+		return request.build();
+	}
+
+	private HttpRequest.Builder get(String path) {
+		return request(path).header("Accept", "application/json").GET();
+	}
+
+	private <T> CompletableFuture<T> sendJson(HttpRequest.Builder request, Class<T> type) {
+		return sendForBytes(request).thenApply(body -> {
+			try {
+				return body.length == 0 ? null : mapper.readValue(body, type);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+
+	private <T> CompletableFuture<T> sendJson(HttpRequest.Builder request, TypeReference<T> type) {
+		return sendForBytes(request).thenApply(body -> {
+			try {
+				return body.length == 0 ? null : mapper.<T>readValue(body, type);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		});
+	}
+
+	private CompletableFuture<Void> sendDiscarding(HttpRequest.Builder request) {
+		return sendForBytes(request).thenApply(body -> null);
+	}
+
+	private CompletableFuture<byte[]> sendForBytes(HttpRequest.Builder request) {
+		HttpRequest built = timed(request);
+		Supplier<CompletableFuture<HttpResponse<byte[]>>> send = () -> http.sendAsync(built, HttpResponse.BodyHandlers.ofByteArray());
+		Hedger h = hedger;
+		// GETs are idempotent, so a slow one may be sent twice; the hedge delay only
+		// starts once the request has a slot and is on the wire, and the hedge needs a
+		// free slot of its own
+		return limit(null != h && "GET".equals(built.method()) ? () -> h.call(send, () -> tryLimit(send)) : send)
+				.thenApply(response -> {
+					if (response.statusCode() / 100 != 2)
+						throw new CompletionException(errorFrom(response.statusCode(), response.body()));
+					return response.body();
+				});
+	}
+
+	// Stream a multipart/form-data body with the CX in the form field the NDEx server expects
+	private CompletableFuture<String> sendMultipart(HttpRequest.Builder request, String method, InputStream cx) {
+		String boundary = "ndex-sync-" + UUID.randomUUID();
+		byte[] head = ("--" + boundary + "\r\n"
+				+ "Content-Disposition: form-data; name=\"" + CX_FORM_FIELD + "\"; filename=\"network.cx\"\r\n"
+				+ "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+		byte[] tail = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+		InputStream multipart = new SequenceInputStream(new ByteArrayInputStream(head),
+				new SequenceInputStream(cx, new ByteArrayInputStream(tail)));
+		boolean compressed = compressUploads;
+		InputStream body = compressed ? new GzipCompressingInputStream(multipart) : multipart;
+		if (compressed)
+			request.header("Content-Encoding", "gzip");
+		HttpRequest built = request
+				.header("Content-Type", "multipart/form-data; boundary=" + boundary)
+				.method(method, HttpRequest.BodyPublishers.ofInputStream(() -> body))
+				.build();
+		CompletableFuture<HttpResponse<String>> sent = limit(() -> http.sendAsync(built, HttpResponse.BodyHandlers.ofString()));
+		return cancels(sent.thenApply(response -> {
+					if (compressed && (response.statusCode() == 415 || response.statusCode() / 100 == 5)) {
+						// the server doesn't take the compressed body, or choked on it. A 415
+						// means it made nothing, so even a create can be sent again,
+						// uncompressed. After a server error it may have made the network, so
+						// the IOException only has the caller retry what it can retry safely.
+						// Other errors are the request's own and are reported as they are.
+						compressUploads = false;
+						LOGGER.warning("NDEx server " + route + " rejected a gzip-compressed upload (HTTP "
+								+ response.statusCode() + "), sending uncompressed from now on");
+						if (response.statusCode() == 415)
+							throw new CompletionException(new CompressionRejectedException(
+									"Compressed upload rejected by " + route));
+						throw new CompletionException(new IOException("Compressed upload failed on " + route
+								+ " (HTTP " + response.statusCode() + ")"));
+					}
+					if (response.statusCode() / 100 != 2)
+						throw new CompletionException(errorFrom(response.statusCode(),
+								response.body().getBytes(StandardCharsets.UTF_8)));
+					String location = response.headers().firstValue("Location").orElse(null);
+					return null != location ? location : response.body();
+				}), sent);
+	}
+
+	// A stage derived from a request that, when cancelled, cancels the request too;
+	// cancelling a dependent stage doesn't reach the stage it was derived from otherwise
+	private static <T> CompletableFuture<T> cancels(CompletableFuture<T> stage, CompletableFuture<?> request) {
+		stage.whenComplete((value, error) -> {
+			if (stage.isCancelled())
+				request.cancel(true);
+		});
+		return stage;
+	}
+
+	// Start the request now if fewer than maxInFlight are running, otherwise queue it.
+	// Cancelling the result cancels the request, which aborts its exchange, or drops
+	// it if it is still queued.
+	private <T> CompletableFuture<T> limit(Supplier<CompletableFuture<T>> start) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		AtomicReference<CompletableFuture<T>> request = new AtomicReference<>();
+		result.whenComplete((value, error) -> {
+			CompletableFuture<T> sent = request.get();
+			if (result.isCancelled() && null != sent)
+				sent.cancel(true);
+		});
+		Runnable task = () -> {
+			if (result.isDone()) {
+				release();
+				return;
+			}
+			CompletableFuture<T> sent;
+			try {
+				sent = start.get();
+			} catch (RuntimeException e) {
+				sent = CompletableFuture.failedFuture(e);
+			}
+			request.set(sent);
+			if (result.isCancelled())
+				sent.cancel(true);
+			sent.whenComplete((value, error) -> {
+				release();
+				if (null != error)
+					result.completeExceptionally(error);
+				else
+					result.complete(value);
+			});
+		};
+		boolean runNow;
+		synchronized (this) {
+			runNow = inFlight < maxInFlight;
+			if (runNow)
+				inFlight++;
+			else
+				waiting.add(task);
+		}
+		if (runNow)
+			task.run();
+		return result;
+	}
+
+	// Start the request now if a slot is free and nothing is queued, otherwise return null
+	private <T> CompletableFuture<T> tryLimit(Supplier<CompletableFuture<T>> start) {
+		synchronized (this) {
+			if (inFlight >= maxInFlight || !waiting.isEmpty())
+				return null;
+			inFlight++;
+		}
+		CompletableFuture<T> sent;
+		try {
+			sent = start.get();
+		} catch (RuntimeException e) {
+			sent = CompletableFuture.failedFuture(e);
+		}
+		sent.whenComplete((value, error) -> release());
+		return sent;
+	}
+
+	private void release() {
+		Runnable next;
+		synchronized (this) {
+			next = waiting.poll();
+			if (null == next)
+				inFlight--;
+		}
+		if (null != next)
+			next.run();
+	}
+
+	private byte[] toJson(Object value) {
+		try {
+			return mapper.writeValueAsBytes(value);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Unable to serialize request body", e);
+		}
+	}
+
+	private Exception errorFrom(int status, byte[] body) {
+		String message = null;
+		try {
+			JsonNode error = mapper.readTree(body);
+			if (null != error && error.has("message"))
+				message = error.get("message").asText();
+		} catch (IOException | RuntimeException e) {
+			// not a JSON error object
+		}
+		if (null == message)
+			message = new String(body, StandardCharsets.UTF_8);
+		String text = "NDEx server " + route + " returned HTTP " + status + ": " + message;
+		// 5xx and throttling are transient; everything else is a genuine error of the request
+		if (status >= 500 || status == 429)
+			return new IOException(text);
+		return status == 404 ? new ObjectNotFoundException(text) : new NdexException(text);
+	}
+
+	private static boolean isGzip(HttpResponse<?> response) {
+		return response.headers().firstValue("Content-Encoding").map(e -> e.trim().equalsIgnoreCase("gzip")).orElse(false);
+	}
+
+	private static byte[] readQuietly(InputStream in) {
+		try (InputStream body = in) {
+			return body.readAllBytes();
+		} catch (IOException e) {
+			return new byte[0];
+		}
+	}
+
+	// The server answers a create with the URL of the new network
+	static UUID parseNetworkId(String urlOrId) {
+		String value = urlOrId.trim();
+		if (value.startsWith("\"") && value.endsWith("\"") && value.length() > 1)
+			value = value.substring(1, value.length() - 1);
+		UUID id = ProvenanceRecord.parseNetworkId(value);
+		if (null == id)
+			throw new CompletionException(new NdexException("Unexpected response to network create: " + urlOrId));
+		return id;
+	}
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+// Byte rate limit that can change with the time of day, written as a default rate
+// followed by time windows with their own rate, e.g. "10M, 08:00-18:00=2M". Rates
+// are bytes per second with an optional K, M or G suffix; 0 means unlimited. A
+// window whose end is before its start runs over midnight. The first window that
+// contains the current time wins.
+//
+public final class BandwidthProfile {
+
+	private final long defaultRate;
+	private final List<Window> windows;
+
+	private BandwidthProfile(long defaultRate, List<Window> windows) {
+		this.defaultRate = defaultRate;
+		this.windows = windows;
+	}
+
+	public static BandwidthProfile parse(String value) {
+		long defaultRate = 0;
+		List<Window> windows = new ArrayList<>();
+		for (String part : value.split(",")) {
+			String p = part.trim();
+			if (p.isEmpty())
+				continue;
+			int eq = p.indexOf('=');
+			if (eq < 0) {
+				defaultRate = RunBudget.parseBytes(p);
+				continue;
+			}
+			String[] range = p.substring(0, eq).split("-");
+			if (range.length != 2)
+				throw new IllegalArgumentException("Invalid bandwidth window " + p + ", expected HH:mm-HH:mm=<rate>");
+			try {
+				windows.add(new Window(LocalTime.parse(range[0].trim()), LocalTime.parse(range[1].trim()),
+						RunBudget.parseBytes(p.substring(eq + 1))));
+			} catch (DateTimeParseException e) {
+				throw new IllegalArgumentException("Invalid bandwidth window " + p + ", expected HH:mm-HH:mm=<rate>");
+			}
+		}
+		return new BandwidthProfile(defaultRate, windows);
+	}
+
+	// Bytes per second allowed at the given time of day, 0 if unlimited
+	public long getRate(LocalTime time) {
+		for (Window window : windows) {
+			if (window.contains(time))
+				return window.rate;
+		}
+		return defaultRate;
+	}
+
+	private static class Window {
+		final LocalTime from;
+		final LocalTime to;
+		final long rate;
+
+		Window(LocalTime from, LocalTime to, long rate) {
+			this.from = from;
+			this.to = to;
+			this.rate = rate;
+		}
+
+		boolean contains(LocalTime time) {
+			if (from.isBefore(to))
+				return !time.isBefore(from) && time.isBefore(to);
+			return !time.isBefore(from) || time.isBefore(to);
+		}
+	}
+
+}
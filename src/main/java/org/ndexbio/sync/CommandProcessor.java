@@ -30,9 +30,36 @@
  */
 package org.ndexbio.sync;
 
+import java.io.File;
+import java.util.logging.Level;
+
 
 public class CommandProcessor {
 	
+	private static final String USAGE = "NDEx Copier requires a directory of copy plans as an argument. This version only supports CX.\r\n"
+			+ "Usage: CommandProcessor [options] <copyPlanDirectory>\r\n"
+			+ "Options:\r\n"
+			+ "  -progressInterval <seconds>   print a progress line every <seconds> (default 60, 0 = off)\r\n"
+			+ "  -report <file>                write a JSON run report with per-network timings to <file>\r\n"
+			+ "  -connectTimeout <seconds>     timeout for connecting to NDEx servers (default 60)\r\n"
+			+ "  -readTimeout <seconds>        timeout for the answer to a request to NDEx servers (default 600)\r\n"
+			+ "  -jfr <file>                   record the session with Java Flight Recorder into <file>\r\n"
+			+ "  -executionMode <mode>         sequential (default) or virtual: one virtual thread per network task\r\n"
+			+ "  -coordinate <dir> -shards <n> discover, split the session into <n> shards in shared <dir> and work on them\r\n"
+			+ "  -work <dir>                   work on shards of a session coordinated in shared <dir>\r\n"
+			+ "  -session <id>                 with -work, join only the session with this id (logged by the coordinator)\r\n"
+			+ "  -leaseTimeout <seconds>       take over shards of workers silent for <seconds> (default 600)\r\n"
+			+ "  -deadline <HH:mm>             only start transfers expected to finish by then (or yyyy-MM-ddTHH:mm)\r\n"
+			+ "  -maxBytes <n>[K|M|G]          stop starting transfers once about <n> bytes of CX were moved\r\n"
+			+ "  -maxNetworks <n>              copy or update at most <n> networks\r\n"
+			+ "  -maxRate <profile>            cap CX bytes per second of the session, e.g. 10M or \"10M, 08:00-18:00=2M\"\r\n"
+			+ "  -eventLog <file>              write per-network decisions as JSON lines to <file>\r\n"
+			+ "  -eventLevel <level>           lowest level written to the event log (default FINE, FINER for every candidate)\r\n"
+			+ "  -eventSample <n>              after <n> events of a kind, log every <n>-th (default 100, 0 = all)\r\n"
+			+ "  -listen <port>                after the session, sync single networks on POST /sync to localhost:<port>\r\n"
+			+ "  -triggerDelay <ms>            wait <ms> for more notifications of a network before syncing it (default 2000)\r\n"
+			+ "  -validate                     only read and check the copy plans, contact no server";
+	
 	
 	
 	public CommandProcessor (){
@@ -40,18 +67,73 @@ public class CommandProcessor {
 	}
 
 	public static void main(String[] args) {
-		// expects one argument - a directory in which to find the copy plans
+		// expects options followed by one argument - a directory in which to find the copy plans
 		//CommandProcessor cp = new CommandProcessor();
 		Copier copier = new Copier();
 		try {
-			if (args.length != 1) {
-				System.out.println("NDEx Copier requires a directory of copy plans as an argument. This version only supports CX.\r\nUsage: CommandProcessor <copyPlanDirectory>");
+			String planDirectory = null;
+			boolean coordinate = false;
+			int shards = 0;
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("-progressInterval") && i + 1 < args.length) {
+					copier.setProgressInterval(Long.parseLong(args[++i]));
+				} else if (arg.equals("-report") && i + 1 < args.length) {
+					copier.setReportFile(new File(args[++i]));
+				} else if (arg.equals("-executionMode") && i + 1 < args.length) {
+					copier.setExecutionMode(args[++i]);
+				} else if (arg.equals("-jfr") && i + 1 < args.length) {
+					copier.setRecordingFile(new File(args[++i]));
+				} else if ((arg.equals("-coordinate") || arg.equals("-work")) && i + 1 < args.length) {
+					coordinate = arg.equals("-coordinate");
+					copier.setShardDirectory(new File(args[++i]));
+				} else if (arg.equals("-shards") && i + 1 < args.length) {
+					shards = Integer.parseInt(args[++i]);
+					copier.setShardCount(shards);
+				} else if (arg.equals("-deadline") && i + 1 < args.length) {
+					copier.setDeadline(RunBudget.parseDeadline(args[++i]));
+				} else if (arg.equals("-maxBytes") && i + 1 < args.length) {
+					copier.setMaxBytes(RunBudget.parseBytes(args[++i]));
+				} else if (arg.equals("-maxNetworks") && i + 1 < args.length) {
+					copier.setMaxNetworks(Integer.parseInt(args[++i]));
+				} else if (arg.equals("-maxRate") && i + 1 < args.length) {
+					copier.setMaxRate(BandwidthProfile.parse(args[++i]));
+				} else if (arg.equals("-eventLog") && i + 1 < args.length) {
+					copier.setEventLogFile(new File(args[++i]));
+				} else if (arg.equals("-eventLevel") && i + 1 < args.length) {
+					copier.setEventLevel(Level.parse(args[++i]));
+				} else if (arg.equals("-eventSample") && i + 1 < args.length) {
+					copier.setEventSample(Integer.parseInt(args[++i]));
+				} else if (arg.equals("-listen") && i + 1 < args.length) {
+					copier.setListenPort(Integer.parseInt(args[++i]));
+				} else if (arg.equals("-triggerDelay") && i + 1 < args.length) {
+					copier.setTriggerDelay(Long.parseLong(args[++i]));
+				} else if (arg.equals("-validate")) {
+					copier.setValidateOnly(true);
+				} else if (arg.equals("-session") && i + 1 < args.length) {
+					copier.setShardSession(args[++i]);
+				} else if (arg.equals("-leaseTimeout") && i + 1 < args.length) {
+					copier.setLeaseTimeout(Long.parseLong(args[++i]));
+				} else if (arg.equals("-connectTimeout") && i + 1 < args.length) {
+					copier.setConnectTimeout(Integer.parseInt(args[++i]));
+				} else if (arg.equals("-readTimeout") && i + 1 < args.length) {
+					copier.setReadTimeout(Integer.parseInt(args[++i]));
+				} else if (arg.startsWith("-") || planDirectory != null) {
+					throw new IllegalArgumentException("Unexpected argument " + arg);
+				} else {
+					planDirectory = arg;
+				}
+			}
+			if (coordinate != (shards > 0))
+				throw new IllegalArgumentException("-coordinate and -shards <n> (n > 0) go together");
+			if (planDirectory == null) {
+				System.out.println(USAGE);
 			} else {
-				copier.runPlans(args[0]);
+				copier.runPlans(planDirectory);
 			}
 		} catch (IllegalArgumentException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			System.out.println(e.getMessage());
+			System.out.println(USAGE);
 		} catch (Exception e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
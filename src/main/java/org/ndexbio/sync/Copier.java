@@ -32,10 +32,18 @@ package org.ndexbio.sync;
 
 import java.io.File;
 import java.io.IOException;
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
 import org.ndexbio.model.exceptions.NdexException;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -46,17 +54,267 @@ public class Copier {
 
     private List<CopyPlan> plans = new ArrayList<>();
     
+    private long progressInterval = 60;
+    private File reportFile;
+    private File recordingFile;
+    // JSON-lines log of the per-network decisions; without it they go to java.util.logging
+    private File eventLogFile;
+    private Level eventLevel = Level.FINE;
+    private int eventSample = 100;
+    private EventLog events = EventLog.DEFAULT;
+    private String executionMode = SyncExecutor.SEQUENTIAL;
+    private SyncExecutor executor;
+    private ProgressReporter progress;
+    
+    // sharded sessions: with shardCount > 0 this process coordinates, otherwise it is a worker
+    private File shardDirectory;
+    private int shardCount = 0;
+    private long leaseTimeout = 600;
+    private String shardSession;
+    private ShardCoordinator coordinator;
+    
+    private RunBudget budget = new RunBudget();
+    private RateLimiter rateLimiter;
+    
+    // after the session, serve change notifications on this local port; -1 = off
+    private int listenPort = -1;
+    private long triggerDelay = 2000;
+    private final CountDownLatch finished = new CountDownLatch(1);
+    
+    // only read and check the plans, e.g. for the class-data-sharing training run
+    private boolean validateOnly = false;
+    
+    // socket timeouts in seconds for all requests to NDEx servers
+    private int connectTimeout = 60;
+    private int readTimeout = 600;
+    
     
     public void runPlans(String directoryString) throws JsonProcessingException, IOException, NdexException{
     	
     	LOGGER.info("Starting Copy Session");
-    	if (readCopyPlans(directoryString)){
-    		processCopyPlans();
+    	NdexServer.setTimeouts(connectTimeout * 1000L, readTimeout * 1000L);
+    	Recording recording = startRecording();
+    	progress = new ProgressReporter();
+    	// in sharded sessions each shard prints its own progress
+    	progress.start(shardDirectory == null ? progressInterval : 0);
+    	executor = new SyncExecutor(executionMode);
+    	LOGGER.info("Execution mode: " + executor.getMode());
+    	if (eventLogFile != null)
+    		events = EventLog.open(eventLogFile, eventLevel, eventSample);
+    	boolean listen = false;
+    	try {
+    		try {
+    			if (readCopyPlans(directoryString)){
+    				if (validateOnly)
+    					validatePlans();
+    				else if (shardDirectory == null) {
+    					processCopyPlans();
+    					listen = listenPort >= 0;
+    				} else if (shardCount > 0)
+    					coordinateShards();
+    				else
+    					newShardWorker().run();
+    			}
+    		} finally {
+    			finishSession(recording);
+    		}
+    		// the session's report, recording and event log are complete before
+    		// triggered syncs start, which log their events to java.util.logging
+    		if (listen) {
+    			events = EventLog.DEFAULT;
+    			for (CopyPlan plan : this.plans)
+    				plan.setEventLog(events);
+    			listenForNotifications();
+    		}
+    	} finally {
+    		executor.close();
+    		finished.countDown();
     	}
     	LOGGER.info("Finishing Copy Session");
     	
     }
     
+    // Write what the session leaves behind: the flight recording, the event log,
+    // the final progress and latencies and the run report
+    private void finishSession(Recording recording) {
+    	if (budget.getDeferred() > 0)
+    		LOGGER.warning(budget.getDeferred() + " networks deferred to the next run by the run budget");
+    	stopRecording(recording);
+    	NdexServer.logHedging();
+    	try {
+    		events.close();
+    	} catch (IOException e) {
+    		LOGGER.severe("Error writing event log " + eventLogFile + ": " + e.getMessage());
+    	}
+    	progress.stop();
+    	progress.printStatus();
+    	if (shardDirectory == null)
+    		progress.printLatencies();
+    	if (reportFile != null && (shardDirectory == null || coordinator != null)) {
+    		try {
+    			if (coordinator != null)
+    				coordinator.writeReport(reportFile);
+    			else
+    				progress.writeReport(reportFile);
+    		} catch (IOException e) {
+    			LOGGER.severe("Error writing run report " + reportFile + ": " + e.getMessage());
+    		}
+    	}
+    }
+    
+    // Serve change notifications for the plans until the process is stopped. On
+    // shutdown, the syncs already started finish; the session's reports were written
+    // before. The run budget bounds the session just run, not the syncs that follow.
+    private void listenForNotifications() throws IOException {
+    	for (CopyPlan plan : this.plans)
+    		plan.setBudget(null);
+    	SyncTrigger trigger = new SyncTrigger(plans, triggerDelay);
+    	trigger.start(listenPort);
+    	CountDownLatch stopped = new CountDownLatch(1);
+    	Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+    		trigger.close();
+    		stopped.countDown();
+    		try {
+    			finished.await(60, TimeUnit.SECONDS);
+    		} catch (InterruptedException e) {
+    			Thread.currentThread().interrupt();
+    		}
+    	}, "sync-trigger-shutdown"));
+    	try {
+    		stopped.await();
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		trigger.close();
+    	}
+    }
+    
+    // Start a flight recording of the session, using the JDK's "profile" settings
+    // plus the sync events, if a recording file was requested
+    private Recording startRecording() {
+    	if (recordingFile == null)
+    		return null;
+    	try {
+    		Recording recording = new Recording(Configuration.getConfiguration("profile"));
+    		recording.setName("ndex-sync");
+    		recording.setToDisk(true);
+    		recording.start();
+    		LOGGER.info("Started flight recording, will be written to " + recordingFile.getPath());
+    		return recording;
+    	} catch (IOException | ParseException | IllegalStateException e) {
+    		LOGGER.severe("Unable to start flight recording: " + e.getMessage());
+    		return null;
+    	}
+    }
+    
+    private void stopRecording(Recording recording) {
+    	if (recording == null)
+    		return;
+    	try {
+    		recording.stop();
+    		recording.dump(recordingFile.toPath());
+    		LOGGER.info("Wrote flight recording to " + recordingFile.getPath());
+    	} catch (IOException | IllegalStateException e) {
+    		LOGGER.severe("Unable to write flight recording " + recordingFile + ": " + e.getMessage());
+    	} finally {
+    		recording.close();
+    	}
+    }
+    
+    // Wall-clock time (epoch millis) by which the session should be done
+    public void setDeadline(long deadline) {
+    	budget.setDeadline(deadline);
+    }
+    
+    // Upper bound for CX bytes moved in the session
+    public void setMaxBytes(long maxBytes) {
+    	budget.setMaxBytes(maxBytes);
+    }
+    
+    // Upper bound for networks copied or updated in the session
+    public void setMaxNetworks(int maxNetworks) {
+    	budget.setMaxNetworks(maxNetworks);
+    }
+    
+    // Cap on CX bytes per second of the session, shared by all plans and transfers
+    public void setMaxRate(BandwidthProfile maxRate) {
+    	rateLimiter = new RateLimiter("session", maxRate);
+    }
+    
+    // Local port to serve change notifications on after the session, 0 for any free port
+    public void setListenPort(int listenPort) {
+    	this.listenPort = listenPort;
+    }
+    
+    // Milliseconds a network's sync waits for more notifications to coalesce
+    public void setTriggerDelay(long triggerDelay) {
+    	this.triggerDelay = triggerDelay;
+    }
+    
+    public void setValidateOnly(boolean validateOnly) {
+    	this.validateOnly = validateOnly;
+    }
+    
+    // Directory shared by the coordinator and workers of a sharded session
+    public void setShardDirectory(File shardDirectory) {
+    	this.shardDirectory = shardDirectory;
+    }
+    
+    // Number of shards to split the session into; makes this process the coordinator
+    public void setShardCount(int shardCount) {
+    	this.shardCount = shardCount;
+    }
+    
+    public void setLeaseTimeout(long seconds) {
+    	this.leaseTimeout = seconds;
+    }
+    
+    // Id of the sharded session a worker joins; without it, the first unfinished one
+    public void setShardSession(String shardSession) {
+    	this.shardSession = shardSession;
+    }
+    
+    // "sequential" (default) or "virtual", see SyncExecutor
+    public void setExecutionMode(String executionMode) {
+    	this.executionMode = executionMode;
+    }
+    
+    // File a Java Flight Recorder recording of the session is written to
+    public void setRecordingFile(File recordingFile) {
+    	this.recordingFile = recordingFile;
+    }
+    
+    public void setEventLogFile(File eventLogFile) {
+    	this.eventLogFile = eventLogFile;
+    }
+    
+    // Lowest level written to the event log (default FINE)
+    public void setEventLevel(Level eventLevel) {
+    	this.eventLevel = eventLevel;
+    }
+    
+    // After the first n events of a kind below WARNING, write only every n-th; 0 writes all
+    public void setEventSample(int eventSample) {
+    	this.eventSample = eventSample;
+    }
+    
+    public void setConnectTimeout(int seconds) {
+    	this.connectTimeout = seconds;
+    }
+    
+    public void setReadTimeout(int seconds) {
+    	this.readTimeout = seconds;
+    }
+    
+    // Seconds between progress status lines; 0 disables them
+    public void setProgressInterval(long seconds) {
+    	this.progressInterval = seconds;
+    }
+    
+    // File the JSON run report is written to at the end of the session
+    public void setReportFile(File reportFile) {
+    	this.reportFile = reportFile;
+    }
+    
     
     // Read plans from ndex-copy-plans directory
 	private boolean readCopyPlans(String directoryString){
@@ -75,28 +333,92 @@ public class Copier {
 			
 			CopyPlanReader cpr = new CopyPlanReader(copyPlanDirectory);
 			plans = cpr.getCopyPlans();
+			// highest priority first, plan file order within a priority
+			plans.sort(Comparator.comparingInt(CopyPlan::getPriority).reversed());
 			LOGGER.info("Found " + plans.size() + " copy plans");
 			return true;
 		} catch (Exception e) {
-			LOGGER.severe("Error attempting to read copyplan files from directory " + directoryString);
-			e.printStackTrace();
+			LOGGER.log(Level.SEVERE, "Error attempting to read copyplan files from directory " + directoryString, e);
 		}
 		return false;
 		
 	}
 	
-	// 
+	// Check every plan without contacting the servers
+	private void validatePlans() throws NdexException {
+		int invalid = 0;
+		for (CopyPlan plan : this.plans) {
+			List<String> problems = plan.validate();
+			if (problems.isEmpty()) {
+				LOGGER.info("Copy plan " + plan.getPlanFileName() + " is valid");
+			} else {
+				invalid++;
+				LOGGER.severe("Copy plan " + plan.getPlanFileName() + ": " + String.join(", ", problems));
+			}
+		}
+		if (invalid > 0)
+			throw new NdexException(invalid + " of " + plans.size() + " copy plans are invalid");
+	}
+	
+	// Discover all plans, hand their networks out as shards, work on shards
+	// alongside the other workers and merge the results
+	private void coordinateShards() throws IOException, NdexException {
+		coordinator = new ShardCoordinator(shardDirectory, shardCount);
+		for (CopyPlan plan : this.plans) {
+			plan.setProgressReporter(progress);
+			plan.setExecutor(executor);
+			plan.setEventLog(events);
+		}
+		coordinator.distribute(plans);
+		shardSession = coordinator.getSessionId();
+		try {
+			newShardWorker().run();
+		} finally {
+			// keep the copies of the shards that did finish
+			coordinator.mergeCopyMappings(plans);
+			coordinator.mergeDeferredNetworks(plans);
+			coordinator.finish();
+		}
+	}
+	
+	private ShardWorker newShardWorker() {
+		for (CopyPlan plan : this.plans) {
+			plan.setBudget(budget);
+			plan.setRateLimiter(rateLimiter);
+			plan.setEventLog(events);
+		}
+		ShardWorker worker = new ShardWorker(shardDirectory, plans);
+		worker.setExecutor(executor);
+		worker.setLeaseTimeout(leaseTimeout);
+		worker.setSession(shardSession);
+		worker.setProgressInterval(progressInterval);
+		return worker;
+	}
+	
+	// Discover the plans of each target account together so they share lookups and
+	// don't copy the same network into the account twice, then execute them before
+	// the next account's plans are discovered. In sequential mode plans run one
+	// after the other by priority. In virtual mode the plans of an account run at
+	// once, and the servers' permits let the networks of higher priority plans
+	// overtake the queued work of lower ones.
 	private void processCopyPlans() throws JsonProcessingException, IOException, NdexException{
 		System.out.println("Processing Copy Plans");
 		for (CopyPlan plan : this.plans){
+			plan.setProgressReporter(progress);
+			plan.setExecutor(executor);
+			plan.setBudget(budget);
+			plan.setRateLimiter(rateLimiter);
+			plan.setEventLog(events);
+		}
+		new PlanCompiler().compile(plans, group -> executor.forEach(group, plan -> {
 			
-				LOGGER.info("Processing copyPlan: " + plan.getPlanFileName());
+				LOGGER.info("Processing copyPlan: " + plan.getPlanFileName() + " (priority " + plan.getPriority() + ")");
 				LOGGER.info("  Source: " + plan.getSource().getRoute() + "  username: " + plan.getSource().getUsername());
 				LOGGER.info("  Target: " + plan.getTarget().getRoute() + "  username: " + plan.getTarget().getUsername());
 				
-				plan.process();
+				plan.execute();
 				
-		}	
+		}));
 	}
 
 }
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Locally maintained mapping from source networks to the copies this tool made
+// of them on the target. It is stored as a JSON file next to the copy plans and
+// lets a plan look up existing copies without listing the whole target account.
+//
+public class CopyMapping {
+	private final static Logger LOGGER = Logger.getLogger(CopyMapping.class.getName());
+
+	private final File file;
+	private final Map<UUID, List<Entry>> copies = new HashMap<>();
+	private boolean loaded = false;
+	private boolean dirty = false;
+
+	public CopyMapping(File file) {
+		this.file = file;
+	}
+
+	// Read the mapping file if it exists. Returns false if there was no usable
+	// mapping, in which case the caller has to seed it from a full scan.
+	public synchronized boolean load() {
+		copies.clear();
+		loaded = false;
+		if (!file.isFile())
+			return false;
+		try {
+			Map<String, List<Entry>> stored = new ObjectMapper().readValue(file,
+					new TypeReference<Map<String, List<Entry>>>() {});
+			for (Map.Entry<String, List<Entry>> e : stored.entrySet()) {
+				copies.put(UUID.fromString(e.getKey()), new ArrayList<>(e.getValue()));
+			}
+			loaded = true;
+		} catch (IOException | IllegalArgumentException e) {
+			LOGGER.warning("Ignoring unreadable copy mapping " + file + ": " + e.getMessage());
+		}
+		return loaded;
+	}
+
+	public synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+	public synchronized List<UUID> getCopies(UUID sourceId) {
+		List<Entry> entries = copies.get(sourceId);
+		if (entries == null)
+			return Collections.emptyList();
+		List<UUID> result = new ArrayList<>(entries.size());
+		for (Entry entry : entries) {
+			result.add(entry.getTargetId());
+		}
+		return result;
+	}
+
+	// All source networks that have copies in the mapping
+	public synchronized Set<UUID> getSources() {
+		return new HashSet<>(copies.keySet());
+	}
+
+	public synchronized Entry getEntry(UUID sourceId, UUID targetId) {
+		List<Entry> entries = copies.get(sourceId);
+		if (entries != null) {
+			for (Entry entry : entries) {
+				if (entry.getTargetId().equals(targetId))
+					return entry;
+			}
+		}
+		return null;
+	}
+
+	// Record that targetId is (now) a copy of sourceId, made at copyTime
+	public synchronized void record(UUID sourceId, UUID targetId, long copyTime) {
+		Entry entry = getEntry(sourceId, targetId);
+		if (entry == null) {
+			entry = new Entry();
+			entry.setTargetId(targetId);
+			List<Entry> entries = copies.get(sourceId);
+			if (entries == null) {
+				entries = new ArrayList<>(1);
+				copies.put(sourceId, entries);
+			}
+			entries.add(entry);
+		}
+		entry.setCopyTime(copyTime);
+		loaded = true;
+		dirty = true;
+	}
+
+	// Forget a target network, e.g. because it no longer exists on the target server
+	public synchronized void removeTarget(UUID sourceId, UUID targetId) {
+		List<Entry> entries = copies.get(sourceId);
+		if (entries == null)
+			return;
+		for (int i = entries.size() - 1; i >= 0; i--) {
+			if (entries.get(i).getTargetId().equals(targetId)) {
+				entries.remove(i);
+				dirty = true;
+			}
+		}
+		if (entries.isEmpty())
+			copies.remove(sourceId);
+	}
+
+	// Take over all entries of another mapping, e.g. one written by a shard worker
+	public void merge(CopyMapping other) {
+		Map<UUID, List<Entry>> entries;
+		synchronized (other) {
+			entries = new HashMap<>(other.copies);
+		}
+		for (Map.Entry<UUID, List<Entry>> e : entries.entrySet()) {
+			for (Entry entry : e.getValue())
+				record(e.getKey(), entry.getTargetId(), entry.getCopyTime());
+		}
+	}
+
+	// Write the mapping back, replacing the old file only once the new one is complete
+	public synchronized void save() throws IOException {
+		if (!dirty)
+			return;
+		Map<String, List<Entry>> stored = new HashMap<>();
+		for (Map.Entry<UUID, List<Entry>> e : copies.entrySet()) {
+			stored.put(e.getKey().toString(), e.getValue());
+		}
+		// the old mapping stays in place until the new one is complete
+		File tmp = new File(file.getPath() + ".tmp");
+		new ObjectMapper().writeValue(tmp, stored);
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		dirty = false;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Entry {
+		UUID targetId;
+		long copyTime;
+
+		public UUID getTargetId() {
+			return targetId;
+		}
+
+		public void setTargetId(UUID targetId) {
+			this.targetId = targetId;
+		}
+
+		public long getCopyTime() {
+			return copyTime;
+		}
+
+		public void setCopyTime(long copyTime) {
+			this.copyTime = copyTime;
+		}
+	}
+
+}
@@ -30,6 +30,8 @@
  */
 package org.ndexbio.sync;
 
+import java.io.File;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
@@ -37,21 +39,36 @@ import java.net.URISyntaxException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.ndexbio.model.exceptions.NdexException;
+import org.ndexbio.model.exceptions.ObjectNotFoundException;
 import org.ndexbio.model.object.NdexProvenanceEventType;
 import org.ndexbio.model.object.ProvenanceEntity;
-import org.ndexbio.model.object.ProvenanceEvent;
-import org.ndexbio.model.object.SimplePropertyValuePair;
 import org.ndexbio.model.object.network.NetworkSummary;
 import org.ndexbio.model.tools.PropertyHelpers;
 import org.ndexbio.model.tools.ProvenanceHelpers;
+import org.ndexbio.sync.jfr.CxDownloadEvent;
+import org.ndexbio.sync.jfr.CxUploadEvent;
+import org.ndexbio.sync.jfr.DiscoveryEvent;
+import org.ndexbio.sync.jfr.PlanExecutionEvent;
+import org.ndexbio.sync.jfr.ValidationWaitEvent;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonSubTypes.Type;
@@ -65,174 +82,1108 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public abstract class CopyPlan implements NdexProvenanceEventType {
 	protected final static Logger LOGGER = Logger.getLogger(CopyPlan.class.getName());
 	
+	// strategies for finding existing copies of the source networks on the target
+	public static final String LOOKUP_SCAN = "scan";
+	public static final String LOOKUP_SEARCH = "search";
+	public static final String LOOKUP_MAPPING = "mapping";
+	// networks per request when listing the whole target account
+	static final int SCAN_PAGE_SIZE = 1000;
+	
 	NdexServer source;
 	NdexServer target;
 
 	String targetGroupName;
 	String planFileName;
-	List<NetworkSummary> sourceNetworks;
-	List<NetworkSummary> targetCandidates;
-	Map<UUID, ProvenanceEntity> srcProvenanceMap;
-	Map<UUID, ProvenanceEntity> tgtProvenanceMap;
+	List<NetworkRecord> sourceNetworks;
+	List<NetworkRecord> targetCandidates;
+	Map<UUID, ProvenanceRecord> srcProvenanceMap;
+	Map<UUID, ProvenanceRecord> tgtProvenanceMap;
 	
 	boolean updateTargetNetwork = false;
 	boolean updateReadOnlyNetwork = false;	
 
+	String targetLookup = LOOKUP_SCAN;
+	String mappingFile;
+	File planDirectory;
+	CopyMapping copyMapping;
+	ProgressReporter progress = new ProgressReporter();
+	// per-network decisions of the matching loop go here, not to LOGGER
+	EventLog events = EventLog.DEFAULT;
+	TransferSettings transfer = new TransferSettings();
+	AspectFilter aspectFilter = new AspectFilter();
+	VerifySettings verify = new VerifySettings();
+	CopyVerifier verifier;
+	SyncExecutor executor = new SyncExecutor(SyncExecutor.SEQUENTIAL);
+	PlanCompiler compiler;
+	
+	// skip provenance for networks the summaries and the copy mapping show as unchanged
+	boolean decideFromSummaries = true;
+	long clockSkew = 300;
+	// sync copy events kept in a row in the provenance of a copy, counting its own;
+	// older ones are collapsed into one event by ProvenanceCompactor. 0 keeps them all.
+	int maxCopyEvents = 0;
+	Set<UUID> unchangedNetworks = Collections.emptySet();
+	
+	RunBudget budget;
+	// cap on the CX bytes per second of the whole session, null if unlimited
+	RateLimiter sessionLimiter;
+	Set<UUID> deferredNetworks = ConcurrentHashMap.newKeySet();
+	// where a shard's share of the plan lists the networks it deferred, null otherwise
+	File shardDeferredFile;
+	
+	// plans of higher priority run first and get first claim on request permits and
+	// transfer slots; plans of equal priority keep plan file order
+	int priority = 0;
+	
+	// mirror mode: also delete the target copies of networks that left the source set,
+	// unless more than maxDeletePercent of this source's copies would go
+	boolean mirror = false;
+	double maxDeletePercent = 10;
+	// all networks the source returned, before any are dropped for unreadable provenance
+	Set<UUID> sourceIds = Collections.emptySet();
+	// false if the source lookup may have missed networks; nothing is deleted then
+	volatile boolean sourceSetComplete = true;
+	List<NetworkAction> deletions = new ArrayList<>();
+	
+	// sync copies among the target candidates, by the UUID of the network they were
+	// retrieved from and by the provenance URI of their input, so matching a source
+	// network to its copies is a lookup rather than a pass over all candidates
+	Map<UUID, List<NetworkRecord>> copiesBySource = Collections.emptyMap();
+	Map<String, List<NetworkRecord>> copiesByInput = Collections.emptyMap();
+	
+	// one run of the plan at a time, whether a session, a shard or a triggered sync,
+	// as runs share the plan's discovery state; a lock, not synchronized, so waiting
+	// virtual threads don't pin their carriers
+	private final ReentrantLock runLock = new ReentrantLock();
+
 	public void process() throws JsonProcessingException, IOException, NdexException {
-		source.initialize();
-		target.initialize();
+		runLock.lock();
+		PlanExecutionEvent planEvent = new PlanExecutionEvent();
+		planEvent.begin();
+		planEvent.plan = planFileName;
+		planEvent.source = source.getRoute();
+		planEvent.target = target.getRoute();
+		try {
+			processPlan();
+			planEvent.networks = sourceNetworks.size();
+		} finally {
+			planEvent.commit();
+			runLock.unlock();
+		}
+	}
+
+	private void processPlan() throws JsonProcessingException, IOException, NdexException {
+		discover();
+		findDeletions(sourceIds, sourceSetComplete);
+		processSourceNetworks();
+	}
+
+	// Copy or update the networks of a plan a PlanCompiler discovered
+	//
+	public void execute() throws JsonProcessingException, IOException, NdexException {
+		runLock.lock();
+		PlanExecutionEvent planEvent = new PlanExecutionEvent();
+		planEvent.begin();
+		planEvent.plan = planFileName;
+		planEvent.source = source.getRoute();
+		planEvent.target = target.getRoute();
+		try {
+			processSourceNetworks();
+			planEvent.networks = sourceNetworks.size();
+		} finally {
+			planEvent.commit();
+			runLock.unlock();
+		}
+	}
+
+	// Connect to both servers, find the source networks and their existing copies
+	// on the target, and get the provenance both sides' decisions depend on
+	//
+	void discover() throws JsonProcessingException, IOException, NdexException {
+		initializeServers();
 		if ( !target.getVersion().substring(0,2).equals("2."))
 			throw new NdexException ("This version only supports NDEx version 2.x server as the target.");
-		srcProvenanceMap = new HashMap<>();
-		tgtProvenanceMap = new HashMap<> ();
+		srcProvenanceMap = new ConcurrentHashMap<>();
+		tgtProvenanceMap = new ConcurrentHashMap<>();
+		copyMapping = openCopyMapping();
+		
+		DiscoveryEvent discovery = startDiscovery(source, "source networks");
+		sourceSetComplete = true;
 		findSourceNetworks();
+		commitDiscovery(discovery, sourceNetworks);
+		sourceIds = new HashSet<>(sourceNetworks.size() * 2);
+		for (NetworkRecord network : sourceNetworks)
+			sourceIds.add(network.getExternalId());
+		prioritizeDeferredNetworks();
+		
+		discovery = startDiscovery(target, "target candidates");
+		boolean scanned = !findTargetCandidatesByLookup();
+		if (scanned)
+			scanTargetAccount();
+		commitDiscovery(discovery, targetCandidates);
+		
+		// provenance is only needed where the summaries don't settle the decision
+		unchangedNetworks = findUnchangedNetworks();
 		getAllSourceProvenance();
-		findTargetCandidates();
 		getAllTargetProvenance();
-		
-		if (updateTargetNetwork) {
-			// update network(s) on the target server
-		    for (NetworkSummary network: sourceNetworks) {
-			    updateTargetNetwork(network);
-		    }
-		} else {
-			// copy source network(s) from source server to target
-		    for (NetworkSummary network: sourceNetworks) {
-			    copySourceNetwork(network);
-		    }
+		indexTargetCopies();
+		if (!scanned && LOOKUP_SEARCH.equalsIgnoreCase(targetLookup))
+			scanned = scanForUnmatchedSources();
+		if (scanned)
+			seedCopyMapping();
+	}
+
+	// Full scan of the target account, unless another plan of the session did it already
+	private void scanTargetAccount() throws JsonProcessingException, IOException, NdexException {
+		targetCandidates = null == compiler ? null : compiler.getAccountScan(target);
+		if (null == targetCandidates) {
+			findTargetCandidates();
+			if (null != compiler)
+				compiler.putAccountScan(target, targetCandidates);
+		}
+	}
+
+	// A search by name misses the copies of source networks renamed since they were
+	// copied. If a source network that may need work has no copy among the candidates
+	// found, scan the target account after all, so no duplicate copy is made.
+	// Returns true if the account was scanned.
+	//
+	private boolean scanForUnmatchedSources() throws JsonProcessingException, IOException, NdexException {
+		int unmatched = 0;
+		for (NetworkRecord network : sourceNetworks) {
+			if (!unchangedNetworks.contains(network.getExternalId()) && copiesRetrievedFrom(network.getExternalId()).isEmpty()
+					&& copiesOfInput(srcProvenanceMap.get(network.getExternalId())).isEmpty())
+				unmatched++;
+		}
+		if (unmatched == 0)
+			return false;
+		LOGGER.info(unmatched + " source networks of " + planFileName + " have no copy under their name in target,"
+				+ " scanning the target account for copies of renamed networks");
+		scanTargetAccount();
+		getAllTargetProvenance();
+		indexTargetCopies();
+		return true;
+	}
+
+	private void initializeServers() throws JsonProcessingException, IOException, NdexException {
+		source.setPriority(priority);
+		target.setPriority(priority);
+		source.initialize();
+		target.initialize();
+	}
+
+	// Index the sync copies among the target candidates by where they were copied from
+	private void indexTargetCopies() {
+		copiesBySource = new HashMap<>();
+		copiesByInput = new HashMap<>();
+		for (NetworkRecord candidate : targetCandidates) {
+			ProvenanceRecord provenance = tgtProvenanceMap.get(candidate.getExternalId());
+			if (null == provenance || !provenance.isSyncCopy())
+				continue;
+			if (null != provenance.getRetrievedFrom())
+				copiesBySource.computeIfAbsent(provenance.getRetrievedFrom(), id -> new ArrayList<>(1)).add(candidate);
+			if (null != provenance.getInputUri())
+				copiesByInput.computeIfAbsent(provenance.getInputUri().toLowerCase(), uri -> new ArrayList<>(1)).add(candidate);
+		}
+	}
+
+	private List<NetworkRecord> copiesRetrievedFrom(UUID sourceId) {
+		return copiesBySource.getOrDefault(sourceId, Collections.<NetworkRecord>emptyList());
+	}
+
+	private List<NetworkRecord> copiesOfInput(ProvenanceRecord sourceProvenance) {
+		if (null == sourceProvenance || null == sourceProvenance.getUri())
+			return Collections.emptyList();
+		return copiesByInput.getOrDefault(sourceProvenance.getUri().toLowerCase(), Collections.<NetworkRecord>emptyList());
+	}
+
+	// Mirror mode: pick the sync copies from this plan's source whose source network
+	// is not in wanted, the source networks of all plans of the session copying from
+	// the same source into the same account. This is a hash diff of the copy index
+	// against wanted, linear in the number of networks. Copies changed on the target
+	// after they were made are kept, and nothing is deleted if the source set may be
+	// incomplete or more than maxDeletePercent of the copies would go.
+	//
+	void findDeletions(Set<UUID> wanted, boolean complete) {
+		deletions = new ArrayList<>();
+		if (!mirror)
+			return;
+		if (!complete) {
+			LOGGER.warning("Source networks of " + planFileName + " may be incomplete, not deleting any copies in target");
+			return;
+		}
+		String sourceHost = hostOf(source.getRoute());
+		long skew = clockSkew * 1000L;
+		// copies of unchanged networks are known from the copy mapping, without provenance
+		int copies = unchangedNetworks.size();
+		List<NetworkAction> orphans = new ArrayList<>();
+		for (Map.Entry<UUID, List<NetworkRecord>> e : copiesBySource.entrySet()) {
+			if (unchangedNetworks.contains(e.getKey()))
+				continue;
+			for (NetworkRecord copy : e.getValue()) {
+				// only copies this plan made or found for its own source networks; other
+				// copies from the same host may belong to other plans or tools
+				if (null == copyMapping || null == copyMapping.getEntry(e.getKey(), copy.getExternalId()))
+					continue;
+				ProvenanceRecord provenance = tgtProvenanceMap.get(copy.getExternalId());
+				String inputHost = hostOf(provenance.getInputUri());
+				if (null == inputHost || !inputHost.equalsIgnoreCase(sourceHost))
+					continue;
+				copies++;
+				if (wanted.contains(e.getKey()))
+					continue;
+				if (copy.getModificationTime() > provenance.getEventEndedAt() + skew) {
+					LOGGER.info("Keeping " + copy.getExternalId() + ": its source " + e.getKey() + " is gone, but it was modified after the copy");
+					continue;
+				}
+				orphans.add(NetworkAction.deletion(planFileName, e.getKey(), copy, provenance));
+			}
+		}
+		if (orphans.size() * 100.0 > maxDeletePercent * copies) {
+			LOGGER.severe("Mirror of " + planFileName + " would delete " + orphans.size() + " of " + copies
+					+ " copies in target, more than maxDeletePercent " + maxDeletePercent + "%. Not deleting any.");
+			return;
+		}
+		deletions = orphans;
+		LOGGER.info("Mirror of " + planFileName + ": " + deletions.size() + " of " + copies + " copies in target to delete");
+	}
+
+	private static String hostOf(String uri) {
+		if (null == uri)
+			return null;
+		try {
+			return new URI(uri).getHost();
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+
+	// Key of the source set a mirror plan's deletions are decided against
+	String mirrorKey() {
+		return PlanCompiler.accountKey(target) + "|" + source.getRoute();
+	}
+
+	// Copy or update each source network found by discovery
+	//
+	private void processSourceNetworks() throws IOException, NdexException {
+		progress.planStarted(planFileName, sourceNetworks.size() + deletions.size());
+		verifier = new CopyVerifier(source, target, verify, transfer, aspectFilter, sessionLimiter, events);
+		executor.forEach(sourceNetworks, network -> {
+			NetworkTiming timing = progress.networkStarted(planFileName, network.getExternalId());
+			timing.setPriority(priority);
+			try {
+				if (unchangedNetworks.contains(network.getExternalId())) {
+					events.log(Level.FINE, timing, "skip.unchanged");
+				} else if (updateTargetNetwork) {
+					// update network(s) on the target server
+					updateTargetNetwork(network, timing);
+				} else {
+					// copy source network(s) from source server to target
+					copySourceNetwork(network, timing);
+				}
+			} finally {
+				progress.networkFinished(timing);
+				if (null != budget)
+					budget.finished(timing);
+			}
+		});
+		deleteCopies();
+		progress.planFinished(planFileName);
+		// the copies were checked alongside the transfers; wait for the last checks
+		verifier.await();
+		saveCopyMapping();
+		saveDeferredNetworks();
+	}
+
+	// Ask the run budget to admit the transfer of a network. A network that isn't
+	// admitted is recorded for the next run.
+	//
+	private boolean admit(NetworkRecord sourceNetwork, NetworkTiming timing) {
+		if (null == budget || budget.admit(sourceNetwork, timing))
+			return true;
+		timing.setAction(NetworkTiming.ACTION_DEFERRED);
+		deferredNetworks.add(sourceNetwork.getExternalId());
+		return false;
+	}
+
+	// File listing the networks deferred by the run budget, next to the plan
+	//
+	private File getDeferredFile() {
+		if (null == planDirectory)
+			return null;
+		return new File(planDirectory, planFileName.replaceFirst("\\.json$", "") + ".deferred");
+	}
+
+	private Set<UUID> loadDeferredNetworks(File file) {
+		Set<UUID> deferred = new HashSet<>();
+		if (null == file || !file.isFile())
+			return deferred;
+		try {
+			for (String id : new ObjectMapper().readValue(file, String[].class))
+				deferred.add(UUID.fromString(id));
+		} catch (IOException | IllegalArgumentException e) {
+			LOGGER.warning("Ignoring unreadable list of deferred networks " + file + ": " + e.getMessage());
+		}
+		return deferred;
+	}
+
+	// Networks deferred by the last run go first, so they get their share of the budget
+	//
+	private void prioritizeDeferredNetworks() {
+		Set<UUID> deferred = loadDeferredNetworks(getDeferredFile());
+		if (deferred.isEmpty())
+			return;
+		List<NetworkRecord> reordered = new ArrayList<>(sourceNetworks.size());
+		for (NetworkRecord network : sourceNetworks) {
+			if (deferred.contains(network.getExternalId()))
+				reordered.add(network);
+		}
+		LOGGER.info(reordered.size() + " networks deferred by the last run go first");
+		for (NetworkRecord network : sourceNetworks) {
+			if (!deferred.contains(network.getExternalId()))
+				reordered.add(network);
+		}
+		sourceNetworks = reordered;
+	}
+
+	// Update the list of deferred networks: the ones processed now are done, the
+	// ones deferred now are added, other entries are kept. A shard writes only what
+	// it deferred, to a file of its own; the coordinator merges those.
+	//
+	private void saveDeferredNetworks() {
+		if (null != shardDeferredFile) {
+			writeDeferredNetworks(shardDeferredFile, deferredNetworks);
+			return;
+		}
+		File file = getDeferredFile();
+		if (null == file)
+			return;
+		Set<UUID> deferred = loadDeferredNetworks(file);
+		for (NetworkRecord network : sourceNetworks)
+			deferred.remove(network.getExternalId());
+		deferred.addAll(deferredNetworks);
+		if (writeDeferredNetworks(file, deferred) && !deferredNetworks.isEmpty())
+			LOGGER.info(deferredNetworks.size() + " networks of " + planFileName + " deferred to the next run");
+	}
+
+	// Replace the list of deferred networks with the ones the shards of a session
+	// deferred. The networks of the old list were handed out to the shards with the
+	// rest of the plan's networks, so they are done or deferred again, unless a shard
+	// failed; then the old list is kept as well.
+	//
+	void mergeDeferredNetworks(List<File> shardFiles, boolean keepPrevious) {
+		File file = getDeferredFile();
+		if (null == file)
+			return;
+		Set<UUID> deferred = keepPrevious ? loadDeferredNetworks(file) : new HashSet<UUID>();
+		int merged = 0;
+		for (File shardFile : shardFiles) {
+			Set<UUID> shardDeferred = loadDeferredNetworks(shardFile);
+			merged += shardDeferred.size();
+			deferred.addAll(shardDeferred);
+		}
+		if (writeDeferredNetworks(file, deferred) && merged > 0)
+			LOGGER.info(merged + " networks of " + planFileName + " deferred to the next run");
+	}
+
+	// Write a list of deferred networks, or remove the file if the list is empty
+	private boolean writeDeferredNetworks(File file, Set<UUID> deferred) {
+		try {
+			if (deferred.isEmpty()) {
+				if (file.exists() && !file.delete())
+					throw new IOException("Unable to delete " + file);
+				return true;
+			}
+			List<String> ids = new ArrayList<>(deferred.size());
+			for (UUID id : deferred)
+				ids.add(id.toString());
+			new ObjectMapper().writeValue(file, ids);
+			return true;
+		} catch (IOException e) {
+			LOGGER.severe("Error saving deferred networks " + file + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	// Drop the source networks an earlier plan of the session already copies into
+	// the same target account, and claim the rest. Returns the number dropped.
+	// Two plans can't both keep a network, since neither would see the copy the
+	// other makes; if they copy it differently, the earlier plan's settings win.
+	//
+	int dropClaimedNetworks(Map<String, CopyPlan> claimed) {
+		String account = PlanCompiler.accountKey(target);
+		int before = sourceNetworks.size();
+		sourceNetworks.removeIf(network -> {
+			String key = account + "|" + network.getExternalId();
+			CopyPlan owner = claimed.putIfAbsent(key, this);
+			if (null == owner)
+				return false;
+			if (owner.copySettings().equals(copySettings()))
+				LOGGER.info("Network " + network.getExternalId() + " is already copied to " + account + " by an earlier plan");
+			else
+				LOGGER.warning("Network " + network.getExternalId() + " is already copied to " + account + " by "
+						+ owner.getPlanFileName() + ", whose settings (" + owner.copySettings() + ") apply instead of "
+						+ planFileName + "'s (" + copySettings() + ")");
+			return true;
+		});
+		return before - sourceNetworks.size();
+	}
+
+	// The settings that decide what a copy looks like and whether it is updated
+	String copySettings() {
+		List<String> dropAspects = null == aspectFilter.getDropAspects() ? new ArrayList<String>()
+				: new ArrayList<>(aspectFilter.getDropAspects());
+		Collections.sort(dropAspects);
+		return "dropAspects=" + dropAspects + ", updateTargetNetwork=" + updateTargetNetwork
+				+ ", updateReadOnlyNetwork=" + updateReadOnlyNetwork + ", maxCopyEvents=" + maxCopyEvents;
+	}
+
+	// Let go of what discover() found once the plan was executed or handed out to
+	// shards. The copy mapping stays, for triggered syncs and the shard merge.
+	//
+	void releaseDiscovery() {
+		compiler = null;
+		sourceNetworks = new ArrayList<>();
+		targetCandidates = null;
+		srcProvenanceMap = new ConcurrentHashMap<>();
+		tgtProvenanceMap = new ConcurrentHashMap<>();
+		unchangedNetworks = Collections.emptySet();
+		sourceIds = Collections.emptySet();
+		deletions = new ArrayList<>();
+		copiesBySource = Collections.emptyMap();
+		copiesByInput = Collections.emptyMap();
+	}
+
+	// The work for each source network after discover(), with the target candidates
+	// that are sync copies of it. Candidates that aren't can't change the decision
+	// in updateTargetNetwork or copySourceNetwork, so they are left out.
+	//
+	List<NetworkAction> getNetworkActions() {
+		List<NetworkAction> actions = new ArrayList<>(sourceNetworks.size());
+		for (NetworkRecord network : sourceNetworks) {
+			ProvenanceRecord sourceProvenance = srcProvenanceMap.get(network.getExternalId());
+			NetworkAction action = new NetworkAction(planFileName, network, sourceProvenance);
+			if (unchangedNetworks.contains(network.getExternalId())) {
+				action.setUnchanged(true);
+				actions.add(action);
+				continue;
+			}
+			Set<NetworkRecord> copies = new LinkedHashSet<>(copiesRetrievedFrom(network.getExternalId()));
+			copies.addAll(copiesOfInput(sourceProvenance));
+			for (NetworkRecord candidate : copies)
+				action.addCandidate(candidate, tgtProvenanceMap.get(candidate.getExternalId()));
+			actions.add(action);
+		}
+		actions.addAll(deletions);
+		return actions;
+	}
+
+	// Run a share of this plan's work that was discovered by a coordinator.
+	// Copies made are recorded in the given mapping, if any, and networks deferred by
+	// the run budget in deferredFile, for the coordinator to merge; the plan's own
+	// mapping is left as it was. The given mapping is saved even if the share fails
+	// part way, so the copies made so far are kept.
+	//
+	public void processActions(List<NetworkAction> actions, CopyMapping mapping, File deferredFile)
+			throws JsonProcessingException, IOException, NdexException {
+		runLock.lock();
+		CopyMapping planMapping = copyMapping;
+		deferredNetworks = ConcurrentHashMap.newKeySet();
+		shardDeferredFile = deferredFile;
+		boolean processed = false;
+		PlanExecutionEvent planEvent = new PlanExecutionEvent();
+		planEvent.begin();
+		planEvent.plan = planFileName;
+		planEvent.source = source.getRoute();
+		planEvent.target = target.getRoute();
+		try {
+			initializeServers();
+			srcProvenanceMap = new ConcurrentHashMap<>();
+			tgtProvenanceMap = new ConcurrentHashMap<>();
+			sourceNetworks = new ArrayList<>(actions.size());
+			unchangedNetworks = new HashSet<>();
+			deletions = new ArrayList<>();
+			Map<UUID, NetworkRecord> candidates = new LinkedHashMap<>();
+			for (NetworkAction action : actions) {
+				if (action.isDelete()) {
+					deletions.add(action);
+					continue;
+				}
+				sourceNetworks.add(action.getSource());
+				if (action.isUnchanged())
+					unchangedNetworks.add(action.getSource().getExternalId());
+				if (null != action.getSourceProvenance())
+					srcProvenanceMap.put(action.getSource().getExternalId(), action.getSourceProvenance());
+				for (NetworkRecord candidate : action.getCandidates())
+					candidates.put(candidate.getExternalId(), candidate);
+				tgtProvenanceMap.putAll(action.getCandidateProvenance());
+			}
+			targetCandidates = new ArrayList<>(candidates.values());
+			indexTargetCopies();
+			copyMapping = mapping;
+			processSourceNetworks();
+			processed = true;
+			planEvent.networks = sourceNetworks.size();
+		} finally {
+			if (!processed && copyMapping == mapping)
+				saveCopyMapping();
+			copyMapping = planMapping;
+			shardDeferredFile = null;
+			planEvent.commit();
+			runLock.unlock();
+		}
+	}
+
+	// Copy or update one source network right away, on a notification from a
+	// SyncTrigger, with the same matching and transfer as a full run. The network's
+	// copies are found through the copy mapping, or by name if the mapping doesn't
+	// know the network; the target account is only scanned if neither finds a copy.
+	// A network the plan doesn't select (see selects) is refused, even if the
+	// notification was checked when it came in: it may have changed since. Runs of
+	// one plan don't overlap.
+	//
+	public void processTriggered(UUID networkId) throws JsonProcessingException, IOException, NdexException {
+		runLock.lock();
+		PlanExecutionEvent planEvent = new PlanExecutionEvent();
+		planEvent.begin();
+		planEvent.plan = planFileName;
+		planEvent.source = source.getRoute();
+		planEvent.target = target.getRoute();
+		try {
+			if (!source.isInitialized() || !target.isInitialized())
+				initializeServers();
+			srcProvenanceMap = new ConcurrentHashMap<>();
+			tgtProvenanceMap = new ConcurrentHashMap<>();
+			if (null == copyMapping)
+				copyMapping = openCopyMapping();
+			// not the cached summary: the notification says the network just changed
+			NetworkSummary summary = source.getCurrentNetworkSummary(networkId);
+			if (null == summary)
+				throw new NdexException("Network " + networkId + " not found in source");
+			if (!selects(summary))
+				throw new NdexException("Network " + networkId + " is not in the source set of " + planFileName);
+			sourceNetworks = new ArrayList<>(1);
+			sourceNetworks.add(NetworkRecord.of(summary));
+			sourceIds = Collections.singleton(networkId);
+			unchangedNetworks = Collections.emptySet();
+			deletions = new ArrayList<>();
+			boolean searched = findTriggeredCandidates(sourceNetworks.get(0));
+			getAllSourceProvenance();
+			getAllTargetProvenance();
+			indexTargetCopies();
+			if (searched) {
+				// the session's scan is out of date by now
+				PlanCompiler session = compiler;
+				compiler = null;
+				try {
+					scanForUnmatchedSources();
+				} finally {
+					compiler = session;
+				}
+			}
+			processSourceNetworks();
+			planEvent.networks = sourceNetworks.size();
+		} finally {
+			planEvent.commit();
+			runLock.unlock();
+		}
+	}
+
+	// The source network a notification names, as the source server has it now, or
+	// null if it doesn't have it
+	public NetworkSummary getTriggeredSource(UUID networkId) throws IOException, NdexException {
+		if (!source.isInitialized() || !target.isInitialized()) {
+			runLock.lock();
+			try {
+				if (!source.isInitialized() || !target.isInitialized())
+					initializeServers();
+			} finally {
+				runLock.unlock();
+			}
+		}
+		try {
+			return source.getCurrentNetworkSummary(networkId);
+		} catch (ObjectNotFoundException e) {
+			return null;
 		}
 	}
 
+	// Candidate copies of a triggered network: its copies in the copy mapping, or
+	// the networks with its name in the target account. Returns true if they were
+	// found by name.
+	//
+	private boolean findTriggeredCandidates(NetworkRecord network) throws IOException, NdexException {
+		Set<UUID> candidateIds = new LinkedHashSet<>();
+		if (null != copyMapping && copyMapping.isLoaded())
+			candidateIds.addAll(copyMapping.getCopies(network.getExternalId()));
+		boolean searched = candidateIds.isEmpty();
+		if (searched)
+			candidateIds.addAll(searchTargetCopies(network));
+		targetCandidates = Collections.synchronizedList(new ArrayList<NetworkRecord>(candidateIds.size()));
+		for (UUID targetId : candidateIds)
+			addTargetCandidate(targetId, network.getExternalId());
+		return searched;
+	}
+
+	// Check the plan as read from its file without contacting any server.
+	// Returns the problems found, empty if the plan looks runnable.
+	//
+	public List<String> validate() {
+		List<String> problems = new ArrayList<>();
+		if (null == source || null == source.getRoute())
+			problems.add("no source server route");
+		if (null == target || null == target.getRoute())
+			problems.add("no target server route");
+		if (null != source && !isKnownBackend(source.getBackend()))
+			problems.add("unknown source backend '" + source.getBackend() + "'");
+		if (null != target && !isKnownBackend(target.getBackend()))
+			problems.add("unknown target backend '" + target.getBackend() + "'");
+		if (null != targetLookup && !LOOKUP_SCAN.equalsIgnoreCase(targetLookup)
+				&& !LOOKUP_SEARCH.equalsIgnoreCase(targetLookup) && !LOOKUP_MAPPING.equalsIgnoreCase(targetLookup))
+			problems.add("unknown targetLookup '" + targetLookup + "'");
+		if (mirror && LOOKUP_SEARCH.equalsIgnoreCase(targetLookup))
+			problems.add("mirror needs targetLookup scan or mapping to find copies of removed networks");
+		if (maxDeletePercent < 0)
+			problems.add("maxDeletePercent must not be negative");
+		if (maxCopyEvents < 0)
+			problems.add("maxCopyEvents must not be negative");
+		if (verify.getSample() < 0 || verify.getSample() > 1)
+			problems.add("verify.sample must be between 0 and 1");
+		validateHedging("source", source, problems);
+		validateHedging("target", target, problems);
+		validateBandwidth("source", source, problems);
+		validateBandwidth("target", target, problems);
+		return problems;
+	}
+
+	private static void validateHedging(String role, NdexServer server, List<String> problems) {
+		if (null == server)
+			return;
+		if (server.getHedgePercentile() < 0 || server.getHedgePercentile() >= 100)
+			problems.add(role + " hedgePercentile must be between 0 (off) and 99");
+		if (server.getHedgeBudget() < 0)
+			problems.add(role + " hedgeBudget must not be negative");
+	}
+
+	private static void validateBandwidth(String role, NdexServer server, List<String> problems) {
+		if (null == server || null == server.getBandwidth())
+			return;
+		try {
+			BandwidthProfile.parse(server.getBandwidth());
+		} catch (IllegalArgumentException e) {
+			problems.add("invalid " + role + " bandwidth '" + server.getBandwidth() + "': " + e.getMessage());
+		}
+	}
+
+	private static boolean isKnownBackend(String backend) {
+		return null == backend || NdexServer.BACKEND_REST.equals(backend)
+				|| NdexServer.BACKEND_ASYNC.equals(backend);
+	}
+
+	// Mirror mode: delete the copies whose source left the source set
+	private void deleteCopies() throws IOException, NdexException {
+		executor.forEach(deletions, action -> {
+			UUID sourceId = action.getSource().getExternalId();
+			NetworkRecord copy = action.getCandidates().get(0);
+			NetworkTiming timing = progress.networkStarted(planFileName, sourceId);
+			timing.setPriority(priority);
+			timing.setAction(NetworkTiming.ACTION_DELETE);
+			timing.setTargetId(copy.getExternalId());
+			try {
+				target.deleteNetwork(copy.getExternalId());
+				if (null != copyMapping)
+					copyMapping.removeTarget(sourceId, copy.getExternalId());
+				LOGGER.info("Deleted " + copy.getExternalId() + " from target, its source " + sourceId + " left the source set");
+			} catch (IOException | NdexException e) {
+				timing.setError(e.toString());
+				LOGGER.severe("Error deleting " + copy.getExternalId() + " from target: " + e.getMessage());
+			} finally {
+				progress.networkFinished(timing);
+			}
+		});
+	}
+
+	// True if the plan keeps a copy mapping file
+	boolean usesCopyMapping() {
+		return null != mappingFile || mirror || LOOKUP_MAPPING.equalsIgnoreCase(targetLookup);
+	}
+
+	// The plan's copy mapping after discover(), or null if it doesn't keep one
+	CopyMapping getCopyMapping() {
+		return copyMapping;
+	}
+
 
 	// Find networks in target NDEx in the target account.
 	//
 	// In this version:
 	//        the account is always the target user account.
-	//        the number of networks queried is limited to 100
+	//        the account is listed in pages of SCAN_PAGE_SIZE networks; the search
+	//        counts start in pages, not networks
 	//
 	private void findTargetCandidates() throws JsonProcessingException, IOException, NdexException {
-		targetCandidates = target.getNdex().findNetworks("",  target.getUsername(), null, false, 0, 10000).getNetworks();
+		targetCandidates = new ArrayList<>();
+		for (int page = 0; ; page++) {
+			List<NetworkSummary> networks = target.findNetworks("", target.getUsername(), page, SCAN_PAGE_SIZE);
+			targetCandidates.addAll(toRecords(networks));
+			if (networks.size() < SCAN_PAGE_SIZE)
+				break;
+		}
 		LOGGER.info("Found " + targetCandidates.size() + " networks in target NDEx under  " + target.getUsername());
 	}
 
 	public abstract void findSourceNetworks() throws NdexException, IOException;
 
-	// Get the provenance history for each candidate network in the target account
+	// Whether a source network is one the plan copies, as findSourceNetworks would
+	// find it now; checks the networks named in notifications
+	public abstract boolean selects(NetworkSummary network) throws NdexException, IOException;
+
+	private DiscoveryEvent startDiscovery(NdexServer server, String kind) {
+		DiscoveryEvent event = new DiscoveryEvent();
+		event.begin();
+		event.plan = planFileName;
+		event.server = server.getRoute();
+		event.kind = kind;
+		return event;
+	}
+
+	private static void commitDiscovery(DiscoveryEvent event, List<NetworkRecord> networks) {
+		event.networks = null == networks ? 0 : networks.size();
+		event.commit();
+	}
+
+	// Find existing copies of the source networks with targeted lookups instead of
+	// listing the whole target account.
+	// Returns false if the plan uses the full scan, or if the lookup could not be
+	// done, in which case the caller falls back to the full scan.
+	//
+	private boolean findTargetCandidatesByLookup() {
+		if (null == targetLookup || LOOKUP_SCAN.equalsIgnoreCase(targetLookup))
+			return false;
+		
+		// candidate target network -> source network it is expected to be a copy of
+		Map<UUID, UUID> candidateIds = new ConcurrentHashMap<>();
+		try {
+			if (LOOKUP_MAPPING.equalsIgnoreCase(targetLookup)) {
+				if (null == copyMapping || !copyMapping.isLoaded()) {
+					LOGGER.info("No copy mapping available yet, scanning the target account to build it");
+					return false;
+				}
+				for (NetworkRecord network : sourceNetworks) {
+					for (UUID targetId : copyMapping.getCopies(network.getExternalId()))
+						candidateIds.put(targetId, network.getExternalId());
+				}
+				if (mirror) {
+					// copies of networks that left the source set, the mirror may delete them
+					for (UUID sourceId : copyMapping.getSources()) {
+						if (!sourceIds.contains(sourceId)) {
+							for (UUID targetId : copyMapping.getCopies(sourceId))
+								candidateIds.put(targetId, sourceId);
+						}
+					}
+				}
+			} else if (LOOKUP_SEARCH.equalsIgnoreCase(targetLookup)) {
+				executor.forEach(sourceNetworks, network -> {
+					for (UUID targetId : searchTargetCopies(network))
+						candidateIds.put(targetId, network.getExternalId());
+				});
+			} else {
+				LOGGER.warning("Unknown targetLookup '" + targetLookup + "', scanning the target account");
+				return false;
+			}
+			
+			targetCandidates = Collections.synchronizedList(new ArrayList<NetworkRecord>(candidateIds.size()));
+			executor.forEach(candidateIds.entrySet(), candidate -> addTargetCandidate(candidate.getKey(), candidate.getValue()));
+		} catch (IOException | NdexException e) {
+			LOGGER.warning("Targeted lookup of existing copies failed, scanning the target account instead: " + e.getMessage());
+			tgtProvenanceMap.clear();
+			return false;
+		}
+		LOGGER.info("Found " + targetCandidates.size() + " candidate copies in target NDEx under " + target.getUsername() + " by " + targetLookup);
+		return true;
+	}
+
+	// Search the target account for networks with the same name as the source network.
+	// Copies are made from the source CX, so they carry the source name as of the copy;
+	// see scanForUnmatchedSources for renamed sources.
+	//
+	private List<UUID> searchTargetCopies(NetworkRecord sourceNetwork) throws IOException, NdexException {
+		List<UUID> result = new ArrayList<>();
+		String name = sourceNetwork.getName();
+		if (null == name || name.trim().isEmpty())
+			return result;
+		for (NetworkSummary network : target.findNetworks(nameQuery(name), target.getUsername(), 0, 100)) {
+			if (name.equalsIgnoreCase(network.getName()))
+				result.add(network.getExternalId());
+		}
+		return result;
+	}
+
+	private static String nameQuery(String name) {
+		return "name:\"" + name.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	// Get the summary of one candidate found by a targeted lookup.
+	// Candidates that no longer exist are skipped; other errors fail the lookup.
+	//
+	private void addTargetCandidate(UUID targetId, UUID sourceId) throws IOException, NdexException {
+		try {
+			NetworkSummary summary = target.getNetworkSummaryById(targetId);
+			if (null == summary)
+				throw new ObjectNotFoundException("Network " + targetId + " not found");
+			targetCandidates.add(NetworkRecord.of(summary));
+		} catch (ObjectNotFoundException e) {
+			LOGGER.info("Skipping candidate copy " + targetId + ": " + e.getMessage());
+			if (null != copyMapping)
+				copyMapping.removeTarget(sourceId, targetId);
+		}
+	}
+
+	// Open the copy mapping if the plan has one, or uses it for lookup
+	//
+	private CopyMapping openCopyMapping() {
+		if (!usesCopyMapping())
+			return null;
+		String fileName = mappingFile;
+		if (null == fileName) {
+			fileName = planFileName.replaceFirst("\\.json$", "") + ".mapping";
+		}
+		File file = new File(fileName);
+		if (!file.isAbsolute() && null != planDirectory)
+			file = new File(planDirectory, fileName);
+		CopyMapping mapping = new CopyMapping(file);
+		mapping.load();
+		return mapping;
+	}
+
+	// After a full scan, record all sync copies found in the target account
+	// so later runs can use the mapping instead of scanning again. A mirror plan
+	// deletes what its mapping lists, so it only records copies of its own source
+	// networks, not those other plans or tools made in the same account.
+	//
+	private void seedCopyMapping() {
+		if (null == copyMapping)
+			return;
+		for (NetworkRecord network : targetCandidates) {
+			ProvenanceRecord provenance = tgtProvenanceMap.get(network.getExternalId());
+			if (null != provenance && provenance.isSyncCopy() && null != provenance.getRetrievedFrom()
+					&& (!mirror || sourceIds.contains(provenance.getRetrievedFrom()))) {
+				long copyTime = ProvenanceRecord.NO_TIME == provenance.getEventEndedAt()
+						? network.getModificationTime() : provenance.getEventEndedAt();
+				copyMapping.record(provenance.getRetrievedFrom(), network.getExternalId(), copyTime);
+			}
+		}
+	}
+
+	private void recordCopy(NetworkRecord sourceNetwork, UUID targetId, long copyTime) {
+		if (null != copyMapping)
+			copyMapping.record(sourceNetwork.getExternalId(), targetId, copyTime);
+	}
+
+	void saveCopyMapping() {
+		if (null == copyMapping)
+			return;
+		try {
+			copyMapping.save();
+		} catch (IOException e) {
+			LOGGER.severe("Error saving copy mapping " + copyMapping.getFile() + ": " + e.getMessage());
+		}
+	}
+
+	// Project network summaries to the compact records kept by the plan
+	//
+	static List<NetworkRecord> toRecords(List<NetworkSummary> summaries) {
+		List<NetworkRecord> records = new ArrayList<>(summaries.size());
+		for (NetworkSummary summary : summaries) {
+			records.add(NetworkRecord.of(summary));
+		}
+		return records;
+	}
+
+	// Get the provenance history for each candidate network in the target account,
+	// except the known copies of unchanged source networks. If all source networks
+	// are unchanged, none is needed, unless the plan mirrors and has to find the
+	// copies of removed networks.
 	//
 	private void getAllTargetProvenance() throws JsonProcessingException, IOException, NdexException {
-		LOGGER.info("Getting provenance history for " + targetCandidates.size() + " candidate networks in target account");
-		getAllProvenance(target, targetCandidates, tgtProvenanceMap);
+		List<NetworkRecord> candidates = new ArrayList<>();
+		if (mirror || unchangedNetworks.size() < sourceNetworks.size()) {
+			Set<UUID> knownCopies = new HashSet<>();
+			for (UUID sourceId : unchangedNetworks)
+				knownCopies.addAll(copyMapping.getCopies(sourceId));
+			for (NetworkRecord candidate : targetCandidates) {
+				// after a search, a scan only needs the provenance of the networks it adds
+				if (!knownCopies.contains(candidate.getExternalId()) && !tgtProvenanceMap.containsKey(candidate.getExternalId()))
+					candidates.add(candidate);
+			}
+		}
+		LOGGER.info("Getting provenance history for " + candidates.size() + " of " + targetCandidates.size() + " candidate networks in target account");
+		targetCandidates.removeAll(getAllProvenance(target, candidates, tgtProvenanceMap, false));
 	}
 
-	// Get the provenance history for each source network
+	// Get the provenance history for each source network that changed, or whose
+	// status the summaries don't tell
 	//
 	private void getAllSourceProvenance() throws JsonProcessingException, IOException, NdexException {
-		LOGGER.info("Getting Source Network Provenance for " + sourceNetworks.size() + " networks");
-		getAllProvenance(source, sourceNetworks, srcProvenanceMap);
+		List<NetworkRecord> networks = new ArrayList<>(sourceNetworks.size());
+		for (NetworkRecord network : sourceNetworks) {
+			if (!unchangedNetworks.contains(network.getExternalId()))
+				networks.add(network);
+		}
+		LOGGER.info("Getting Source Network Provenance for " + networks.size() + " of " + sourceNetworks.size() + " networks");
+		sourceNetworks.removeAll(getAllProvenance(source, networks, srcProvenanceMap, true));
+	}
+
+	// Source networks whose copy, as recorded in the copy mapping, is still current
+	// judging by the summaries alone: the source wasn't modified after the copy was
+	// made, and the copy wasn't modified after that either. These need no provenance.
+	// Modification times come from the servers' clocks and copy times from ours, so
+	// anything within clockSkew of the copy time counts as unclear.
+	//
+	private Set<UUID> findUnchangedNetworks() {
+		Set<UUID> unchanged = new HashSet<>();
+		if (!decideFromSummaries || null == copyMapping || !copyMapping.isLoaded())
+			return unchanged;
+		Map<UUID, NetworkRecord> candidates = new HashMap<>();
+		for (NetworkRecord candidate : targetCandidates)
+			candidates.put(candidate.getExternalId(), candidate);
+		long skew = clockSkew * 1000L;
+		for (NetworkRecord network : sourceNetworks) {
+			for (UUID targetId : copyMapping.getCopies(network.getExternalId())) {
+				NetworkRecord copy = candidates.get(targetId);
+				CopyMapping.Entry entry = copyMapping.getEntry(network.getExternalId(), targetId);
+				if (null != copy && null != entry
+						&& network.getModificationTime() + skew < entry.getCopyTime()
+						&& copy.getModificationTime() <= entry.getCopyTime() + skew) {
+					unchanged.add(network.getExternalId());
+					break;
+				}
+			}
+		}
+		LOGGER.info(unchanged.size() + " of " + sourceNetworks.size() + " source networks unchanged since their last copy");
+		return unchanged;
 	}
 	
 	// Get the provenance history for a list of networks
-	// Store by UUID in the provenance map
+	// Store the compact projection by UUID in the provenance map; the full
+	// provenance tree is dropped right away. With keepHistory (source networks)
+	// the record keeps it in serialized form, for the provenance of the copy.
+	// Returns the networks whose provenance couldn't be read.
 	//
-	private void getAllProvenance(NdexServer server, List<NetworkSummary> networks, Map<UUID, ProvenanceEntity> provenanceMap) { //throws JsonProcessingException, IOException, NdexException{
+	private Set<NetworkRecord> getAllProvenance(NdexServer server, List<NetworkRecord> networks, Map<UUID, ProvenanceRecord> provenanceMap,
+			boolean keepHistory) throws IOException, NdexException {
+		
+		Set<NetworkRecord> networksNotToCopy = ConcurrentHashMap.newKeySet();
 		
-		ArrayList<NetworkSummary> networksNotToCopy = new ArrayList<NetworkSummary>();
+		// take what other plans of the session fetched already, and share what we fetch
+		Map<UUID, Optional<ProvenanceRecord>> shared = null == compiler ? null : compiler.getProvenance(server);
+		List<NetworkRecord> toFetch = networks;
+		if (null != shared) {
+			toFetch = new ArrayList<>(networks.size());
+			for (NetworkRecord network : networks) {
+				Optional<ProvenanceRecord> known = shared.get(network.getExternalId());
+				// a record fetched as a target candidate lacks the history a source needs
+				if (null == known || (keepHistory && known.isPresent() && !known.get().hasHistory()))
+					toFetch.add(network);
+				else if (known.isPresent())
+					provenanceMap.put(network.getExternalId(), known.get());
+			}
+		}
+		fetchProvenance(server, toFetch, provenanceMap, networksNotToCopy, shared, keepHistory);
+				
+		// the caller removes networks whose provenance we couldn't read, since we can't copy/update these networks
+		return networksNotToCopy;
+	}
+
+	private void fetchProvenance(NdexServer server, List<NetworkRecord> networks, Map<UUID, ProvenanceRecord> provenanceMap,
+			Set<NetworkRecord> networksNotToCopy, Map<UUID, Optional<ProvenanceRecord>> shared, boolean keepHistory) throws IOException, NdexException {
+		if (server.isAsync()) {
+			// issue all lookups at once; the client bounds how many are actually on the wire
+			List<CompletableFuture<Void>> lookups = new ArrayList<>(networks.size());
+			for (NetworkRecord network : networks) {
+				lookups.add(server.getNetworkProvenanceAsync(network.getExternalId()).handle((provenance, error) -> {
+					if (null != error) {
+						networksNotToCopy.add(network);
+						LOGGER.warning("Error reading provenance of " + network.getExternalId() + ": " + AsyncNdexClient.cause(error).getMessage());
+					} else {
+						store(network, provenance, provenanceMap, shared, keepHistory);
+					}
+					return null;
+				}));
+			}
+			AsyncNdexClient.await(CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0])));
+			return;
+		}
 		
-		for (NetworkSummary network : networks) {
+		executor.forEach(networks, network -> {
 			try {
-			    ProvenanceEntity provenance = server.getNdex().getNetworkProvenance(network.getExternalId().toString());
-			    if (null != provenance) {
-			    	LOGGER.info("Storing Provenance for network " + network.getExternalId());
-				    provenanceMap.put(network.getExternalId(), provenance);
-			    }
+			    ProvenanceEntity provenance = server.getNetworkProvenance(network.getExternalId());
+			    store(network, provenance, provenanceMap, shared, keepHistory);
 			} catch (IOException | NdexException e) {
 				// unable to read this networks' provenance.  It means we won't be able to copy/update it.
 				// Let's save it in the networksNotToCopy list and remove it from the copy plan later. 
 				networksNotToCopy.add(network);
 
-                System.out.println(e.getMessage());
-                continue;
+				LOGGER.warning("Error reading provenance of " + network.getExternalId() + ": " + e.getMessage());
 			}
-		}
-				
-		for (NetworkSummary network : networksNotToCopy) {
-			// remove networks whose provenance we couldn't read, since we can't copy/update these networks
-			networks.remove(network);
-		}
-		
+		});
+	}
+
+	private static void store(NetworkRecord network, ProvenanceEntity provenance, Map<UUID, ProvenanceRecord> provenanceMap,
+			Map<UUID, Optional<ProvenanceRecord>> shared, boolean keepHistory) {
+		ProvenanceRecord record = null == provenance ? null : ProvenanceRecord.of(provenance, keepHistory);
+		if (null != record)
+			provenanceMap.put(network.getExternalId(), record);
+		if (null != shared)
+			shared.put(network.getExternalId(), Optional.ofNullable(record));
 	}
 
 	// Process one source network
 	//
-	private void updateTargetNetwork(NetworkSummary sourceNetwork) throws JsonProcessingException, IOException, NdexException {
-		LOGGER.info("Trying to update target network created from source " + sourceNetwork.getName() + " ; source last modified " + sourceNetwork.getModificationTime());
+	private void updateTargetNetwork(NetworkRecord sourceNetwork, NetworkTiming timing) throws JsonProcessingException, IOException, NdexException {
+		events.log(Level.FINE, timing, "update.start", "name", sourceNetwork.getName(), "modified", sourceNetwork.getModificationTime());
 		
 		// for targetCandidate, get provenance history and determine whether the target candidate
 		// is a first generation copy of the source network.
 		
 		boolean copySourceNetwork = true;
 
-		String sourceNetworkUUID = sourceNetwork.getExternalId().toString(); 
-		String parentNetworkUUID = null;
-		String parentEntityUri   = null;
+		UUID sourceNetworkUUID = sourceNetwork.getExternalId(); 
 		
 		// Get the provenance history of the source from the provenance map
-		ProvenanceEntity sourceRootProvenanceEntity = srcProvenanceMap.get(sourceNetwork.getExternalId());
+		ProvenanceRecord sourceRootProvenance = srcProvenanceMap.get(sourceNetwork.getExternalId());
 		
-		// Evaluate all targetCandidates to see if there is an existing copy of the source
-		// and whether that copy needs update
-		for (NetworkSummary targetCandidate : targetCandidates) {
+		// Evaluate the sync copies retrieved from the source to see if there is an existing
+		// copy of the source and whether that copy needs update
+		for (NetworkRecord targetCandidate : copiesRetrievedFrom(sourceNetworkUUID)) {
 			
-			// get provenance of the target network from the server
-			ProvenanceEntity targetRootProvenanceEntity = tgtProvenanceMap.get(targetCandidate.getExternalId());
+			// get provenance of the target network from the provenance map
+			ProvenanceRecord targetRootProvenance = tgtProvenanceMap.get(targetCandidate.getExternalId());
 			
-			if (null == targetRootProvenanceEntity){
+			if (null == targetRootProvenance){
 				// no provenance root entity, hence unknown status
-				LOGGER.info("No provenance entity exists for target " + targetCandidate.getExternalId());
+				events.log(Level.FINE, timing, "candidate.noProvenance", "target", targetCandidate.getExternalId());
 				continue;   // get next target network
 			} 
 				
-			LOGGER.info("Processing provenance history for target " + targetCandidate.getExternalId());
-			ProvenanceEvent targetProvenanceEvent = targetRootProvenanceEntity.getCreationEvent();
+			events.log(Level.FINER, timing, "candidate.check", "target", targetCandidate.getExternalId());
 			
-			if (null == targetProvenanceEvent) {
-				LOGGER.info("No provenance event exists for target " + targetCandidate.getExternalId());
+			if (!targetRootProvenance.hasCreationEvent()) {
+				events.log(Level.FINE, timing, "candidate.noCreationEvent", "target", targetCandidate.getExternalId());
 				continue;   // get next target network
 			}
 			
-			if (!SNYC_COPY.equalsIgnoreCase(targetProvenanceEvent.getEventType())) {
+			if (!targetRootProvenance.isSyncCopy()) {
 				//  latest (most recent) event in provenance
 				continue;
 			}
 			
 			
 			// COPY was the latest (most recent) event for the current target;  let's get UUID of the parent network
-			parentEntityUri = getCopySourceUUID(targetRootProvenanceEntity.getProperties() );
-			if (parentEntityUri !=null ) {
-				//parentEntityUri = targetRootProvenanceEntity.getProperties().get(2).getValue();  // get URI or UUID of parent network
-	
-		/*		if (parentEntityUri == null) {
-					LOGGER.info("UUID of the parent network from provenance of target network is null");		
-					continue; 
-				} */
-					
-				try {
-					//extract UUID from URI
-					URI uri = new URI(parentEntityUri);
-					String[] segments = uri.getPath().split("/");
-					parentNetworkUUID = segments[segments.length-1];
-						
-					//parentNetworkUUID = parentEntityUri.replaceFirst(".*/([^/?]+).*", "$1");  // this is another way of extracting UUID of parent network
-					LOGGER.info("UUID of the parent network found in provenance of target network " + targetCandidate.getExternalId() + 
-						    " is " + parentNetworkUUID);
-						
-				} catch (URISyntaxException e) {
-					UUID.fromString(parentEntityUri);
-					parentNetworkUUID = parentEntityUri;
-					LOGGER.info("Found UUID of the parent network from provenance of target network " + targetCandidate.getExternalId());		
-					//continue;  // get next target network
-				}
-					
+			if (targetRootProvenance.hasRetrievedFrom()) {
+				UUID parentNetworkUUID = targetRootProvenance.getRetrievedFrom();
+				events.log(Level.FINER, timing, "candidate.retrievedFrom", "target", targetCandidate.getExternalId(),
+						"parent", parentNetworkUUID);
 					
 				// if we reached this point, it means we found/extracted from the provenace of target network the UUID of the
 				// network that created this target network by COPY and that COPY  was the last event of the target network 
@@ -242,51 +1193,37 @@ public abstract class CopyPlan implements NdexProvenanceEventType {
 				if (!sourceNetworkUUID.equals(parentNetworkUUID))  {
 					// this target network was NOT created from the current source network,
 					// therefore, we cannot update it
-					// LOGGER.info("sourceNetworkUUID " + sourceNetworkUUID + "doesn't equal parentNetworkUUID " + parentNetworkUUID);
 					continue;  // get next target network
 				} 
 					
-				if (null == sourceRootProvenanceEntity){
+				if (null == sourceRootProvenance){
 					// no provenance root entity, hence unknown status
-					LOGGER.info("No provenance entity exists for source network" + sourceNetwork.getExternalId().toString());
+					events.log(Level.FINE, timing, "source.noProvenance");
 					continue;   // get next target network
 				} 		
 					
-				ProvenanceEvent sourceProvenanceEvent = sourceRootProvenanceEntity.getCreationEvent();
-					
-				if (null == sourceProvenanceEvent) {
-					LOGGER.info("No provenance event exists for source " + sourceNetwork.getExternalId().toString());
+				if (!sourceRootProvenance.hasCreationEvent()) {
+					events.log(Level.FINE, timing, "source.noCreationEvent");
 					continue;   // get next target network
 				}
 					
-    	//		LOGGER.info("sourceNetworkUUID " + sourceNetworkUUID + " equals parentNetworkUUID " + parentNetworkUUID);
-    				
                 // target network was created from source network and was not modified after that (last target event was COPY).
 			    // Let's check if target network is "out-of-date".
 
     			// calculate latestSourceDate as the later of modification date and the last provenance history event end date for the source network.
-    			Timestamp latestSourceDate = 
-    					(sourceNetwork.getModificationTime().after((Timestamp)sourceProvenanceEvent.getEndedAtTime())) ?
-    					sourceNetwork.getModificationTime() : ((Timestamp)sourceProvenanceEvent.getEndedAtTime());
+    			long latestSourceDate = Math.max(sourceNetwork.getModificationTime(), sourceRootProvenance.getEventEndedAt());
     						
     	    	// calculate earliestTargetDate as the earlier of modification date and the last provenance history event end date for the target network.
-    	    	Timestamp earliestTargetDate = 
-    	    			(targetCandidate.getModificationTime().before((Timestamp)targetProvenanceEvent.getEndedAtTime())) ?
-    	    			targetCandidate.getModificationTime() : ((Timestamp) targetProvenanceEvent.getEndedAtTime());
-
-    	    	// System.out.println("sourceNetwork.getModificationTime()=" + sourceNetwork.getModificationTime() + "   " +
-    	    	// 		" (Timestamp)sEvent.getEndedAtTime()=" + (Timestamp)sourceProvenanceEvent.getEndedAtTime());	
-    	    	    		
-    	    	// System.out.println("targetCandidate.getModificationTime()=" + targetCandidate.getModificationTime() + "   " +
-    	    	//		" pEvent.getEndedAtTime()=" + (Timestamp) targetProvenanceEvent.getEndedAtTime());	
-    	    		
-    	    	//System.out.println("latestSourceDate=" + latestSourceDate.toString() + "   earliestTargetDate= " + earliestTargetDate.toString() );
-    	    				
-                if (latestSourceDate.before(earliestTargetDate)) {
+    	    	// A copy event without an end time doesn't count.
+    	    	long earliestTargetDate = targetCandidate.getModificationTime();
+    	    	if (ProvenanceRecord.NO_TIME != targetRootProvenance.getEventEndedAt())
+    	    		earliestTargetDate = Math.min(earliestTargetDate, targetRootProvenance.getEventEndedAt());
+
+                if (latestSourceDate < earliestTargetDate) {
                     // target network update/modify time is more recent than that of source network;  don't update target,
                 	// we may need to copy source network to target server
-                    LOGGER.info("latestSourceDate = " + latestSourceDate.toString() + 
-                    		";  earliestTargetDate =  " + earliestTargetDate.toString() + ". Not updating target.");
+                    events.log(Level.FINE, timing, "candidate.upToDate", "target", targetCandidate.getExternalId(),
+                    		"newerByMillis", earliestTargetDate - latestSourceDate);
                     	
                    	// since there exists a copy of the source network on the target server that doesn't require updating,
                    	// we will not copy this source network to target.
@@ -296,35 +1233,36 @@ public abstract class CopyPlan implements NdexProvenanceEventType {
                 }
 
                 // let's check if the target network is read-only, and if yes, check the value of updateReadOnlyNetwork 
-                // configuration parameter.  To check if target is read-only, if (targetCandidate.getReadOnlyCommitId() > 0).
+                // configuration parameter.
                     
     	    	if (targetCandidate.getIsReadOnly() && (false == updateReadOnlyNetwork)) {
     	     	    // the target is read-only and updateReadOnlyNetwork config parameter is false, don't update target
-    				LOGGER.info("Target network " + targetCandidate.getExternalId() + " is read-only and updateReadOnlyNetwork is false. Not updating target.");
+    				events.log(Level.INFO, timing, "candidate.readOnly", "target", targetCandidate.getExternalId());
                     	
     				//copySourceNetwork = false;             	
                     continue;  // get next target network
     	    	}
     				
-    	    	// finally, update the target network
-    	    	System.out.println("Updating network " + sourceNetwork.getExternalId() + "(source) -> " + targetCandidate.getExternalId() + "(target)");
-    	    	if (target.isReadOnly(targetCandidate.getExternalId())) {
+    	    	// finally, update the target network, if the run budget allows
+    	    	if (!admit(sourceNetwork, timing))
+    	    		return;
+    	    	events.log(Level.INFO, timing, "update", "target", targetCandidate.getExternalId());
+    	    	if (targetCandidate.getIsReadOnly()) {
     	    		// target network is read-only
-					updateReadonlyNetworkAsCX(sourceNetwork, targetCandidate);
+					updateReadonlyNetworkAsCX(sourceNetwork, targetCandidate, timing);
 					
     	    		copySourceNetwork = false;
     	    	} else {
     	    		// target network is not read-only
-						updateNetworkAsCX(sourceNetwork, targetCandidate);
+						updateNetworkAsCX(sourceNetwork, targetCandidate, timing);
 					
 
     	    		copySourceNetwork = false;
     	    	}
     	    		
-			} else {  // if ((pRoot.getProperties() != null) && (pRoot.getProperties().size() >= 3) )
+			} else {
 				
-				LOGGER.info("Unable to get UUID of the parent network because the pav:retrievedFrom property is missing from provenance of target network " + 
-				     targetCandidate.getExternalId());		
+				events.log(Level.FINE, timing, "candidate.noRetrievedFrom", "target", targetCandidate.getExternalId());
 				continue;  // get next target network
 			}
 		}
@@ -332,60 +1270,459 @@ public abstract class CopyPlan implements NdexProvenanceEventType {
 		// we finished looping through the list of target networks.
 		// If no copy of the source network exists on the target, then copy source network to target
 		if (copySourceNetwork) {
-			LOGGER.info("No target that is a copy of the source found, will therefore copy the network ");
-			copyNetworkAsCX(sourceNetwork);
+			events.log(Level.FINE, timing, "copy.noExistingCopy");
+			copyNetworkAsCX(sourceNetwork, timing);
 
 			copySourceNetwork = false; 
 		}
 	}
 
-	private void updateNetworkAsCX(NetworkSummary sourceNetwork, NetworkSummary targetNetwork)
+	private void updateNetworkAsCX(NetworkRecord sourceNetwork, NetworkRecord targetNetwork, NetworkTiming timing)
 	{
+		timing.setAction(NetworkTiming.ACTION_UPDATE);
+		timing.setTargetId(targetNetwork.getExternalId());
 		try
 		{
-			InputStream cxStream = source.getNdex().getNetworkAsCXStream(sourceNetwork.getExternalId().toString());
-			target.getNdex().updateCXNetwork(targetNetwork.getExternalId(), cxStream);
-			LOGGER.info("Updated " + sourceNetwork.getExternalId() + " to " + targetNetwork.getExternalId());
-			while ( ! target.finishedLoading(targetNetwork.getExternalId())) {
-				System.out.println("Waiting for this network to be validated by NDEx server.");
-				Thread.sleep(3000);
-			}
-			ProvenanceEntity newProvananceHistory = createCopyProvenance(targetNetwork, sourceNetwork);
-
-			ObjectMapper mapper = new ObjectMapper();
-			String s0 = mapper.writeValueAsString( newProvananceHistory);
-//			System.out.print("\n\n" + s0 + "\n\n");
+			transferCX(sourceNetwork, targetNetwork.getExternalId(), timing);
+			events.log(Level.INFO, timing, "updated", "target", targetNetwork.getExternalId(), "transferMillis", timing.getTransferMillis());
+			NetworkSummary updatedNetwork = waitForValidation(targetNetwork.getExternalId(), timing);
+			
+			timing.provenanceStarted();
+			ProvenanceEntity newProvananceHistory = createCopyProvenance(updatedNetwork, sourceNetwork);
 
 			target.setNetworkProvenance(targetNetwork.getExternalId(), newProvananceHistory);
-			LOGGER.info("Set provenance for copy " + targetNetwork.getExternalId());
+			recordCopy(sourceNetwork, targetNetwork.getExternalId(), System.currentTimeMillis());
+			timing.provenanceFinished();
+			events.log(Level.FINE, timing, "provenance.set", "target", targetNetwork.getExternalId());
+			verifier.submit(sourceNetwork, updatedNetwork, timing);
 		}
 		catch (Exception e)
 		{
-			LOGGER.severe("Error attempting to update as cx " + sourceNetwork.getExternalId());
-			e.printStackTrace();
+			timing.setError(e.toString());
+			LOGGER.log(Level.SEVERE, "Error attempting to update as cx " + sourceNetwork.getExternalId() + " [" + timing.getCorrelationId() + "]", e);
+		}
+	}
+
+	// Stream the CX of the source network to the target, creating a new network
+	// (targetNetworkId is null) or updating an existing one. The source stream is
+	// watched for stalls; a transfer that stalls or fails with an I/O error is
+	// started again from scratch, up to transfer.getRetries() times.
+	// Returns the UUID of the target network.
+	//
+	@SuppressWarnings("try")
+	private UUID transferCX(NetworkRecord sourceNetwork, UUID targetNetworkId, NetworkTiming timing) throws Exception {
+		String description = "network " + sourceNetwork.getExternalId() + " from " + source.getRoute();
+		File spoolDirectory = getSpoolDirectory(sourceNetwork);
+		if (null != spoolDirectory)
+			return spooledTransferCX(sourceNetwork, targetNetworkId, timing, description, spoolDirectory);
+		int attempt = 0;
+		while (true) {
+			InputStream cxStream = null;
+			CxDownloadEvent download = new CxDownloadEvent();
+			CxUploadEvent upload = new CxUploadEvent();
+			long bytesDown = timing.getBytesDown();
+			long bytesUp = timing.getBytesUp();
+			progress.transferStarted(timing);
+			long slotWait = System.currentTimeMillis();
+			try (TransferPermits ignored = TransferPermits.acquire(source, target)) {
+				long started = System.currentTimeMillis();
+				timing.addSlotWait(started - slotWait);
+				download.begin();
+				// if the guard aborts the download, it also interrupts the upload fed from it
+				cxStream = TransferGuard.guard(source.getNetworkAsCXStream(sourceNetwork.getExternalId()), transfer,
+						description, Thread.currentThread()::interrupt);
+				// the source and session caps hold back the download, the target cap the filtered upload
+				InputStream downloadStream = progress.countDownload(
+						RateLimiter.throttle(cxStream, source.getRateLimiter(), sessionLimiter), timing);
+				InputStream uploadStream = progress.countUpload(RateLimiter.throttle(
+						aspectFilter.filter(downloadStream, description, n -> progress.countSaved(timing, n)),
+						target.getRateLimiter()), timing);
+				upload.begin();
+				if (null == targetNetworkId)
+					return createCopy(uploadStream, sourceNetwork, started);
+				target.updateCXNetwork(targetNetworkId, uploadStream);
+				return targetNetworkId;
+			} catch (Exception e) {
+				// the permits are released by now, so looking for the copy doesn't hold them
+				closeQuietly(cxStream);
+				e = stallOf(cxStream, e);
+				CreateUnansweredException unanswered = unansweredOf(e);
+				if (null != unanswered)
+					return findUnansweredCopy(sourceNetwork, unanswered);
+				if (attempt >= transfer.getRetries() || !isRetryable(e))
+					throw e;
+				long delay = (transfer.getRetryDelay() * 1000L) << attempt;
+				attempt++;
+				LOGGER.warning("Transfer of " + description + " failed (" + e.getMessage() + "), retry " + attempt
+						+ " of " + transfer.getRetries() + " in " + delay / 1000 + " seconds");
+				Thread.sleep(delay);
+			} finally {
+				progress.transferFinished(timing);
+				commitTransferEvents(download, upload, sourceNetwork, targetNetworkId, attempt,
+						timing.getBytesDown() - bytesDown, timing.getBytesUp() - bytesUp);
+				if (null != cxStream) {
+					try {
+						cxStream.close();
+					} catch (IOException e) {
+						// the transfer is over, nothing to do about it
+					}
+				}
+			}
+		}
+	}
+
+	// Directory to spool the CX of a network to, or null if it is transferred as a stream:
+	// it is not expected to exceed the spool threshold, or the disk has no room for it
+	private File getSpoolDirectory(NetworkRecord sourceNetwork) {
+		if (transfer.getSpoolThreshold() <= 0)
+			return null;
+		long estimate = null == budget ? RunBudget.roughEstimate(sourceNetwork) : budget.estimate(sourceNetwork);
+		if (estimate < transfer.getSpoolThreshold())
+			return null;
+		File directory = new File(null == transfer.getSpoolDirectory()
+				? System.getProperty("java.io.tmpdir") : transfer.getSpoolDirectory());
+		if (directory.getUsableSpace() < 2 * estimate) {
+			LOGGER.warning("Not enough space in " + directory + " to spool network " + sourceNetwork.getExternalId()
+					+ " (about " + ProgressReporter.formatBytes(estimate) + "), streaming it");
+			return null;
+		}
+		return directory;
+	}
+
+	// Large networks: download the CX into a spool file, then upload it from there. A
+	// failed upload is retried from the spool without going back to the source; the
+	// CX is only downloaded again if the spool no longer matches its checksum.
+	// NDEx has no resumable upload, so each upload attempt sends the whole spool.
+	//
+	private UUID spooledTransferCX(NetworkRecord sourceNetwork, UUID targetNetworkId, NetworkTiming timing,
+			String description, File spoolDirectory) throws Exception {
+		CxSpool spool = null;
+		int attempt = 0;
+		try {
+			while (true) {
+				try {
+					if (null != spool && !spool.verify()) {
+						LOGGER.warning("Spool of " + description + " is corrupt, downloading it again");
+						spool.close();
+						spool = null;
+					}
+					if (null == spool)
+						spool = spoolCX(sourceNetwork, timing, description, spoolDirectory, attempt);
+					return uploadSpool(spool, sourceNetwork, targetNetworkId, timing, description, attempt);
+				} catch (Exception e) {
+					CreateUnansweredException unanswered = unansweredOf(e);
+					if (null != unanswered)
+						return findUnansweredCopy(sourceNetwork, unanswered);
+					if (attempt >= transfer.getRetries() || !isRetryable(e))
+						throw e;
+					long delay = (transfer.getRetryDelay() * 1000L) << attempt;
+					attempt++;
+					LOGGER.warning("Transfer of " + description + " failed (" + e.getMessage() + "), retry " + attempt
+							+ " of " + transfer.getRetries() + (null == spool ? "" : " from the spool") + " in " + delay / 1000 + " seconds");
+					Thread.sleep(delay);
+				}
+			}
+		} finally {
+			if (null != spool)
+				spool.close();
+		}
+	}
+
+	@SuppressWarnings("try")
+	private CxSpool spoolCX(NetworkRecord sourceNetwork, NetworkTiming timing, String description,
+			File spoolDirectory, int attempt) throws Exception {
+		CxDownloadEvent download = new CxDownloadEvent();
+		long bytesDown = timing.getBytesDown();
+		InputStream cxStream = null;
+		progress.transferStarted(timing);
+		long slotWait = System.currentTimeMillis();
+		try (TransferPermits ignored = TransferPermits.acquire(source)) {
+			timing.addSlotWait(System.currentTimeMillis() - slotWait);
+			download.begin();
+			cxStream = TransferGuard.guard(source.getNetworkAsCXStream(sourceNetwork.getExternalId()), transfer, description);
+			InputStream downloadStream = progress.countDownload(
+					RateLimiter.throttle(cxStream, source.getRateLimiter(), sessionLimiter), timing);
+			CxSpool spool = CxSpool.write(aspectFilter.filter(downloadStream, description, n -> progress.countSaved(timing, n)),
+					spoolDirectory, "ndex-sync-" + sourceNetwork.getExternalId() + "-");
+			LOGGER.info("Spooled " + description + ": " + ProgressReporter.formatBytes(spool.getSize())
+					+ ", SHA-256 " + spool.getSha256());
+			return spool;
+		} finally {
+			progress.transferFinished(timing);
+			commitDownloadEvent(download, sourceNetwork, attempt, timing.getBytesDown() - bytesDown);
+			closeQuietly(cxStream);
+		}
+	}
+
+	@SuppressWarnings("try")
+	private UUID uploadSpool(CxSpool spool, NetworkRecord sourceNetwork, UUID targetNetworkId, NetworkTiming timing,
+			String description, int attempt) throws Exception {
+		CxUploadEvent upload = new CxUploadEvent();
+		long bytesUp = timing.getBytesUp();
+		InputStream spoolStream = null;
+		progress.transferStarted(timing);
+		long slotWait = System.currentTimeMillis();
+		try (TransferPermits ignored = TransferPermits.acquire(target)) {
+			long started = System.currentTimeMillis();
+			timing.addSlotWait(started - slotWait);
+			upload.begin();
+			// the guard watches how fast the target takes the spool and interrupts the
+			// upload if it stalls; closing the spool alone wouldn't unblock a stuck write.
+			// The session cap already held back the download into the spool.
+			spoolStream = TransferGuard.guard(spool.open(), transfer, description + " (spool)",
+					Thread.currentThread()::interrupt);
+			InputStream uploadStream = progress.countUpload(
+					RateLimiter.throttle(spoolStream, target.getRateLimiter()), timing);
+			if (null == targetNetworkId)
+				return createCopy(uploadStream, sourceNetwork, started);
+			target.updateCXNetwork(targetNetworkId, uploadStream);
+			return targetNetworkId;
+		} catch (Exception e) {
+			closeQuietly(spoolStream);
+			throw stallOf(spoolStream, e);
+		} finally {
+			progress.transferFinished(timing);
+			commitUploadEvent(upload, sourceNetwork, targetNetworkId, attempt, timing.getBytesUp() - bytesUp);
+			closeQuietly(spoolStream);
+		}
+	}
+
+	// Create the copy of a source network on the target. Unlike an update, a create
+	// isn't idempotent: once the whole CX was sent the server may have made the
+	// network even if its answer was lost, and a retry would make a second one. A
+	// create that fails after the CX was sent therefore throws a
+	// CreateUnansweredException, which the transfer doesn't retry; once it has
+	// released its permits, it looks for the copy with findUnansweredCopy.
+	//
+	private UUID createCopy(InputStream cx, NetworkRecord sourceNetwork, long started) throws Exception {
+		SentInputStream sent = new SentInputStream(cx);
+		try {
+			return target.createCXNetwork(sent);
+		} catch (Exception e) {
+			// a rejected compressed body made nothing, it is sent again uncompressed
+			if (!sent.isComplete() || isCompressionRejected(e))
+				throw e;
+			throw new CreateUnansweredException(started, e);
+		}
+	}
+
+	// The copy made by a create whose answer was lost, found among the networks of
+	// its name created since the upload started. Called without transfer permits, as
+	// the lookup needs a permit of its own and waits for the search index.
+	//
+	private UUID findUnansweredCopy(NetworkRecord sourceNetwork, CreateUnansweredException unanswered) throws Exception {
+		String error = unanswered.getCause().getMessage();
+		UUID created = findCreatedCopy(sourceNetwork, unanswered.started);
+		if (null == created)
+			throw new NdexException("Creating the copy of " + sourceNetwork.getExternalId() + " failed after its CX was sent ("
+					+ error + "), not retrying in case the server made it");
+		LOGGER.warning("Creating the copy of " + sourceNetwork.getExternalId() + " failed after its CX was sent ("
+				+ error + "), but the server made it: " + created);
+		return created;
+	}
+
+	// The network the target made from an upload whose answer was lost: the one network
+	// of the source's name in the target account created since the upload started.
+	// The search index may lag behind, so it is asked a few times.
+	//
+	private UUID findCreatedCopy(NetworkRecord sourceNetwork, long started) throws InterruptedException {
+		String name = sourceNetwork.getName();
+		if (null == name || name.trim().isEmpty())
+			return null;
+		long since = started - clockSkew * 1000L;
+		for (int attempt = 0; attempt < 3; attempt++) {
+			Thread.sleep(Math.max(1, transfer.getRetryDelay()) * 1000L);
+			List<UUID> found = new ArrayList<>(1);
+			try {
+				for (NetworkSummary network : target.findNetworks(nameQuery(name), target.getUsername(), 0, 100)) {
+					if (name.equalsIgnoreCase(network.getName()) && null != network.getCreationTime()
+							&& network.getCreationTime().getTime() >= since)
+						found.add(network.getExternalId());
+				}
+			} catch (IOException | NdexException e) {
+				LOGGER.warning("Unable to look for the copy of " + sourceNetwork.getExternalId() + " in target: " + e.getMessage());
+				return null;
+			}
+			if (found.size() == 1)
+				return found.get(0);
+			if (found.size() > 1) {
+				LOGGER.warning(found.size() + " networks named like " + sourceNetwork.getExternalId()
+						+ " were created in target since its upload started, can't tell which is its copy");
+				return null;
+			}
+		}
+		return null;
+	}
+
+	// A create that failed after its whole CX was sent; the server may have made the network
+	private static class CreateUnansweredException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		final long started;
+
+		CreateUnansweredException(long started, Exception cause) {
+			super(cause.getMessage(), cause);
+			this.started = started;
+		}
+	}
+
+	private static boolean isCompressionRejected(Throwable e) {
+		for (Throwable t = e; null != t; t = t.getCause()) {
+			if (t instanceof CompressionRejectedException)
+				return true;
+		}
+		return false;
+	}
+
+	private static CreateUnansweredException unansweredOf(Throwable e) {
+		for (Throwable t = e; null != t; t = t.getCause()) {
+			if (t instanceof CreateUnansweredException)
+				return (CreateUnansweredException) t;
+		}
+		return null;
+	}
+
+	// Stream that tells whether it was read to the end
+	private static class SentInputStream extends FilterInputStream {
+		private volatile boolean complete = false;
+
+		SentInputStream(InputStream in) {
+			super(in);
+		}
+
+		boolean isComplete() {
+			return complete;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b < 0)
+				complete = true;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n < 0)
+				complete = true;
+			return n;
+		}
+	}
+
+	// A guarded stream whose transfer was aborted also interrupted the thread sending
+	// it, see TransferGuard. Once the stream is closed, clear that interrupt and report
+	// the failure it caused as the stall it is, so the transfer can be retried.
+	//
+	private static Exception stallOf(InputStream guarded, Exception e) {
+		String reason = TransferGuard.getAbortReason(guarded);
+		if (null == reason)
+			return e;
+		Thread.interrupted();
+		if (e instanceof TransferStalledException)
+			return e;
+		TransferStalledException stalled = new TransferStalledException("Transfer aborted: " + reason);
+		stalled.initCause(e);
+		return stalled;
+	}
+
+	private static void closeQuietly(InputStream in) {
+		if (null == in)
+			return;
+		try {
+			in.close();
+		} catch (IOException e) {
+			// the transfer is over, nothing to do about it
 		}
 	}
 
-	private void updateReadonlyNetworkAsCX(NetworkSummary sourceNetwork, NetworkSummary targetNetwork)
+	private void commitTransferEvents(CxDownloadEvent download, CxUploadEvent upload, NetworkRecord sourceNetwork,
+			UUID targetNetworkId, int attempt, long bytesDown, long bytesUp) {
+		commitDownloadEvent(download, sourceNetwork, attempt, bytesDown);
+		commitUploadEvent(upload, sourceNetwork, targetNetworkId, attempt, bytesUp);
+	}
+
+	private void commitDownloadEvent(CxDownloadEvent download, NetworkRecord sourceNetwork, int attempt, long bytesDown) {
+		download.end();
+		download.server = source.getRoute();
+		download.network = sourceNetwork.getExternalId().toString();
+		download.attempt = attempt;
+		download.bytes = bytesDown;
+		download.commit();
+	}
+
+	private void commitUploadEvent(CxUploadEvent upload, NetworkRecord sourceNetwork, UUID targetNetworkId,
+			int attempt, long bytesUp) {
+		upload.end();
+		upload.server = target.getRoute();
+		upload.sourceNetwork = sourceNetwork.getExternalId().toString();
+		upload.targetNetwork = null == targetNetworkId ? "" : targetNetworkId.toString();
+		upload.attempt = attempt;
+		upload.bytes = bytesUp;
+		upload.commit();
+	}
+
+	// Transfers that stalled or broke on the network are worth another try,
+	// errors reported by the server are not
+	//
+	private static boolean isRetryable(Throwable e) {
+		for (Throwable t = e; null != t; t = t.getCause()) {
+			if (t instanceof IOException)
+				return true;
+		}
+		return false;
+	}
+
+	// Poll the target server until it has validated the network we just uploaded.
+	// Returns the summary of the validated network.
+	//
+	private NetworkSummary waitForValidation(UUID networkId, NetworkTiming timing) throws IOException, NdexException, InterruptedException {
+		ValidationWaitEvent event = new ValidationWaitEvent();
+		event.begin();
+		event.server = target.getRoute();
+		event.network = networkId.toString();
+		progress.validationStarted(timing);
+		long deadline = System.currentTimeMillis() + transfer.getValidationTimeout() * 1000L;
+		try {
+			event.polls++;
+			NetworkSummary summary;
+			while ( ! (summary = target.fetchNetworkSummary(networkId)).getIsValid()) {
+				// the server gave up on the CX, e.g. because it couldn't parse it
+				if (null != summary.getErrorMessage() && !summary.getErrorMessage().isEmpty())
+					throw new NdexException("NDEx server failed to validate network " + networkId + ": " + summary.getErrorMessage());
+				if (transfer.getValidationTimeout() > 0 && System.currentTimeMillis() > deadline)
+					throw new NdexException("Network " + networkId + " was not validated by NDEx server within "
+							+ transfer.getValidationTimeout() + " seconds");
+				LOGGER.fine("Waiting for network " + networkId + " to be validated by NDEx server.");
+				Thread.sleep(3000);
+				event.polls++;
+			}
+			return summary;
+		} finally {
+			progress.validationFinished(timing);
+			event.commit();
+		}
+	}
+
+	private void updateReadonlyNetworkAsCX(NetworkRecord sourceNetwork, NetworkRecord targetNetwork, NetworkTiming timing)
 	{
-		String networkId = targetNetwork.getExternalId().toString();
+		UUID networkId = targetNetwork.getExternalId();
 
 		try {
 			// set target network to read-write mode
-			target.getNdex().setNetworkFlag(networkId, "readOnly", "false");
+			target.setNetworkFlag(networkId, "readOnly", "false");
 		} catch (Exception e) {
-			LOGGER.severe("Error attempting  to set readOnly flag to false for network " + sourceNetwork.getExternalId());
-			e.printStackTrace();
+			LOGGER.log(Level.SEVERE, "Error attempting  to set readOnly flag to false for network " + sourceNetwork.getExternalId(), e);
 		}
 
-		updateNetworkAsCX(sourceNetwork, targetNetwork);
+		updateNetworkAsCX(sourceNetwork, targetNetwork, timing);
 
 		try {
 			// set target network back to read-only mode
-			target.getNdex().setNetworkFlag(networkId, "readOnly", "true");
+			target.setNetworkFlag(networkId, "readOnly", "true");
 		} catch (Exception e) {
-			LOGGER.severe("Error attempting  to set readOnly flag to true for network " + sourceNetwork.getExternalId());
-			e.printStackTrace();
+			LOGGER.log(Level.SEVERE, "Error attempting  to set readOnly flag to true for network " + sourceNetwork.getExternalId(), e);
 		}
 	}
 
@@ -436,51 +1773,49 @@ public abstract class CopyPlan implements NdexProvenanceEventType {
 	
 	// Process one source network
 	//
-	private void copySourceNetwork(NetworkSummary sourceNetwork) throws JsonProcessingException, IOException, NdexException {
-		LOGGER.info("Processing source network " + sourceNetwork.getName() + " last modified " + sourceNetwork.getModificationTime());
+	private void copySourceNetwork(NetworkRecord sourceNetwork, NetworkTiming timing) throws JsonProcessingException, IOException, NdexException {
+		events.log(Level.FINE, timing, "copy.start", "name", sourceNetwork.getName(), "modified", sourceNetwork.getModificationTime());
 		
 		// Get the provenance history of the source from the provenance map
-		ProvenanceEntity sRoot = srcProvenanceMap.get(sourceNetwork.getExternalId());
+		ProvenanceRecord sRoot = srcProvenanceMap.get(sourceNetwork.getExternalId());
 		
 		// for targetCandidate, get provenance history and determine whether the target candidate
 		// is a first generation copy of the source network.
 		
-		NetworkSummary targetNetwork = null;
+		NetworkRecord targetNetwork = null;
 		boolean targetNetworkNeedsUpdate = false;
 		
-		// Evaluate all targetCandidates to see if there is an existing copy of the source
-		// and whether that copy needs update
-		for (NetworkSummary targetCandidate : targetCandidates){
-			ProvenanceEntity pRoot = tgtProvenanceMap.get(targetCandidate.getExternalId().toString());
+		// Evaluate the sync copies made from the source's provenance URI to see if there is
+		// an existing copy of the source and whether that copy needs update
+		for (NetworkRecord targetCandidate : copiesOfInput(sRoot)){
+			ProvenanceRecord pRoot = tgtProvenanceMap.get(targetCandidate.getExternalId());
 			
 			if (null == pRoot){
 				// no provenance root entity, hence unknown status
-				LOGGER.info("No provenance history for target " + targetCandidate.getExternalId());
+				events.log(Level.FINE, timing, "candidate.noProvenance", "target", targetCandidate.getExternalId());
 				
 			} else {
-				LOGGER.info("Processing provenance history for target " + targetCandidate.getExternalId());
-				ProvenanceEvent pEvent = pRoot.getCreationEvent();
+				events.log(Level.FINER, timing, "candidate.check", "target", targetCandidate.getExternalId());
 				
 				// is the creation event a copy?
 				// TODO: checking for valid copy event: should have just one input
-				if (null != pEvent && SNYC_COPY.equalsIgnoreCase(pEvent.getEventType())){
-					LOGGER.info("Found target candidate that is derived from a copy event ");
-					List<ProvenanceEntity> inputs = pEvent.getInputs();
-					if (null != inputs && inputs.size() > 0){
+				if (pRoot.isSyncCopy()){
+					events.log(Level.FINER, timing, "candidate.syncCopy", "target", targetCandidate.getExternalId());
+					String inputUri = pRoot.getInputUri();
+					if (null != inputUri && null != sRoot && null != sRoot.getUri()){
 						
 						// does the input UUID match source UUID? 
-						ProvenanceEntity input = inputs.get(0);
-						if (input.getUri().equalsIgnoreCase(sRoot.getUri())){
+						if (inputUri.equalsIgnoreCase(sRoot.getUri())){
 							// Yes, this is a copy of the source network
-							LOGGER.info("Found direct copy of source network " + sRoot.getUri());
+							events.log(Level.FINE, timing, "candidate.copyOfSource", "target", targetCandidate.getExternalId(), "uri", sRoot.getUri());
 							targetNetwork = targetCandidate;
 							
 							
 							// Now check the modification date...
-							if(sourceNetwork.getModificationTime().after(pEvent.getEndedAtTime())){
+							if(sourceNetwork.getModificationTime() > pRoot.getEventEndedAt()){
 								// The sourceNetwork is later than the end date of the copy event
 								// Therefore we should update the target
-								LOGGER.info("Source copy date is after target copy event, therefore needs update"); 
+								events.log(Level.FINE, timing, "candidate.outdated", "target", targetCandidate.getExternalId());
 								targetNetworkNeedsUpdate = true;
 								
 								break;
@@ -489,7 +1824,7 @@ public abstract class CopyPlan implements NdexProvenanceEventType {
 					}
 	
 				} else {
-					LOGGER.info("No provenance event or not a copy event for  " + targetCandidate.getExternalId());
+					events.log(Level.FINE, timing, "candidate.notSyncCopy", "target", targetCandidate.getExternalId());
 					// Most proximal event is not a copy, so this network cannot match the source,
 					// Therefore do nothing
 				}
@@ -503,16 +1838,16 @@ public abstract class CopyPlan implements NdexProvenanceEventType {
 		if (null != targetNetwork){
 			if (targetNetworkNeedsUpdate){
 				// overwrite target
-				LOGGER.info("We have a target that is a copy needing update, but updateTargetNetwork is false, so just making another copy.");
-				copyNetworkAsCX(sourceNetwork);
+				events.log(Level.INFO, timing, "copy.outdatedCopy", "target", targetNetwork.getExternalId());
+				copyNetworkAsCX(sourceNetwork, timing);
 
 			} else {
-				LOGGER.info("We have a target that is an existing copy, but it does not need update, therefore not copying.");
+				events.log(Level.FINE, timing, "copy.upToDate", "target", targetNetwork.getExternalId());
 			}
 		} else {
 			// no target found, copy network
-			LOGGER.info("No target that is a copy of the source found, will therefore copy the network ");
-				copyNetworkAsCX(sourceNetwork);
+			events.log(Level.FINE, timing, "copy.noExistingCopy");
+				copyNetworkAsCX(sourceNetwork, timing);
 		}
 	}
 	
@@ -535,32 +1870,30 @@ public abstract class CopyPlan implements NdexProvenanceEventType {
 		}
 	} */
 	
-	private void copyNetworkAsCX(NetworkSummary sourceNetwork) throws IOException, NdexException{
+	private void copyNetworkAsCX(NetworkRecord sourceNetwork, NetworkTiming timing) throws IOException, NdexException{
+		if (!admit(sourceNetwork, timing))
+			return;
+		timing.setAction(NetworkTiming.ACTION_COPY);
 		try {
-			long lStartTime = System.currentTimeMillis();
-			InputStream inStream = source.getNdex().getNetworkAsCXStream(sourceNetwork.getExternalId().toString());
-			UUID copiedNetworkId = target.getNdex().createCXNetwork(inStream);
-			long lEndTime = System.currentTimeMillis();
-			long lElapsedTime = lEndTime - lStartTime;
-			while ( ! target.finishedLoading(copiedNetworkId)) {
-				System.out.println("Waiting for this network to be validated by NDEx server.");
-				Thread.sleep(3000);
-			}
+			UUID copiedNetworkId = transferCX(sourceNetwork, null, timing);
+			timing.setTargetId(copiedNetworkId);
+			NetworkSummary copiedNetwork = waitForValidation(copiedNetworkId, timing);
+			
 			// TODO create updated provenance history
-			NetworkSummary copiedNetwork = target.getNdex().getNetworkSummaryById(copiedNetworkId.toString());
-			LOGGER.info("Copied (via CX) " + sourceNetwork.getExternalId() + " to " + copiedNetwork.getExternalId() + " in " + lElapsedTime/1000 + " seconds");
+			timing.provenanceStarted();
+			events.log(Level.INFO, timing, "copied", "target", copiedNetwork.getExternalId(), "transferMillis", timing.getTransferMillis());
 
 			ProvenanceEntity newProvananceHistory = createCopyProvenance(copiedNetwork, sourceNetwork);
 
-		//	ObjectMapper mapper = new ObjectMapper();
-		//	String s0 = mapper.writeValueAsString( newProvananceHistory);
-		//	System.out.print("\n\n" + s0 + "\n\n");
-
 			target.setNetworkProvenance(copiedNetwork.getExternalId(), newProvananceHistory);
+			recordCopy(sourceNetwork, copiedNetwork.getExternalId(), System.currentTimeMillis());
+			timing.provenanceFinished();
+			events.log(Level.FINE, timing, "provenance.set", "target", copiedNetwork.getExternalId());
+			verifier.submit(sourceNetwork, copiedNetwork, timing);
 			
 		} catch (Exception e) {
-			LOGGER.severe("Error attempting to copy " + sourceNetwork.getExternalId());
-			e.printStackTrace();
+			timing.setError(e.toString());
+			LOGGER.log(Level.SEVERE, "Error attempting to copy " + sourceNetwork.getExternalId() + " [" + timing.getCorrelationId() + "]", e);
 		}
 	}
 	
@@ -568,13 +1901,18 @@ public abstract class CopyPlan implements NdexProvenanceEventType {
 
 	private ProvenanceEntity createCopyProvenance(
 			NetworkSummary copiedNetwork,
-			NetworkSummary sourceNetwork) throws URISyntaxException {
-		ProvenanceEntity sourceProvenanceEntity = srcProvenanceMap.get(sourceNetwork.getExternalId());
+			NetworkRecord sourceNetwork) throws URISyntaxException, IOException, NdexException {
+		// the source's history was kept with its provenance record at discovery
+		ProvenanceRecord sourceProvenance = srcProvenanceMap.get(sourceNetwork.getExternalId());
+		ProvenanceEntity sourceProvenanceEntity = null == sourceProvenance ? null : sourceProvenance.readHistory();
 		
 		// If the source has no provenance history, we create a minimal
 		// ProvenanceEntity that has the appropriate URI
 		if (null == sourceProvenanceEntity){
-			sourceProvenanceEntity = new ProvenanceEntity(sourceNetwork, source.getNdex().getBaseRoute());
+			sourceProvenanceEntity = new ProvenanceEntity(sourceNetwork.toSummary(), source.getBaseRoute());
+		} else if (maxCopyEvents > 0) {
+			// the new copy event below is one of the events kept
+			sourceProvenanceEntity = ProvenanceCompactor.compact(sourceProvenanceEntity, maxCopyEvents - 1);
 		}
 		
 	
@@ -591,7 +1929,7 @@ public abstract class CopyPlan implements NdexProvenanceEventType {
 		if (null != sourceNetwork.getName()){
 			PropertyHelpers.addProperty("dc:title", sourceNetwork.getName(), copyProv.getProperties());
 		}
-		if (null != sourceNetwork.getDescription()){
+		if (sourceNetwork.hasDescription()){
 			PropertyHelpers.addProperty("dc:description", sourceNetwork.getName(), copyProv.getProperties());
 		}
 		PropertyHelpers.addProperty("pav:retrievedFrom", sourceNetwork.getExternalId().toString(), copyProv.getProperties());
@@ -638,6 +1976,135 @@ public abstract class CopyPlan implements NdexProvenanceEventType {
 		this.updateTargetNetwork = updateTargetNetwork;
 	}
 	
+	public TransferSettings getTransfer() {
+		return transfer;
+	}
+
+	public void setTransfer(TransferSettings transfer) {
+		this.transfer = transfer;
+	}
+
+	public VerifySettings getVerify() {
+		return verify;
+	}
+
+	public void setVerify(VerifySettings verify) {
+		this.verify = verify;
+	}
+
+	public AspectFilter getAspectFilter() {
+		return aspectFilter;
+	}
+
+	public void setAspectFilter(AspectFilter aspectFilter) {
+		this.aspectFilter = aspectFilter;
+	}
+
+	public String getTargetLookup() {
+		return targetLookup;
+	}
+
+	public void setTargetLookup(String targetLookup) {
+		this.targetLookup = targetLookup;
+	}
+
+	public String getMappingFile() {
+		return mappingFile;
+	}
+
+	public void setMappingFile(String mappingFile) {
+		this.mappingFile = mappingFile;
+	}
+
+	public boolean getDecideFromSummaries() {
+		return decideFromSummaries;
+	}
+
+	public void setDecideFromSummaries(boolean decideFromSummaries) {
+		this.decideFromSummaries = decideFromSummaries;
+	}
+
+	public long getClockSkew() {
+		return clockSkew;
+	}
+
+	// Seconds of difference allowed between the servers' clocks and ours
+	public void setClockSkew(long clockSkew) {
+		this.clockSkew = clockSkew;
+	}
+
+	public int getMaxCopyEvents() {
+		return maxCopyEvents;
+	}
+
+	public void setMaxCopyEvents(int maxCopyEvents) {
+		this.maxCopyEvents = maxCopyEvents;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public void setPriority(int priority) {
+		this.priority = priority;
+	}
+
+	public boolean getMirror() {
+		return mirror;
+	}
+
+	public void setMirror(boolean mirror) {
+		this.mirror = mirror;
+	}
+
+	public double getMaxDeletePercent() {
+		return maxDeletePercent;
+	}
+
+	public void setMaxDeletePercent(double maxDeletePercent) {
+		this.maxDeletePercent = maxDeletePercent;
+	}
+
+	@JsonIgnore
+	public void setBudget(RunBudget budget) {
+		this.budget = budget;
+	}
+
+	@JsonIgnore
+	public void setRateLimiter(RateLimiter sessionLimiter) {
+		this.sessionLimiter = sessionLimiter;
+	}
+
+	@JsonIgnore
+	public void setCompiler(PlanCompiler compiler) {
+		this.compiler = compiler;
+	}
+
+	@JsonIgnore
+	public void setExecutor(SyncExecutor executor) {
+		this.executor = executor;
+	}
+
+	@JsonIgnore
+	public void setEventLog(EventLog events) {
+		this.events = events;
+	}
+
+	@JsonIgnore
+	public void setProgressReporter(ProgressReporter progress) {
+		this.progress = progress;
+	}
+
+	@JsonIgnore
+	public File getPlanDirectory() {
+		return planDirectory;
+	}
+
+	@JsonIgnore
+	public void setPlanDirectory(File planDirectory) {
+		this.planDirectory = planDirectory;
+	}
+
 	public boolean getUpdateReadOnlyNetwork() {
 		return updateReadOnlyNetwork;
 	}	
@@ -645,16 +2112,5 @@ public abstract class CopyPlan implements NdexProvenanceEventType {
 	public void setUpdateReadOnlyNetwork(boolean updateReadOnlyNetwork) {
 		this.updateReadOnlyNetwork = updateReadOnlyNetwork;
 	}
-	
-	private static String getCopySourceUUID(List<SimplePropertyValuePair> properties) {
-		if (properties == null)
-			return null;
-		for (SimplePropertyValuePair p : properties) {
-			if ( p.getName().equals("pav:retrievedFrom"))
-				return p.getValue();
-		}
-					
-		return null;
-	}
 
 }
@@ -62,6 +62,7 @@ public class CopyPlanReader {
 					CopyPlan plan = objectMapper.readValue(
 							fileEntry, CopyPlan.class);
 					plan.setPlanFileName(fileEntry.getName());
+					plan.setPlanDirectory(directory);
 					copyPlans.add(plan);
 				} catch (Exception e) {
 					System.out.println("Error parsing : "
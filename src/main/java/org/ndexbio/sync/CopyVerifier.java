@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ndexbio.model.exceptions.NdexException;
+import org.ndexbio.model.object.network.NetworkSummary;
+
+// Checks the copies of one plan run after they are made, while the plan goes on
+// with its other networks. The node and edge counts of every copy are compared
+// with a fresh summary of its source; for a sample of the copies, the CX of source
+// and copy is downloaded again and compared by CxDigest. Checks run on virtual
+// threads and take server permits at the lowest priority, so they only use the
+// capacity left over by the transfers. Results go into the networks' timings and
+// from there into the run report.
+//
+public final class CopyVerifier {
+	private final static Logger LOGGER = Logger.getLogger(CopyVerifier.class.getName());
+
+	public static final String VERIFIED_COUNTS = "counts";
+	public static final String VERIFIED_DIGEST = "digest";
+	public static final String MISMATCH = "mismatch";
+	// the source changed since it was discovered, so the copy can't be compared with it
+	public static final String SOURCE_CHANGED = "sourceChanged";
+	public static final String FAILED = "failed";
+
+	private static final int PRIORITY = Integer.MIN_VALUE;
+
+	private final NdexServer source;
+	private final NdexServer target;
+	private final VerifySettings settings;
+	private final TransferSettings transfer;
+	private final Set<String> dropped;
+	private final Set<String> ignore;
+	private final RateLimiter sessionLimiter;
+	private final EventLog events;
+	private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+	private final List<Future<?>> pending = new ArrayList<>();
+
+	public CopyVerifier(NdexServer source, NdexServer target, VerifySettings settings, TransferSettings transfer,
+			AspectFilter aspectFilter, RateLimiter sessionLimiter, EventLog events) {
+		this.source = source;
+		this.target = target;
+		this.settings = settings;
+		this.transfer = transfer;
+		this.dropped = null == aspectFilter.getDropAspects() ? new HashSet<>() : new HashSet<>(aspectFilter.getDropAspects());
+		this.ignore = new HashSet<>(settings.getIgnoreAspects());
+		// aspects the plan drops are missing from the copy on purpose
+		this.ignore.addAll(dropped);
+		this.sessionLimiter = sessionLimiter;
+		this.events = events;
+	}
+
+	// Check a copy just made, given its summary after validation
+	public void submit(NetworkRecord sourceNetwork, NetworkSummary copy, NetworkTiming timing) {
+		if (!settings.isCounts() && settings.getSample() <= 0)
+			return;
+		boolean digest = ThreadLocalRandom.current().nextDouble() < settings.getSample();
+		Future<?> check = threads.submit(() -> verify(sourceNetwork, copy, timing, digest));
+		synchronized (pending) {
+			pending.add(check);
+		}
+	}
+
+	// Wait for all checks submitted, then stop
+	public void await() {
+		List<Future<?>> checks;
+		synchronized (pending) {
+			checks = new ArrayList<>(pending);
+			pending.clear();
+		}
+		for (Future<?> check : checks) {
+			try {
+				check.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (ExecutionException e) {
+				LOGGER.log(Level.SEVERE, "Verification failed", e.getCause());
+			}
+		}
+		threads.shutdown();
+	}
+
+	private void verify(NetworkRecord sourceNetwork, NetworkSummary copy, NetworkTiming timing, boolean digest) {
+		UUID sourceId = sourceNetwork.getExternalId();
+		String description = sourceId + " -> " + copy.getExternalId();
+		try {
+			// both times are taken from the source server's clock; a network gone from
+			// the source since the copy has changed as well
+			NetworkSummary current = source.getCurrentNetworkSummary(sourceId);
+			if (null == current || null != current.getModificationTime() && current.getModificationTime().getTime() > sourceNetwork.getModificationTime()) {
+				timing.setVerification(SOURCE_CHANGED);
+				events.log(Level.FINE, timing, "verify.sourceChanged", "target", copy.getExternalId());
+				return;
+			}
+			List<String> differences = new ArrayList<>();
+			if (settings.isCounts()) {
+				if (!dropped.contains("nodes") && current.getNodeCount() != copy.getNodeCount())
+					differences.add("nodes (" + current.getNodeCount() + " vs " + copy.getNodeCount() + ")");
+				if (!dropped.contains("edges") && current.getEdgeCount() != copy.getEdgeCount())
+					differences.add("edges (" + current.getEdgeCount() + " vs " + copy.getEdgeCount() + ")");
+			}
+			if (digest && differences.isEmpty())
+				differences.addAll(compareDigests(sourceId, copy.getExternalId(), description));
+			if (differences.isEmpty()) {
+				timing.setVerification(digest ? VERIFIED_DIGEST : VERIFIED_COUNTS);
+				events.log(Level.FINE, timing, "verify.ok", "target", copy.getExternalId(), "digest", digest);
+			} else {
+				timing.setVerification(MISMATCH);
+				timing.setMismatch(String.join(", ", differences));
+				events.log(Level.WARNING, timing, "verify.mismatch", "target", copy.getExternalId(), "differences", timing.getMismatch());
+				LOGGER.warning("Copy " + description + " doesn't match its source: " + timing.getMismatch());
+			}
+		} catch (IOException | NdexException e) {
+			timing.setVerification(FAILED);
+			LOGGER.warning("Unable to verify " + description + ": " + e.getMessage());
+		}
+	}
+
+	// Digest the CX of source and copy at the same time, each holding one permit on its server
+	private List<String> compareDigests(UUID sourceId, UUID copyId, String description) throws IOException, NdexException {
+		Future<CxDigest> targetDigest = threads.submit(() -> digest(target, copyId, description + " (copy)"));
+		CxDigest sourceDigest = digest(source, sourceId, description + " (source)");
+		try {
+			return sourceDigest.compare(targetDigest.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while verifying " + description);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof NdexException)
+				throw (NdexException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	@SuppressWarnings("try")
+	private CxDigest digest(NdexServer server, UUID networkId, String description) throws IOException, NdexException {
+		try (TransferPermits ignored = TransferPermits.acquire(server, PRIORITY);
+				InputStream cx = RateLimiter.throttle(
+						TransferGuard.guard(server.getNetworkAsCXStream(networkId), transfer, description),
+						server.getRateLimiter(), sessionLimiter)) {
+			return CxDigest.of(cx, ignore, description);
+		}
+	}
+
+}
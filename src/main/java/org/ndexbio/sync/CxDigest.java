@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Digest of the aspects of a CX stream that doesn't depend on the order of the
+// elements or on how an aspect is split into fragments. Each element is written
+// in a canonical form (object keys sorted, integral numbers without a fraction)
+// and hashed with SHA-256; an aspect's digest is its element count and the sum of
+// its element hashes. The CX is read one element at a time, as in AspectFilter.
+//
+public final class CxDigest {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private final Map<String, Aspect> aspects = new TreeMap<>();
+
+	private CxDigest() {
+	}
+
+	public static CxDigest of(InputStream cx, Set<String> ignore, String description) throws IOException {
+		CxDigest digest = new CxDigest();
+		MessageDigest sha;
+		try {
+			sha = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (JsonParser parser = MAPPER.getFactory().createParser(cx);
+				JsonGenerator canonical = MAPPER.getFactory().createGenerator(buffer)) {
+			// no separator between elements, so an element hashes the same wherever it is
+			canonical.setRootValueSeparator(null);
+			if (parser.nextToken() != JsonToken.START_ARRAY)
+				throw new IOException("CX stream of " + description + " is not a JSON array");
+			while (parser.nextToken() == JsonToken.START_OBJECT) {
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String name = parser.getCurrentName();
+					if (parser.nextToken() != JsonToken.START_ARRAY || ignore.contains(name)) {
+						parser.skipChildren();
+						continue;
+					}
+					Aspect aspect = digest.aspects.computeIfAbsent(name, n -> new Aspect());
+					while (parser.nextToken() != JsonToken.END_ARRAY) {
+						JsonNode element = parser.readValueAsTree();
+						writeCanonical(element, canonical);
+						canonical.flush();
+						aspect.add(sha.digest(buffer.toByteArray()));
+						buffer.reset();
+					}
+				}
+			}
+			if (parser.currentToken() != JsonToken.END_ARRAY)
+				throw new IOException("CX stream of " + description + " ended unexpectedly");
+		}
+		return digest;
+	}
+
+	private static void writeCanonical(JsonNode node, JsonGenerator out) throws IOException {
+		if (node.isObject()) {
+			Set<String> names = new TreeSet<>();
+			for (Iterator<String> i = node.fieldNames(); i.hasNext();)
+				names.add(i.next());
+			out.writeStartObject();
+			for (String name : names) {
+				out.writeFieldName(name);
+				writeCanonical(node.get(name), out);
+			}
+			out.writeEndObject();
+		} else if (node.isArray()) {
+			out.writeStartArray();
+			for (JsonNode item : node)
+				writeCanonical(item, out);
+			out.writeEndArray();
+		} else if (node.isIntegralNumber()) {
+			out.writeNumber(node.bigIntegerValue());
+		} else if (node.isNumber()) {
+			double d = node.doubleValue();
+			if (d == Math.rint(d) && Math.abs(d) < 1e15)
+				out.writeNumber((long) d);
+			else
+				out.writeNumber(d);
+		} else {
+			out.writeTree(node);
+		}
+	}
+
+	// Number of elements of an aspect, 0 if the CX doesn't have it
+	public long getCount(String aspect) {
+		Aspect a = aspects.get(aspect);
+		return null == a ? 0 : a.count;
+	}
+
+	// Aspects whose content differs from the other digest, described with their
+	// element counts on both sides; empty if the two CX streams match
+	public List<String> compare(CxDigest other) {
+		Set<String> names = new TreeSet<>(aspects.keySet());
+		names.addAll(other.aspects.keySet());
+		List<String> differences = new ArrayList<>();
+		for (String name : names) {
+			Aspect a = aspects.get(name);
+			Aspect b = other.aspects.get(name);
+			if (null != a && a.equals(b))
+				continue;
+			differences.add(name + " (" + (null == a ? "missing" : a.count + " elements") + " vs "
+					+ (null == b ? "missing" : b.count + " elements") + ")");
+		}
+		return differences;
+	}
+
+	private static class Aspect {
+		long count;
+		long high;
+		long low;
+
+		void add(byte[] hash) {
+			count++;
+			long h = 0;
+			long l = 0;
+			for (int i = 0; i < 8; i++) {
+				h = (h << 8) | (hash[i] & 0xff);
+				l = (l << 8) | (hash[i + 8] & 0xff);
+			}
+			high += h;
+			low += l;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Aspect))
+				return false;
+			Aspect other = (Aspect) o;
+			return count == other.count && high == other.high && low == other.low;
+		}
+
+		@Override
+		public int hashCode() {
+			return Long.hashCode(high);
+		}
+	}
+
+}
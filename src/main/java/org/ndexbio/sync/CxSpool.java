@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.logging.Logger;
+
+// CX of one network spooled to a local file, with its size and SHA-256. Large
+// transfers download into a spool once and upload from it, so a failed upload is
+// retried from local disk rather than from the source server. The file is deleted
+// when the spool is closed.
+//
+public final class CxSpool implements AutoCloseable {
+	private final static Logger LOGGER = Logger.getLogger(CxSpool.class.getName());
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final File file;
+	private final long size;
+	private final String sha256;
+
+	private CxSpool(File file, long size, String sha256) {
+		this.file = file;
+		this.size = size;
+		this.sha256 = sha256;
+	}
+
+	// Copy the stream into a new spool file in directory, computing its checksum on the way
+	public static CxSpool write(InputStream in, File directory, String prefix) throws IOException {
+		File file = Files.createTempFile(directory.toPath(), prefix, ".cx").toFile();
+		MessageDigest digest = newDigest();
+		long size = 0;
+		try (OutputStream out = new DigestOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file.toPath()), BUFFER_SIZE), digest)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				out.write(buffer, 0, n);
+				size += n;
+			}
+		} catch (IOException | RuntimeException e) {
+			delete(file);
+			throw e;
+		}
+		return new CxSpool(file, size, HexFormat.of().formatHex(digest.digest()));
+	}
+
+	// The spooled CX. The caller must close the stream.
+	public InputStream open() throws IOException {
+		return new BufferedInputStream(Files.newInputStream(file.toPath()), BUFFER_SIZE);
+	}
+
+	// True if the file still has the size and checksum it was written with
+	public boolean verify() throws IOException {
+		if (file.length() != size)
+			return false;
+		MessageDigest digest = newDigest();
+		try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), digest)) {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			while (in.read(buffer) != -1) {
+				// digest only
+			}
+		}
+		return sha256.equals(HexFormat.of().formatHex(digest.digest()));
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public String getSha256() {
+		return sha256;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public void close() {
+		delete(file);
+	}
+
+	private static void delete(File file) {
+		if (file.exists() && !file.delete())
+			LOGGER.warning("Unable to delete spool file " + file);
+	}
+
+	private static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+
+}
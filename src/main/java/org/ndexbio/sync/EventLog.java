@@ -0,0 +1,298 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+// Structured log of what the plans decide for each network: which target candidates
+// were looked at, why they were skipped, what was copied or updated. Events carry an
+// event name, the plan, the source network, the network's correlation id (also in the
+// run report) and up to two fields, and are only rendered if their level is enabled.
+//
+// Opened on a file, events are queued and written as JSON lines by a background
+// thread, so the matching loop doesn't wait for I/O unless it logs faster than the
+// file takes it; then a full queue holds it back rather than losing events. If the file
+// can't be written, the log fails: later events are dropped and counted, and neither
+// logging nor close waits for the writer any more.
+// Repetitive events below WARNING are sampled:
+// after the first sampleEvery events of a name, only every sampleEvery-th is written,
+// with "sampled" giving the number of events it stands for.
+//
+// The default log passes events to java.util.logging instead.
+//
+public final class EventLog implements Closeable {
+	private final static Logger LOGGER = Logger.getLogger(EventLog.class.getName());
+
+	static final EventLog DEFAULT = new EventLog();
+
+	private static final int QUEUE_SIZE = 64 * 1024;
+	private static final int BATCH_SIZE = 1024;
+	private static final Event END = new Event(Level.OFF, null, null, null, null, null, null, 0);
+
+	private final File file;
+	private final Level level;
+	private final int sampleEvery;
+	private final BlockingQueue<Event> queue;
+	private final Map<String, AtomicLong> counts = new ConcurrentHashMap<>();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile boolean failed;
+	private JsonGenerator json;
+	private Thread writer;
+
+	private EventLog() {
+		this.file = null;
+		this.level = null;
+		this.sampleEvery = 0;
+		this.queue = null;
+	}
+
+	private EventLog(File file, Level level, int sampleEvery) {
+		this.file = file;
+		this.level = level;
+		this.sampleEvery = sampleEvery;
+		this.queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+	}
+
+	// Write the events at level and above to file; sampleEvery 0 writes all of them
+	public static EventLog open(File file, Level level, int sampleEvery) throws IOException {
+		EventLog log = new EventLog(file, level, sampleEvery);
+		log.json = new JsonFactory().setRootValueSeparator(null).createGenerator(new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), 64 * 1024));
+		log.writer = Thread.ofPlatform().daemon().name("event-log").start(log::drain);
+		return log;
+	}
+
+	public boolean isLoggable(Level level) {
+		if (null == queue)
+			return LOGGER.isLoggable(level);
+		return level.intValue() >= this.level.intValue() && this.level != Level.OFF;
+	}
+
+	public void log(Level level, NetworkTiming network, String event) {
+		log(level, network, event, null, null, null, null);
+	}
+
+	public void log(Level level, NetworkTiming network, String event, String key, Object value) {
+		log(level, network, event, key, value, null, null);
+	}
+
+	public void log(Level level, NetworkTiming network, String event, String key, Object value,
+			String key2, Object value2) {
+		if (!isLoggable(level))
+			return;
+		long sampled = 1;
+		if (sampleEvery > 0 && level.intValue() < Level.WARNING.intValue()) {
+			long n = counts.computeIfAbsent(event, e -> new AtomicLong()).incrementAndGet();
+			if (n > sampleEvery) {
+				if (n % sampleEvery != 0)
+					return;
+				sampled = sampleEvery;
+			}
+		}
+		Event e = new Event(level, network, event, key, value, key2, value2, sampled);
+		if (null == queue) {
+			LOGGER.log(level, e.toString());
+			return;
+		}
+		try {
+			if (failed || !enqueue(e))
+				dropped.incrementAndGet();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// Wait for room in the queue while the writer is alive; false once it has failed
+	private boolean enqueue(Event e) throws InterruptedException {
+		while (!queue.offer(e, 100, TimeUnit.MILLISECONDS)) {
+			if (failed)
+				return false;
+		}
+		return true;
+	}
+
+	private void drain() {
+		List<Event> batch = new ArrayList<>(BATCH_SIZE);
+		boolean ended = false;
+		try {
+			while (true) {
+				batch.add(queue.take());
+				queue.drainTo(batch, BATCH_SIZE - 1);
+				for (Event e : batch) {
+					if (e == END) {
+						json.flush();
+						ended = true;
+						return;
+					}
+					write(e);
+					written.incrementAndGet();
+				}
+				batch.clear();
+				if (queue.isEmpty())
+					json.flush();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			LOGGER.severe("Error writing event log " + file + ", no more events are written: " + e.getMessage());
+		} finally {
+			if (!ended) {
+				// whatever is still queued is lost; the flag stops log() and close() from
+				// waiting for room the writer will never make
+				failed = true;
+				dropped.addAndGet(queue.size());
+				queue.clear();
+			}
+		}
+	}
+
+	private void write(Event e) throws IOException {
+		json.writeStartObject();
+		json.writeStringField("time", Instant.ofEpochMilli(e.time).toString());
+		json.writeStringField("level", e.level.getName());
+		json.writeStringField("event", e.event);
+		if (null != e.network) {
+			json.writeStringField("corr", e.network.getCorrelationId());
+			json.writeStringField("plan", e.network.getPlan());
+			json.writeStringField("network", String.valueOf(e.network.getSourceId()));
+		}
+		writeField(e.key, e.value);
+		writeField(e.key2, e.value2);
+		if (e.sampled > 1)
+			json.writeNumberField("sampled", e.sampled);
+		json.writeEndObject();
+		json.writeRaw('\n');
+	}
+
+	private void writeField(String key, Object value) throws IOException {
+		if (null == key)
+			return;
+		json.writeFieldName(key);
+		if (value instanceof Long || value instanceof Integer)
+			json.writeNumber(((Number) value).longValue());
+		else if (value instanceof Number)
+			json.writeNumber(((Number) value).doubleValue());
+		else if (value instanceof Boolean)
+			json.writeBoolean((Boolean) value);
+		else if (null == value)
+			json.writeNull();
+		else
+			json.writeString(value.toString());
+	}
+
+	// Write the queued events and close the file
+	@Override
+	public void close() throws IOException {
+		if (null == queue)
+			return;
+		try {
+			if (!failed && enqueue(END))
+				writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				json.close();
+			} catch (IOException e) {
+				// the writer has reported the failure already
+				if (!failed)
+					throw e;
+			}
+		}
+		LOGGER.info("Event log " + file + ": " + written.get() + " events written"
+				+ (dropped.get() > 0 ? ", " + dropped.get() + " dropped" : ""));
+	}
+
+	// Number of events not written because the log failed
+	long getDropped() {
+		return dropped.get();
+	}
+
+	private static class Event {
+		final long time = System.currentTimeMillis();
+		final Level level;
+		final NetworkTiming network;
+		final String event;
+		final String key;
+		final Object value;
+		final String key2;
+		final Object value2;
+		final long sampled;
+
+		Event(Level level, NetworkTiming network, String event, String key, Object value,
+				String key2, Object value2, long sampled) {
+			this.level = level;
+			this.network = network;
+			this.event = event;
+			this.key = key;
+			this.value = value;
+			this.key2 = key2;
+			this.value2 = value2;
+			this.sampled = sampled;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder s = new StringBuilder(event);
+			if (null != network)
+				s.append(" [").append(network.getCorrelationId()).append("] network=").append(network.getSourceId());
+			if (null != key)
+				s.append(' ').append(key).append('=').append(value);
+			if (null != key2)
+				s.append(' ').append(key2).append('=').append(value2);
+			if (sampled > 1)
+				s.append(" (sampled 1 of ").append(sampled).append(')');
+			return s.toString();
+		}
+	}
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
+
+// Gzip-compresses a stream as it is read: the gzip header, the deflated data and,
+// once the source is exhausted, the CRC and length trailer. Unlike GZIPOutputStream
+// it needs no thread or buffer in between when the reader is an HTTP request body.
+//
+public class GzipCompressingInputStream extends InputStream {
+
+	private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private final CheckedInputStream source;
+	private final Deflater deflater;
+	private final DeflaterInputStream deflated;
+	private InputStream current = new ByteArrayInputStream(HEADER);
+	private int part = 0;
+
+	public GzipCompressingInputStream(InputStream in) {
+		this.source = new CheckedInputStream(in, new CRC32());
+		this.deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		this.deflated = new DeflaterInputStream(source, deflater, 64 * 1024);
+	}
+
+	@Override
+	public int read() throws IOException {
+		byte[] one = new byte[1];
+		return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0)
+			return 0;
+		while (true) {
+			int n = current.read(b, off, len);
+			if (n > 0)
+				return n;
+			if (n < 0 && !next())
+				return -1;
+		}
+	}
+
+	// Move on from the header to the data and from the data to the trailer
+	private boolean next() {
+		part++;
+		if (part == 1) {
+			current = deflated;
+			return true;
+		}
+		if (part == 2) {
+			long crc = source.getChecksum().getValue();
+			long size = deflater.getBytesRead();
+			byte[] trailer = new byte[8];
+			for (int i = 0; i < 4; i++) {
+				trailer[i] = (byte) (crc >> (8 * i));
+				trailer[4 + i] = (byte) (size >> (8 * i));
+			}
+			current = new ByteArrayInputStream(trailer);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			deflated.close();
+		} finally {
+			deflater.end();
+		}
+	}
+
+}
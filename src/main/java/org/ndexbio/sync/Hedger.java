@@ -0,0 +1,193 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+// Hedged requests for the idempotent lookups of one server: if a request hasn't
+// answered within a percentile of the latencies recently seen, the same request is
+// sent a second time and whichever answers first is used. Hedges are paid for out
+// of a budget that grows by budgetPercent of each request, so they add at most that
+// share to the server's load, and only a few may be in flight at once. A hedge
+// also needs a free request slot of the server; it is skipped if there is none. No
+// hedges are sent until enough latencies have been seen to know what slow is.
+//
+public final class Hedger {
+	private final static Logger LOGGER = Logger.getLogger(Hedger.class.getName());
+
+	private static final int WINDOW = 256;
+	private static final int MIN_SAMPLES = 50;
+	private static final int RECOMPUTE_EVERY = 32;
+	private static final long MIN_DELAY_MILLIS = 10;
+	private static final double MAX_TOKENS = 10;
+
+	private final String route;
+	private final int percentile;
+	private final double budget;
+	private final int maxHedges;
+
+	private final long[] latencies = new long[WINDOW];
+	private int samples = 0;
+	private volatile long delayMillis = -1;
+	private double tokens = 1;
+	private final AtomicInteger hedgesInFlight = new AtomicInteger();
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong hedgeWins = new AtomicLong();
+
+	public Hedger(String route, int percentile, double budgetPercent, int maxHedges) {
+		this.route = route;
+		this.percentile = percentile;
+		this.budget = budgetPercent / 100.0;
+		this.maxHedges = Math.max(1, maxHedges);
+	}
+
+	// Start a request, and a second one like it if the first is slow. Both
+	// suppliers start the same request; the result is the first to succeed.
+	public <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> request) {
+		return call(request, request);
+	}
+
+	// As above, with a separate supplier for the hedge, which returns null instead
+	// of starting the request if the server has no request slot free for it
+	public <T> CompletableFuture<T> call(Supplier<CompletableFuture<T>> request, Supplier<CompletableFuture<T>> hedge) {
+		requests.incrementAndGet();
+		synchronized (this) {
+			tokens = Math.min(MAX_TOKENS, tokens + budget);
+		}
+		long delay = delayMillis;
+		CompletableFuture<T> result = new CompletableFuture<>();
+		AtomicInteger pending = new AtomicInteger(1);
+		long start = System.nanoTime();
+		attempt(start(request), start, result, pending, false);
+		if (delay >= 0) {
+			CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> {
+				if (result.isDone() || !takeHedge())
+					return;
+				long hedgeStart = System.nanoTime();
+				CompletableFuture<T> sent = start(hedge);
+				if (null == sent) {
+					returnHedge();
+					return;
+				}
+				hedges.incrementAndGet();
+				pending.incrementAndGet();
+				attempt(sent, hedgeStart, result, pending, true);
+			});
+		}
+		return result;
+	}
+
+	private static <T> CompletableFuture<T> start(Supplier<CompletableFuture<T>> request) {
+		try {
+			return request.get();
+		} catch (RuntimeException e) {
+			return CompletableFuture.failedFuture(e);
+		}
+	}
+
+	private <T> void attempt(CompletableFuture<T> sent, long start, CompletableFuture<T> result,
+			AtomicInteger pending, boolean hedge) {
+		sent.whenComplete((value, error) -> {
+			if (hedge)
+				hedgesInFlight.decrementAndGet();
+			if (null == error) {
+				record((System.nanoTime() - start) / 1_000_000);
+				if (result.complete(value) && hedge)
+					hedgeWins.incrementAndGet();
+			} else if (pending.decrementAndGet() == 0) {
+				result.completeExceptionally(error);
+			}
+		});
+	}
+
+	private boolean takeHedge() {
+		synchronized (this) {
+			if (tokens < 1)
+				return false;
+			if (hedgesInFlight.incrementAndGet() > maxHedges) {
+				hedgesInFlight.decrementAndGet();
+				return false;
+			}
+			tokens -= 1;
+			return true;
+		}
+	}
+
+	// Give back a hedge that wasn't sent
+	private void returnHedge() {
+		synchronized (this) {
+			hedgesInFlight.decrementAndGet();
+			tokens = Math.min(MAX_TOKENS, tokens + 1);
+		}
+	}
+
+	private void record(long millis) {
+		long[] window = null;
+		synchronized (this) {
+			latencies[samples % WINDOW] = millis;
+			samples++;
+			if (samples >= MIN_SAMPLES && samples % RECOMPUTE_EVERY == 0)
+				window = Arrays.copyOf(latencies, Math.min(samples, WINDOW));
+		}
+		if (null != window) {
+			Arrays.sort(window);
+			delayMillis = Math.max(MIN_DELAY_MILLIS, window[Math.min(window.length - 1, window.length * percentile / 100)]);
+		}
+	}
+
+	// Hedge delay currently used, -1 while latencies are still being learned
+	public long getDelayMillis() {
+		return delayMillis;
+	}
+
+	public String format() {
+		return "Hedged " + hedges.get() + " of " + requests.get() + " lookups on " + route + " after "
+				+ getDelayMillis() + " ms (p" + percentile + "), " + hedgeWins.get() + " hedges answered first";
+	}
+
+	public long getHedges() {
+		return hedges.get();
+	}
+
+	void log() {
+		if (requests.get() > 0)
+			LOGGER.info(format());
+	}
+
+}
@@ -30,11 +30,15 @@
  */
 package org.ndexbio.sync;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import org.ndexbio.model.exceptions.NdexException;
+import org.ndexbio.model.exceptions.ObjectNotFoundException;
 import org.ndexbio.model.object.network.NetworkSummary;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
@@ -43,29 +47,161 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 public class IdCopyPlan extends CopyPlan {
 	
 	List<String> idList;
+	// file with one network id per line, plain or NDJSON, optionally gzipped
+	String idFile;
+
+	// ids looked up at once; bounds the lookups in flight and the memory they hold
+	private static final int LOOKUP_CHUNK = 1000;
 
 	public IdCopyPlan() {
 		super();
 	}
 	
 	@Override
-	public void findSourceNetworks() throws NdexException{
-		try {
-			
-			sourceNetworks = new ArrayList<>();
-			
-			for (String sourceNetworkId : idList){
-				NetworkSummary network = source.getNdex().getNetworkSummaryById(sourceNetworkId);				
-				if (null != network){
-					sourceNetworks.add(network);
+	public void findSourceNetworks() throws NdexException, IOException {
+		// ids from idList, then from idFile, each once, looked up a chunk at a time
+		sourceNetworks = new ArrayList<>();
+		UuidSet seen = new UuidSet();
+		List<UUID> chunk = new ArrayList<>(LOOKUP_CHUNK);
+		if (null != idList) {
+			for (String sourceNetworkId : idList) {
+				UUID id;
+				try {
+					id = UUID.fromString(sourceNetworkId.trim());
+				} catch (IllegalArgumentException e) {
+					LOGGER.severe("Error getting source network " + sourceNetworkId + ": " + e.getMessage());
+					continue;
 				}
+				if (seen.add(id.getMostSignificantBits(), id.getLeastSignificantBits()))
+					addToChunk(chunk, id);
+			}
+		}
+		if (null != idFile) {
+			File file = resolveIdFile();
+			try (IdFileReader reader = new IdFileReader(file)) {
+				while (reader.next()) {
+					long msb = reader.getMostSignificantBits();
+					long lsb = reader.getLeastSignificantBits();
+					if (seen.add(msb, lsb))
+						addToChunk(chunk, new UUID(msb, lsb));
+				}
+				LOGGER.info("Read " + reader.getLines() + " lines from " + file + (reader.getInvalid() > 0
+						? ", " + reader.getInvalid() + " without a network id" : ""));
+			} catch (IOException e) {
+				LOGGER.severe("Error reading id file " + file + ": " + e.getMessage());
+				sourceSetComplete = false;
+			}
+		}
+		lookUp(chunk);
+		LOGGER.info("Found " + sourceNetworks.size() + " of " + seen.size() + " source networks");
+	}
+
+	private void addToChunk(List<UUID> chunk, UUID id) throws NdexException, IOException {
+		chunk.add(id);
+		if (chunk.size() >= LOOKUP_CHUNK) {
+			lookUp(chunk);
+			chunk.clear();
+		}
+	}
+
+	// Look the ids up concurrently and add the networks found, in the order of the ids
+	private void lookUp(List<UUID> ids) throws NdexException, IOException {
+		NetworkRecord[] found = new NetworkRecord[ids.size()];
+		List<Integer> positions = new ArrayList<>(ids.size());
+		for (int i = 0; i < ids.size(); i++)
+			positions.add(i);
+		
+		if (source.isAsync()) {
+			List<CompletableFuture<Void>> lookups = new ArrayList<>(ids.size());
+			for (int i : positions) {
+				UUID id = ids.get(i);
+				lookups.add(source.getNetworkSummaryAsync(id).handle((network, error) -> {
+					if (null != error) {
+						LOGGER.severe("Error getting source network " + id + ": " + AsyncNdexClient.cause(error).getMessage());
+						// not found is an answer, other failures leave the source set incomplete
+						if (!(AsyncNdexClient.cause(error) instanceof ObjectNotFoundException))
+							sourceSetComplete = false;
+					} else if (null != network)
+						found[i] = NetworkRecord.of(network);
+					return null;
+				}));
 			}
-			
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			AsyncNdexClient.await(CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[0])));
+		} else {
+			executor.forEach(positions, i -> {
+				UUID id = ids.get(i);
+				try {
+					NetworkSummary network = source.getNetworkSummaryById(id);
+					if (null != network){
+						found[i] = NetworkRecord.of(network);
+					}
+				} catch (ObjectNotFoundException e) {
+					LOGGER.severe("Error getting source network " + id + ": " + e.getMessage());
+				} catch (IOException | NdexException e) {
+					// e.g. no permission: the network may still exist
+					LOGGER.severe("Error getting source network " + id + ": " + e.getMessage());
+					sourceSetComplete = false;
+				}
+			});
 		}
 		
+		for (NetworkRecord network : found) {
+			if (null != network)
+				sourceNetworks.add(network);
+		}
+	}
+
+	// In idList, or else in idFile, which is read again for each network asked about
+	@Override
+	public boolean selects(NetworkSummary network) throws IOException {
+		UUID networkId = network.getExternalId();
+		if (null != idList) {
+			for (String id : idList) {
+				try {
+					if (networkId.equals(UUID.fromString(id.trim())))
+						return true;
+				} catch (IllegalArgumentException e) {
+					// reported by findSourceNetworks and validate
+				}
+			}
+		}
+		if (null != idFile) {
+			try (IdFileReader reader = new IdFileReader(resolveIdFile())) {
+				while (reader.next()) {
+					if (reader.getMostSignificantBits() == networkId.getMostSignificantBits()
+							&& reader.getLeastSignificantBits() == networkId.getLeastSignificantBits())
+						return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// idFile, relative to the plan directory unless absolute
+	private File resolveIdFile() {
+		File file = new File(idFile);
+		if (!file.isAbsolute() && null != planDirectory)
+			file = new File(planDirectory, idFile);
+		return file;
+	}
+
+	@Override
+	public List<String> validate() {
+		List<String> problems = super.validate();
+		if (null != idFile && !resolveIdFile().isFile())
+			problems.add("idFile " + resolveIdFile() + " not found");
+		if ((null == idList || idList.isEmpty()) && null == idFile)
+			problems.add("empty idList and no idFile");
+		else if (null != idList) {
+			for (String id : idList) {
+				try {
+					UUID.fromString(id.trim());
+				} catch (IllegalArgumentException | NullPointerException e) {
+					problems.add("invalid network id '" + id + "'");
+				}
+			}
+		}
+		return problems;
 	}
 
 	public List<String> getIdList() {
@@ -75,6 +211,14 @@ public class IdCopyPlan extends CopyPlan {
 	public void setIdList(List<String> idList) {
 		this.idList = idList;
 	}
+
+	public String getIdFile() {
+		return idFile;
+	}
+
+	public void setIdFile(String idFile) {
+		this.idFile = idFile;
+	}
 	
 	
 
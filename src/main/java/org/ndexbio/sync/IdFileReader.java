@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+// Reads network ids from a file with one network per line: plain UUIDs, or NDJSON
+// lines such as "uuid" or {"externalId": "uuid", ...}. The first UUID on each line
+// is taken, other lines are counted as invalid. Gzipped files are recognised by
+// their magic bytes. The file is scanned byte by byte into the two longs of each
+// UUID, without allocating a String per line.
+//
+public final class IdFileReader implements Closeable {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int UUID_LENGTH = 36;
+
+	private final InputStream in;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position = 0;
+	private int limit = 0;
+
+	private long msb;
+	private long lsb;
+	private long lines = 0;
+	private long invalid = 0;
+
+	public IdFileReader(File file) throws IOException {
+		InputStream raw = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+		try {
+			raw.mark(2);
+			boolean gzipped = raw.read() == 0x1f && raw.read() == 0x8b;
+			raw.reset();
+			in = gzipped ? new GZIPInputStream(raw, BUFFER_SIZE) : raw;
+		} catch (IOException e) {
+			raw.close();
+			throw e;
+		}
+	}
+
+	// Advance to the next line with a UUID. Returns false at the end of the file.
+	public boolean next() throws IOException {
+		while (true) {
+			int c = read();
+			if (c == -1)
+				return false;
+			if (c == '\n' || c == '\r')
+				continue;
+			lines++;
+			if (scanLine(c))
+				return true;
+			invalid++;
+		}
+	}
+
+	public long getMostSignificantBits() {
+		return msb;
+	}
+
+	public long getLeastSignificantBits() {
+		return lsb;
+	}
+
+	// Lines read so far, blank lines not counted
+	public long getLines() {
+		return lines;
+	}
+
+	// Lines without a UUID
+	public long getInvalid() {
+		return invalid;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	// Look for a UUID in the line starting with c and consume the rest of the line.
+	// A UUID is a run of hex digits and dashes of the right shape, delimited by
+	// other characters or the line ends.
+	private boolean scanLine(int c) throws IOException {
+		int length = 0;
+		long high = 0;
+		long low = 0;
+		boolean skipping = false;
+		boolean found = false;
+		for (; c != -1 && c != '\n' && c != '\r'; c = read()) {
+			if (found)
+				continue;
+			int digit = hexValue(c);
+			if (digit < 0 && c != '-') {
+				// end of a run
+				if (length == UUID_LENGTH && !skipping)
+					found = true;
+				length = 0;
+				high = 0;
+				low = 0;
+				skipping = false;
+				continue;
+			}
+			if (skipping)
+				continue;
+			boolean dash = length == 8 || length == 13 || length == 18 || length == 23;
+			if (length == UUID_LENGTH || (dash ? c != '-' : digit < 0)) {
+				// too long or a dash out of place: skip to the end of the run
+				skipping = true;
+				continue;
+			}
+			if (!dash) {
+				if (length < 18)
+					high = high << 4 | digit;
+				else
+					low = low << 4 | digit;
+			}
+			length++;
+			if (length == UUID_LENGTH) {
+				msb = high;
+				lsb = low;
+			}
+		}
+		return found || (length == UUID_LENGTH && !skipping);
+	}
+
+	private int read() throws IOException {
+		if (position == limit) {
+			limit = in.read(buffer, 0, BUFFER_SIZE);
+			position = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buffer[position++] & 0xff;
+	}
+
+	private static int hexValue(int c) {
+		if (c >= '0' && c <= '9')
+			return c - '0';
+		if (c >= 'a' && c <= 'f')
+			return c - 'a' + 10;
+		if (c >= 'A' && c <= 'F')
+			return c - 'A' + 10;
+		return -1;
+	}
+
+}
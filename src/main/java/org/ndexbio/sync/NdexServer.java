@@ -31,22 +31,37 @@
 package org.ndexbio.sync;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
 
 import org.ndexbio.model.exceptions.NdexException;
 import org.ndexbio.model.object.ProvenanceEntity;
 import org.ndexbio.model.object.network.NetworkSummary;
 import org.ndexbio.rest.client.NdexRestClient;
 import org.ndexbio.rest.client.NdexRestClientModelAccessLayer;
+import org.ndexbio.sync.jfr.ProvenanceFetchEvent;
+import org.ndexbio.sync.jfr.ProvenanceWriteEvent;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.core.JsonProcessingException;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class NdexServer {
+	private final static Logger LOGGER = Logger.getLogger(NdexServer.class.getName());
 	
 	String username;
 	String password;
@@ -56,16 +71,88 @@ public class NdexServer {
 	
 	String version;
 	
+	// upper bound for requests in flight to this server, shared by all plans using the same route
+	int maxConcurrentRequests = 4;
+	private static final Map<String, PrioritySemaphore> serverPermits = new ConcurrentHashMap<>();
+	private PrioritySemaphore permits;
+	// priority of the plan using this server; its requests and transfers wait for permits in this order
+	int priority = 0;
+	// cap on CX bytes per second to or from this server, optionally by time of day, e.g.
+	// "10M, 08:00-18:00=2M"; shared by all plans using the same route
+	String bandwidth;
+	private static final Map<String, RateLimiter> serverLimiters = new ConcurrentHashMap<>();
+	private RateLimiter limiter;
+	// summary and provenance lookups slower than this percentile of the recent ones are
+	// sent a second time (0 = off), within a budget of hedgeBudget percent more requests;
+	// shared by all plans using the same route
+	int hedgePercentile = 0;
+	double hedgeBudget = 5;
+	private static final Map<String, Hedger> hedgers = new ConcurrentHashMap<>();
+	private Hedger hedger;
+	
+	// summaries read in this session, shared by all plans using the same route and
+	// account; a change the sync makes drops the network from every cache of the route
+	long summaryCacheTtl = 60;
+	private static final Map<String, SummaryCache> summaryCaches = new ConcurrentHashMap<>();
+	private SummaryCache summaries;
+	
+	// HTTP backend: "rest" uses the blocking NDEx client, "async" the non-blocking
+	// java.net.http client, which lets bulk summary and provenance lookups run without
+	// a thread per request.
+	public static final String BACKEND_REST = "rest";
+	public static final String BACKEND_ASYNC = "async";
+	String backend = BACKEND_REST;
+	// "auto" negotiates gzip for CX transfers of the async backend, "off" disables it
+	public static final String COMPRESSION_AUTO = "auto";
+	public static final String COMPRESSION_OFF = "off";
+	String compression = COMPRESSION_AUTO;
+	private static final Map<String, AsyncNdexClient> asyncClients = new ConcurrentHashMap<>();
+	private AsyncNdexClient async;
+	
+	// time to connect to a server and to wait for the answer to a request, in
+	// milliseconds; set by Copier for the requests of all servers, 0 = no limit
+	private static volatile long connectTimeout = 60 * 1000L;
+	private static volatile long readTimeout = 600 * 1000L;
+	
+	@FunctionalInterface
+	interface Request<T> {
+		T call() throws IOException, NdexException;
+	}
+	
 	public NdexServer() {
 		super();
 
 	}
 	
 	public NdexRestClientModelAccessLayer initialize() throws JsonProcessingException, IOException, NdexException{
-		client = new NdexRestClient(username, password, route);
+		NdexRestClient client = new NdexRestClient(username, password, route);
+		this.client = client;
 		ndex = new NdexRestClientModelAccessLayer(client);
+		permits = serverPermits.computeIfAbsent(route, r -> new PrioritySemaphore(Math.max(1, maxConcurrentRequests)));
+		summaries = summaryCaches.computeIfAbsent(route + "|" + username, r -> new SummaryCache(summaryCacheTtl * 1000L));
+		if (null != bandwidth)
+			limiter = serverLimiters.computeIfAbsent(route, r -> new RateLimiter(r, BandwidthProfile.parse(bandwidth)));
+		if (hedgePercentile > 0)
+			hedger = hedgers.computeIfAbsent(route, r -> new Hedger(r, hedgePercentile, hedgeBudget, Math.max(1, maxConcurrentRequests / 4)));
 		
-		Object o = client.getNdexObject("/admin", "/status", Object.class);
+		Object o;
+		if (BACKEND_ASYNC.equals(backend)) {
+			async = asyncClients.computeIfAbsent(route + "|" + username, k -> new AsyncNdexClient(route, username, password,
+					maxConcurrentRequests, 0 == connectTimeout ? null : Duration.ofMillis(connectTimeout),
+					0 == readTimeout ? null : Duration.ofMillis(readTimeout)));
+			async.setHedger(hedger);
+			o = AsyncNdexClient.await(async.getStatus());
+			async.setAcceptGzip(!COMPRESSION_OFF.equals(compression));
+			if (COMPRESSION_AUTO.equals(compression)) {
+				async.setCompressUploads(AsyncNdexClient.await(async.probeCompression()));
+				LOGGER.info("Server " + route + (async.getCompressUploads() ? " supports" : " does not support")
+						+ " gzip, CX uploads are sent " + (async.getCompressUploads() ? "compressed" : "uncompressed"));
+			}
+		} else if (BACKEND_REST.equals(backend)) {
+			o = withTimeout(() -> client.getNdexObject("/admin", "/status", Object.class));
+		} else
+			throw new NdexException("Unknown backend '" + backend + "' for server " + route + ", expected "
+					+ BACKEND_REST + " or " + BACKEND_ASYNC);
 		if ( o == null)
 			throw new NdexException("Failed to get status on server endpoint " + this.route);
 		if ( o instanceof Map) {
@@ -112,18 +199,316 @@ public class NdexServer {
 	}
 	
 	
+	public String getCompression() {
+		return compression;
+	}
+
+	public void setCompression(String compression) {
+		this.compression = compression;
+	}
+
+	public String getBackend() {
+		return backend;
+	}
+
+	public void setBackend(String backend) {
+		this.backend = backend;
+	}
+	
+	// True when requests to this server go through the non-blocking client. Only valid after initialize().
+	public boolean isAsync() {
+		return null != async;
+	}
+	
+	boolean isInitialized() {
+		return null != ndex;
+	}
+	
+	// Timeouts for the requests to all servers, in milliseconds; 0 = no limit
+	static void setTimeouts(long connectMillis, long readMillis) {
+		connectTimeout = connectMillis;
+		readTimeout = readMillis;
+	}
+	
+	public long getSummaryCacheTtl() {
+		return summaryCacheTtl;
+	}
+
+	// Seconds a cached summary is used; 0 turns the cache off
+	public void setSummaryCacheTtl(long summaryCacheTtl) {
+		this.summaryCacheTtl = summaryCacheTtl;
+	}
+	
+	public int getHedgePercentile() {
+		return hedgePercentile;
+	}
+
+	public void setHedgePercentile(int hedgePercentile) {
+		this.hedgePercentile = hedgePercentile;
+	}
+
+	public double getHedgeBudget() {
+		return hedgeBudget;
+	}
+
+	public void setHedgeBudget(double hedgeBudget) {
+		this.hedgeBudget = hedgeBudget;
+	}
+	
+	public int getMaxConcurrentRequests() {
+		return maxConcurrentRequests;
+	}
+
+	public void setMaxConcurrentRequests(int maxConcurrentRequests) {
+		this.maxConcurrentRequests = maxConcurrentRequests;
+	}
+	
+	public String getBandwidth() {
+		return bandwidth;
+	}
+
+	public void setBandwidth(String bandwidth) {
+		this.bandwidth = bandwidth;
+	}
+	
+	// Limiter for CX streams of this server, null if unlimited. Only valid after initialize().
+	RateLimiter getRateLimiter() {
+		return limiter;
+	}
+	
+	// Permits bounding the requests in flight to this server. Only valid after initialize().
+	PrioritySemaphore getPermits() {
+		return permits;
+	}
+	
+	int getPriority() {
+		return priority;
+	}
+	
+	void setPriority(int priority) {
+		this.priority = priority;
+	}
+	
+	// Run one request against the server while holding one of its permits
+	<T> T request(Request<T> request) throws IOException, NdexException {
+		try {
+			permits.acquire(1, priority);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a request slot on " + route);
+		}
+		try {
+			return isAsync() ? request.call() : withTimeout(request);
+		} finally {
+			permits.release(1);
+		}
+	}
+	
+	// Run a call of the rest backend with the request timeouts. The NDEx client opens
+	// its HttpURLConnections itself, so their timeouts can't be set. Instead the call
+	// runs on a virtual thread that is interrupted when no answer came in time; a
+	// virtual thread interrupted in a socket operation closes the socket. The async
+	// backend sets the timeouts on each request.
+	private <T> T withTimeout(Request<T> call) throws IOException, NdexException {
+		long timeout = connectTimeout + readTimeout;
+		if (connectTimeout <= 0 || readTimeout <= 0)
+			return call.call();
+		CompletableFuture<T> result = new CompletableFuture<>();
+		Thread thread = Thread.ofVirtual().name("ndex-request").start(() -> {
+			try {
+				result.complete(call.call());
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+			}
+		});
+		try {
+			return result.get(timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			thread.interrupt();
+			throw new SocketTimeoutException("No answer from " + route + " within " + timeout / 1000 + " seconds");
+		} catch (InterruptedException e) {
+			thread.interrupt();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for " + route);
+		} catch (ExecutionException e) {
+			return AsyncNdexClient.await(result);
+		}
+	}
+	
+	// Run an upload of the rest backend on a virtual thread and wait for it. If the
+	// waiting thread is interrupted, e.g. by TransferGuard because the target stopped
+	// taking the CX, the virtual thread is interrupted too, which closes its socket; a
+	// thread blocked writing to a socket ignores interrupts otherwise. The async
+	// backend cancels the request instead.
+	private <T> T interruptibly(Callable<T> upload) throws Exception {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		Thread thread = Thread.ofVirtual().name("ndex-upload").start(() -> {
+			try {
+				result.complete(upload.call());
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+			}
+		});
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			thread.interrupt();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Upload to " + route + " interrupted");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw (Error) e.getCause();
+		}
+	}
+	
+	// Summary of a network, from the session's summary cache if it has a recent one
+	public NetworkSummary getNetworkSummaryById(UUID networkId) throws IOException, NdexException {
+		NetworkSummary summary = summaries.get(networkId);
+		if (null != summary)
+			return summary;
+		return fetchNetworkSummary(networkId);
+	}
+	
+	// Summary of a network as the server has it now. The cache is refreshed with it.
+	public NetworkSummary fetchNetworkSummary(UUID networkId) throws IOException, NdexException {
+		NetworkSummary summary;
+		if (isAsync())
+			summary = request(() -> AsyncNdexClient.await(async.getNetworkSummary(networkId)));
+		else
+			summary = request(() -> lookup(() -> ndex.getNetworkSummaryById(networkId.toString())));
+		summaries.put(summary);
+		return summary;
+	}
+	
+	// The summary as the server has it now, not from the cache
+	public NetworkSummary getCurrentNetworkSummary(UUID networkId) throws IOException, NdexException {
+		invalidateSummary(networkId);
+		return getNetworkSummaryById(networkId);
+	}
+	
+	private void invalidateSummary(UUID networkId) {
+		String prefix = route + "|";
+		for (Map.Entry<String, SummaryCache> e : summaryCaches.entrySet()) {
+			if (e.getKey().startsWith(prefix))
+				e.getValue().invalidate(networkId);
+		}
+	}
+	
+	// Run an idempotent lookup of the rest backend, hedged if the server has hedging
+	// on. The async backend hedges its GETs itself.
+	// The caller holds a permit for the lookup; a hedge needs one of its own and is
+	// skipped if none is free.
+	private <T> T lookup(Request<T> lookup) throws IOException, NdexException {
+		if (null == hedger)
+			return lookup.call();
+		return AsyncNdexClient.await(hedger.call(() -> onVirtualThread(lookup), () -> {
+			if (!permits.tryAcquire(1))
+				return null;
+			CompletableFuture<T> result = onVirtualThread(lookup);
+			result.whenComplete((value, error) -> permits.release(1));
+			return result;
+		}));
+	}
+
+	private static <T> CompletableFuture<T> onVirtualThread(Request<T> call) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		Thread.ofVirtual().start(() -> {
+			try {
+				result.complete(call.call());
+			} catch (Throwable e) {
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
+	
+	public static void logHedging() {
+		for (Hedger h : hedgers.values())
+			h.log();
+	}
+	
+	// Summary lookup that doesn't block the caller. Only valid with the async backend.
+	public CompletableFuture<NetworkSummary> getNetworkSummaryAsync(UUID networkId) {
+		NetworkSummary summary = summaries.get(networkId);
+		if (null != summary)
+			return CompletableFuture.completedFuture(summary);
+		return async.getNetworkSummary(networkId).thenApply(s -> {
+			summaries.put(s);
+			return s;
+		});
+	}
+	
+	public List<NetworkSummary> findNetworks(String query, String accountName, int start, int size) throws IOException, NdexException {
+		if (isAsync())
+			return request(() -> AsyncNdexClient.await(async.findNetworks(query, accountName, start, size)));
+		return request(() -> ndex.findNetworks(query, accountName, null, false, start, size).getNetworks());
+	}
+	
+	public void setNetworkFlag(UUID networkId, String parameter, String value) throws IOException, NdexException {
+		invalidateSummary(networkId);
+		request(() -> {
+			if (isAsync())
+				AsyncNdexClient.await(async.setNetworkFlag(networkId, parameter, Boolean.valueOf(value)));
+			else
+				ndex.setNetworkFlag(networkId.toString(), parameter, value);
+			return null;
+		});
+	}
+	
+	// CX transfers. The caller bounds these with TransferPermits, so they don't take a request permit here.
+	public InputStream getNetworkAsCXStream(UUID networkId) throws IOException, NdexException {
+		if (isAsync())
+			return AsyncNdexClient.await(async.getNetworkAsCXStream(networkId));
+		// the timeouts cover the request up to the start of the CX; TransferGuard watches the stream
+		return withTimeout(() -> ndex.getNetworkAsCXStream(networkId.toString()));
+	}
+	
+	public UUID createCXNetwork(InputStream cx) throws IllegalStateException, Exception {
+		if (isAsync())
+			return AsyncNdexClient.await(async.createCXNetwork(cx));
+		return interruptibly(() -> ndex.createCXNetwork(cx));
+	}
+	
+	public void deleteNetwork(UUID networkId) throws IOException, NdexException {
+		invalidateSummary(networkId);
+		request(() -> {
+			if (isAsync())
+				AsyncNdexClient.await(async.deleteNetwork(networkId));
+			else
+				ndex.deleteNetwork(networkId.toString());
+			return null;
+		});
+	}
+
+	public void updateCXNetwork(UUID networkId, InputStream cx) throws IllegalStateException, Exception {
+		invalidateSummary(networkId);
+		if (isAsync())
+			AsyncNdexClient.await(async.updateCXNetwork(networkId, cx));
+		else
+			interruptibly(() -> {
+				ndex.updateCXNetwork(networkId, cx);
+				return null;
+			});
+	}
+	
+	public String getBaseRoute() {
+		return ndex.getBaseRoute();
+	}
+	
 	public String getHostName () throws URISyntaxException { 
 		URI uri = new URI(route);
 	    return uri.getHost();	
 	}
 	
+	// Always asks the server, since this is polled while the server validates the network
 	public boolean finishedLoading(UUID networkId) throws JsonProcessingException, IOException, NdexException {
-		NetworkSummary s = ndex.getNetworkSummaryById(networkId.toString());
+		NetworkSummary s = fetchNetworkSummary(networkId);
 		return s.getIsValid();
 	}
 
 	public boolean isReadOnly(UUID networkId) throws JsonProcessingException, IOException, NdexException {
-		NetworkSummary s = ndex.getNetworkSummaryById(networkId.toString());
+		NetworkSummary s = getNetworkSummaryById(networkId);
         return s.getIsReadOnly();
 	/*	Map<String, Object> summaryMap = getNetworkSummaryAsMap(networkId);	
 		Boolean b = (Boolean)summaryMap.get("isReadOnly");
@@ -142,20 +527,55 @@ public class NdexServer {
 		return result;
 	} */
 
+	public ProvenanceEntity getNetworkProvenance(UUID networkId) throws IOException, NdexException {
+		ProvenanceFetchEvent event = new ProvenanceFetchEvent();
+		event.begin();
+		try {
+			if (isAsync())
+				return request(() -> AsyncNdexClient.await(async.getNetworkProvenance(networkId)));
+			return request(() -> lookup(() -> ndex.getNetworkProvenance(networkId.toString())));
+		} finally {
+			event.server = route;
+			event.network = networkId.toString();
+			event.commit();
+		}
+	}
+	
+	// Provenance lookup that doesn't block the caller. Only valid with the async backend.
+	public CompletableFuture<ProvenanceEntity> getNetworkProvenanceAsync(UUID networkId) {
+		ProvenanceFetchEvent event = new ProvenanceFetchEvent();
+		event.begin();
+		return async.getNetworkProvenance(networkId).whenComplete((provenance, error) -> {
+			event.server = route;
+			event.network = networkId.toString();
+			event.commit();
+		});
+	}
+
 	public void setNetworkProvenance(UUID networkId, ProvenanceEntity newProvananceHistory) throws IllegalStateException, Exception {
-		int counter = 0;
-		while (counter < 30) {
-			try {
-				ndex.setNetworkProvenance(networkId.toString(), newProvananceHistory);
-				return ;
-			} catch (IOException e) {
-				System.out.println("Failed to set provenance: " + e.getMessage() + ". Retry in 3 seconds...");
-				e.printStackTrace();
-				Thread.sleep(3000);
-				counter ++;
-			}	
+		ProvenanceWriteEvent event = new ProvenanceWriteEvent();
+		event.begin();
+		event.server = route;
+		event.network = networkId.toString();
+		invalidateSummary(networkId);
+		try {
+			int counter = 0;
+			while (counter < 30) {
+				try {
+					request(() -> isAsync()
+							? AsyncNdexClient.await(async.setNetworkProvenance(networkId, newProvananceHistory))
+							: ndex.setNetworkProvenance(networkId.toString(), newProvananceHistory));
+					return ;
+				} catch (IOException e) {
+					LOGGER.warning("Failed to set provenance of " + networkId + ": " + e.getMessage() + ". Retry in 3 seconds...");
+					Thread.sleep(3000);
+					counter ++;
+				}	
+			}
+			throw new NdexException("Set provenance function timed out after 30 retries.");
+		} finally {
+			event.commit();
 		}
-		throw new NdexException("Set provenance function timed out after 30 retries.");
 	}
 
 }
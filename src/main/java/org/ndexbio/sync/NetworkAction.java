@@ -0,0 +1,138 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+// The work a plan has to do for one source network, together with the discovery
+// results the copy/update decision depends on: the source's provenance and the
+// target candidates that are sync copies of it. A coordinator writes these to
+// shard files so workers can act on them without repeating the discovery.
+// In mirror mode an action can also delete the one candidate, a copy of a source
+// network that left the plan's source set; its source then only has the UUID.
+//
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class NetworkAction {
+
+	String plan;
+	NetworkRecord source;
+	ProvenanceRecord sourceProvenance;
+	List<NetworkRecord> candidates = new ArrayList<>();
+	Map<UUID, ProvenanceRecord> candidateProvenance = new HashMap<>();
+	// the source hasn't changed since its last copy, nothing to do
+	boolean unchanged = false;
+	boolean delete = false;
+
+	public NetworkAction() {
+		super();
+	}
+
+	public NetworkAction(String plan, NetworkRecord source, ProvenanceRecord sourceProvenance) {
+		this.plan = plan;
+		this.source = source;
+		this.sourceProvenance = sourceProvenance;
+	}
+
+	static NetworkAction deletion(String plan, UUID sourceId, NetworkRecord copy, ProvenanceRecord provenance) {
+		NetworkAction action = new NetworkAction(plan, new NetworkRecord(sourceId, null, 0, false, false, 0, 0, null), null);
+		action.addCandidate(copy, provenance);
+		action.setDelete(true);
+		return action;
+	}
+
+	void addCandidate(NetworkRecord candidate, ProvenanceRecord provenance) {
+		candidates.add(candidate);
+		candidateProvenance.put(candidate.getExternalId(), provenance);
+	}
+
+	public String getPlan() {
+		return plan;
+	}
+
+	public void setPlan(String plan) {
+		this.plan = plan;
+	}
+
+	public NetworkRecord getSource() {
+		return source;
+	}
+
+	public void setSource(NetworkRecord source) {
+		this.source = source;
+	}
+
+	public ProvenanceRecord getSourceProvenance() {
+		return sourceProvenance;
+	}
+
+	public void setSourceProvenance(ProvenanceRecord sourceProvenance) {
+		this.sourceProvenance = sourceProvenance;
+	}
+
+	public List<NetworkRecord> getCandidates() {
+		return candidates;
+	}
+
+	public void setCandidates(List<NetworkRecord> candidates) {
+		this.candidates = candidates;
+	}
+
+	public boolean isUnchanged() {
+		return unchanged;
+	}
+
+	public void setUnchanged(boolean unchanged) {
+		this.unchanged = unchanged;
+	}
+
+	public boolean isDelete() {
+		return delete;
+	}
+
+	public void setDelete(boolean delete) {
+		this.delete = delete;
+	}
+
+	public Map<UUID, ProvenanceRecord> getCandidateProvenance() {
+		return candidateProvenance;
+	}
+
+	public void setCandidateProvenance(Map<UUID, ProvenanceRecord> candidateProvenance) {
+		this.candidateProvenance = candidateProvenance;
+	}
+
+}
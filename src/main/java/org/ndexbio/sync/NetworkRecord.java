@@ -0,0 +1,132 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+import org.ndexbio.model.object.network.NetworkSummary;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+// Compact projection of a NetworkSummary holding only the fields that
+// matching and copying need. Plans keep these instead of full summaries
+// so that discovery of large accounts stays cheap on the heap.
+//
+public final class NetworkRecord {
+
+	private final UUID id;
+	private final String name;
+	private final long modificationTime;
+	private final boolean readOnly;
+	private final boolean hasDescription;
+	private final int edgeCount;
+	private final int nodeCount;
+	private final String version;
+
+	@JsonCreator
+	public NetworkRecord(@JsonProperty("externalId") UUID id, @JsonProperty("name") String name,
+			@JsonProperty("modificationTime") long modificationTime, @JsonProperty("isReadOnly") boolean readOnly,
+			@JsonProperty("hasDescription") boolean hasDescription, @JsonProperty("edgeCount") int edgeCount,
+			@JsonProperty("nodeCount") int nodeCount, @JsonProperty("version") String version) {
+		this.id = id;
+		this.name = name;
+		this.modificationTime = modificationTime;
+		this.readOnly = readOnly;
+		this.hasDescription = hasDescription;
+		this.edgeCount = edgeCount;
+		this.nodeCount = nodeCount;
+		this.version = version;
+	}
+
+	public static NetworkRecord of(NetworkSummary summary) {
+		long modified = summary.getModificationTime() == null ? 0L : summary.getModificationTime().getTime();
+		return new NetworkRecord(summary.getExternalId(), summary.getName(), modified,
+				summary.getIsReadOnly(), summary.getDescription() != null, summary.getEdgeCount(),
+				summary.getNodeCount(), summary.getVersion());
+	}
+
+	// Summary with the fields of this record, for the provenance of a source network
+	// that has none of its own
+	public NetworkSummary toSummary() {
+		NetworkSummary summary = new NetworkSummary();
+		summary.setExternalId(id);
+		summary.setName(name);
+		summary.setModificationTime(new Timestamp(modificationTime));
+		summary.setIsReadOnly(readOnly);
+		summary.setEdgeCount(edgeCount);
+		summary.setNodeCount(nodeCount);
+		summary.setVersion(version);
+		return summary;
+	}
+
+	public UUID getExternalId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getModificationTime() {
+		return modificationTime;
+	}
+
+	@JsonProperty("isReadOnly")
+	public boolean getIsReadOnly() {
+		return readOnly;
+	}
+
+	@JsonProperty("hasDescription")
+	public boolean hasDescription() {
+		return hasDescription;
+	}
+
+	// used to estimate the size of the CX
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public String getVersion() {
+		return version;
+	}
+
+	@Override
+	public String toString() {
+		return id.toString();
+	}
+
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+// Timings and byte counts for one source network processed by a plan.
+// Instances are collected by the ProgressReporter and written to the run report.
+//
+public class NetworkTiming {
+
+	public static final String ACTION_SKIP = "skip";
+	public static final String ACTION_COPY = "copy";
+	public static final String ACTION_UPDATE = "update";
+	// mirror mode: the copy was deleted because its source left the plan's source set
+	public static final String ACTION_DELETE = "delete";
+	// left for the next run because of the run budget
+	public static final String ACTION_DEFERRED = "deferred";
+
+	// correlation ids are unique within the process and carry its pid, so the events of
+	// one network can be picked out of the event logs of a sharded session
+	private static final String CORRELATION_PREFIX = Long.toHexString(ProcessHandle.current().pid()) + "-";
+	private static final AtomicLong correlationSequence = new AtomicLong();
+
+	private final String plan;
+	private final UUID sourceId;
+	private final String correlationId = CORRELATION_PREFIX + Long.toHexString(correlationSequence.incrementAndGet());
+	private int priority;
+	private UUID targetId;
+	private String action = ACTION_SKIP;
+	private String error;
+
+	private final long startTime;
+	private long endTime;
+	private long transferStart;
+	private long transferMillis;
+	private long validationStart;
+	private long validationMillis;
+	private long provenanceStart;
+	private long provenanceMillis;
+
+	// time spent waiting for request permits on the servers before transfers
+	private long slotWaitMillis;
+
+	// result of the check of the copy after it was made, see CopyVerifier
+	private volatile String verification;
+	private volatile String mismatch;
+
+	private volatile long bytesDown;
+	private volatile long bytesUp;
+	private volatile long bytesSaved;
+
+	public NetworkTiming(String plan, UUID sourceId) {
+		this.plan = plan;
+		this.sourceId = sourceId;
+		this.startTime = System.currentTimeMillis();
+	}
+
+	public String getPlan() {
+		return plan;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	void setPriority(int priority) {
+		this.priority = priority;
+	}
+
+	public long getSlotWaitMillis() {
+		return slotWaitMillis;
+	}
+
+	void addSlotWait(long millis) {
+		slotWaitMillis += millis;
+	}
+
+	public String getCorrelationId() {
+		return correlationId;
+	}
+
+	public UUID getSourceId() {
+		return sourceId;
+	}
+
+	public UUID getTargetId() {
+		return targetId;
+	}
+
+	public void setTargetId(UUID targetId) {
+		this.targetId = targetId;
+	}
+
+	public String getAction() {
+		return action;
+	}
+
+	public void setAction(String action) {
+		this.action = action;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	public String getVerification() {
+		return verification;
+	}
+
+	void setVerification(String verification) {
+		this.verification = verification;
+	}
+
+	// What differs between the copy and its source, if verification found a mismatch
+	public String getMismatch() {
+		return mismatch;
+	}
+
+	void setMismatch(String mismatch) {
+		this.mismatch = mismatch;
+	}
+
+	public long getStartTime() {
+		return startTime;
+	}
+
+	public long getTotalMillis() {
+		return (endTime == 0 ? System.currentTimeMillis() : endTime) - startTime;
+	}
+
+	public long getTransferMillis() {
+		return transferMillis;
+	}
+
+	public long getValidationMillis() {
+		return validationMillis;
+	}
+
+	public long getProvenanceMillis() {
+		return provenanceMillis;
+	}
+
+	public long getBytesDown() {
+		return bytesDown;
+	}
+
+	// bytes of the source CX the aspect filter kept off the upload
+	public long getBytesSaved() {
+		return bytesSaved;
+	}
+
+	public long getBytesUp() {
+		return bytesUp;
+	}
+
+	void addBytesDown(long n) {
+		bytesDown += n;
+	}
+
+	void addBytesUp(long n) {
+		bytesUp += n;
+	}
+
+	void addBytesSaved(long n) {
+		bytesSaved += n;
+	}
+
+	void finished() {
+		endTime = System.currentTimeMillis();
+	}
+
+	void transferStarted() {
+		transferStart = System.currentTimeMillis();
+	}
+
+	void transferFinished() {
+		transferMillis += System.currentTimeMillis() - transferStart;
+	}
+
+	void validationStarted() {
+		validationStart = System.currentTimeMillis();
+	}
+
+	void validationFinished() {
+		validationMillis += System.currentTimeMillis() - validationStart;
+	}
+
+	public void provenanceStarted() {
+		provenanceStart = System.currentTimeMillis();
+	}
+
+	public void provenanceFinished() {
+		provenanceMillis += System.currentTimeMillis() - provenanceStart;
+	}
+
+	@JsonIgnore
+	public boolean isFinished() {
+		return endTime != 0;
+	}
+
+}
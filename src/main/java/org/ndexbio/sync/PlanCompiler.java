@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import org.ndexbio.model.exceptions.NdexException;
+
+// Compiles the plans of a session into units of work, one per target account.
+// The plans copying into an account are discovered together and share what they
+// find: provenance is fetched once per network and server however many of them
+// include the network, and a full scan of the account is done once for all of
+// them. A source network that several of them would copy into the account is then
+// left to the first of them, so it is transferred once. Each group is handed over
+// for execution as soon as it is compiled, and what its discovery found is
+// released before the next group is discovered, so a session holds the discovery
+// results of one target account at a time.
+//
+public class PlanCompiler {
+	private final static Logger LOGGER = Logger.getLogger(PlanCompiler.class.getName());
+
+	@FunctionalInterface
+	public interface GroupTask {
+		void run(List<CopyPlan> group) throws IOException, NdexException;
+	}
+
+	// server route and account -> network -> provenance record, empty if the network
+	// has none; keyed by account since what a request returns depends on who asks
+	private final Map<String, Map<UUID, Optional<ProvenanceRecord>>> provenance = new ConcurrentHashMap<>();
+	// target route and account -> networks found by a full scan
+	private final Map<String, List<NetworkRecord>> accountScans = new ConcurrentHashMap<>();
+
+	// Compile the plans group by group, in the order of their first plan, and run
+	// the task on each group once it is compiled
+	public void compile(List<CopyPlan> plans, GroupTask task) throws IOException, NdexException {
+		Map<String, List<CopyPlan>> groups = new LinkedHashMap<>();
+		for (CopyPlan plan : plans)
+			groups.computeIfAbsent(accountKey(plan.getTarget()), k -> new ArrayList<CopyPlan>()).add(plan);
+		for (List<CopyPlan> group : groups.values()) {
+			try {
+				compileGroup(group);
+				task.run(group);
+			} finally {
+				for (CopyPlan plan : group)
+					plan.releaseDiscovery();
+				provenance.clear();
+				accountScans.clear();
+			}
+		}
+	}
+
+	// Discover the plans of one target account with shared lookups, then drop
+	// duplicate network actions
+	private void compileGroup(List<CopyPlan> group) throws IOException, NdexException {
+		for (CopyPlan plan : group) {
+			LOGGER.info("Discovering copyPlan: " + plan.getPlanFileName());
+			plan.setCompiler(this);
+			plan.discover();
+		}
+		Map<String, CopyPlan> claimed = new HashMap<>();
+		int dropped = 0;
+		for (CopyPlan plan : group)
+			dropped += plan.dropClaimedNetworks(claimed);
+		LOGGER.info("Compiled " + group.size() + " plans into " + claimed.size() + " network actions"
+				+ (dropped > 0 ? ", " + dropped + " duplicates left to earlier plans" : ""));
+		findDeletions(group);
+	}
+
+	// A copy is only removed by a mirror plan if no plan of the session copies its
+	// source into the account any more, so the source sets of plans with the same
+	// source and target account are merged first
+	private void findDeletions(List<CopyPlan> plans) {
+		Map<String, Set<UUID>> wanted = new HashMap<>();
+		Set<String> incomplete = new HashSet<>();
+		for (CopyPlan plan : plans) {
+			wanted.computeIfAbsent(plan.mirrorKey(), k -> new HashSet<UUID>()).addAll(plan.sourceIds);
+			if (!plan.sourceSetComplete)
+				incomplete.add(plan.mirrorKey());
+		}
+		for (CopyPlan plan : plans)
+			plan.findDeletions(wanted.get(plan.mirrorKey()), !incomplete.contains(plan.mirrorKey()));
+	}
+
+	// Provenance already fetched from a server account, shared by all plans using it
+	Map<UUID, Optional<ProvenanceRecord>> getProvenance(NdexServer server) {
+		return provenance.computeIfAbsent(accountKey(server), r -> new ConcurrentHashMap<>());
+	}
+
+	// Result of an earlier full scan of the plan's target account, or null
+	List<NetworkRecord> getAccountScan(NdexServer target) {
+		List<NetworkRecord> scan = accountScans.get(accountKey(target));
+		return null == scan ? null : new ArrayList<>(scan);
+	}
+
+	void putAccountScan(NdexServer target, List<NetworkRecord> networks) {
+		accountScans.put(accountKey(target), new ArrayList<>(networks));
+	}
+
+	static String accountKey(NdexServer server) {
+		return server.getRoute() + "|" + server.getUsername();
+	}
+
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Latency of the networks a session changed on the target, per plan priority:
+// how long after the session started each network landed, and how long its
+// transfers waited for request permits on the servers.
+//
+public class PriorityLatency {
+
+	// priority, highest first -> {landed after millis, slot wait millis} per network
+	private final Map<Integer, List<long[]>> samples = new TreeMap<>(Collections.reverseOrder());
+
+	// Only networks that were copied, updated or deleted landed anything
+	public static boolean counts(String action) {
+		return NetworkTiming.ACTION_COPY.equals(action) || NetworkTiming.ACTION_UPDATE.equals(action)
+				|| NetworkTiming.ACTION_DELETE.equals(action);
+	}
+
+	public void add(int priority, long landedMillis, long slotWaitMillis) {
+		samples.computeIfAbsent(priority, p -> new ArrayList<long[]>()).add(new long[] { landedMillis, slotWaitMillis });
+	}
+
+	public List<Map<String, Object>> toReport() {
+		List<Map<String, Object>> result = new ArrayList<>(samples.size());
+		for (Map.Entry<Integer, List<long[]>> e : samples.entrySet()) {
+			List<long[]> networks = e.getValue();
+			long[] landed = new long[networks.size()];
+			long slotWait = 0;
+			for (int i = 0; i < landed.length; i++) {
+				landed[i] = networks.get(i)[0];
+				slotWait += networks.get(i)[1];
+			}
+			Arrays.sort(landed);
+			Map<String, Object> p = new LinkedHashMap<>();
+			p.put("priority", e.getKey());
+			p.put("networks", landed.length);
+			p.put("p50Millis", percentile(landed, 50));
+			p.put("p95Millis", percentile(landed, 95));
+			p.put("maxMillis", landed[landed.length - 1]);
+			p.put("meanSlotWaitMillis", slotWait / landed.length);
+			result.add(p);
+		}
+		return result;
+	}
+
+	public String format() {
+		StringBuilder sb = new StringBuilder("Latency by priority:");
+		for (Map<String, Object> p : toReport()) {
+			sb.append("\n  priority ").append(p.get("priority")).append(": ").append(p.get("networks"))
+					.append(" networks, landed p50 ").append(ProgressReporter.formatMillis((Long) p.get("p50Millis")))
+					.append(", p95 ").append(ProgressReporter.formatMillis((Long) p.get("p95Millis")))
+					.append(", max ").append(ProgressReporter.formatMillis((Long) p.get("maxMillis")))
+					.append(", mean slot wait ").append(ProgressReporter.formatMillis((Long) p.get("meanSlotWaitMillis")));
+		}
+		return sb.toString();
+	}
+
+	public boolean isEmpty() {
+		return samples.isEmpty();
+	}
+
+	// nearest-rank percentile of sorted values
+	static long percentile(long[] sorted, int percent) {
+		int rank = (int) Math.ceil(percent / 100.0 * sorted.length);
+		return sorted[Math.max(0, rank - 1)];
+	}
+
+}
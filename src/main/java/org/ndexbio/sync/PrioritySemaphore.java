@@ -0,0 +1,155 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Counting semaphore whose waiters are served by priority, highest first, and in
+// arrival order within a priority. A waiter at the head of the queue is not
+// overtaken by smaller requests behind it, so a high-priority transfer needing two
+// permits gets the next two that are released. Holders are never preempted.
+// Waiting uses a lock and conditions rather than monitors, so virtual threads
+// waiting here don't pin their carrier threads.
+//
+public final class PrioritySemaphore {
+
+	private static final Comparator<Waiter> ORDER = new Comparator<Waiter>() {
+		@Override
+		public int compare(Waiter a, Waiter b) {
+			if (a.priority != b.priority)
+				return Integer.compare(b.priority, a.priority);
+			return Long.compare(a.sequence, b.sequence);
+		}
+	};
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(ORDER);
+	private final int permits;
+	private int available;
+	private long sequence = 0;
+
+	public PrioritySemaphore(int permits) {
+		this.permits = permits;
+		this.available = permits;
+	}
+
+	// Number of permits the semaphore was created with
+	public int getPermits() {
+		return permits;
+	}
+
+	public void acquire(int permits, int priority) throws InterruptedException {
+		lock.lock();
+		try {
+			if (waiters.isEmpty() && available >= permits) {
+				available -= permits;
+				return;
+			}
+			Waiter waiter = new Waiter(permits, priority, sequence++, lock.newCondition());
+			waiters.add(waiter);
+			try {
+				while (!waiter.granted)
+					waiter.condition.await();
+			} catch (InterruptedException e) {
+				if (waiter.granted)
+					available += permits;
+				else
+					waiters.remove(waiter);
+				grant();
+				throw e;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Take permits only if they are free now and nobody is waiting for them
+	public boolean tryAcquire(int permits) {
+		lock.lock();
+		try {
+			if (!waiters.isEmpty() || available < permits)
+				return false;
+			available -= permits;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public void release(int permits) {
+		lock.lock();
+		try {
+			available += permits;
+			grant();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// Number of threads waiting for permits
+	public int getQueueLength() {
+		lock.lock();
+		try {
+			return waiters.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void grant() {
+		Waiter head;
+		while (null != (head = waiters.peek()) && available >= head.permits) {
+			waiters.poll();
+			available -= head.permits;
+			head.granted = true;
+			head.condition.signal();
+		}
+	}
+
+	private static class Waiter {
+		final int permits;
+		final int priority;
+		final long sequence;
+		final Condition condition;
+		boolean granted = false;
+
+		Waiter(int permits, int priority, long sequence, Condition condition) {
+			this.permits = permits;
+			this.priority = priority;
+			this.sequence = sequence;
+			this.condition = condition;
+		}
+	}
+
+}
@@ -0,0 +1,376 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+// Tracks progress of a copy session: networks done / total per plan and for the
+// whole session, bytes moved, transfers in flight and networks waiting for
+// validation. Prints a status line at a fixed interval and writes a JSON run
+// report with the per-network timings at the end. Only the newest MAX_TIMINGS
+// timings are kept, so a process that keeps syncing doesn't grow without bound.
+//
+public class ProgressReporter {
+	private final static Logger LOGGER = Logger.getLogger(ProgressReporter.class.getName());
+
+	static final int MAX_TIMINGS = 100000;
+
+	private final long sessionStart = System.currentTimeMillis();
+	private final Map<String, PlanCounters> plans = new LinkedHashMap<>();
+	private final ArrayDeque<NetworkTiming> networks = new ArrayDeque<>();
+	private long droppedTimings = 0;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger validating = new AtomicInteger();
+	private final AtomicLong bytesDown = new AtomicLong();
+	private final AtomicLong bytesUp = new AtomicLong();
+	private final AtomicLong bytesSaved = new AtomicLong();
+
+	private ScheduledExecutorService printer;
+	private long lastPrintTime = sessionStart;
+	private long lastBytesDown = 0;
+	private long lastBytesUp = 0;
+	private volatile String failure;
+	private volatile String session;
+
+	// Start printing status lines every intervalSeconds. A non-positive interval disables printing.
+	public synchronized void start(long intervalSeconds) {
+		if (intervalSeconds <= 0 || printer != null)
+			return;
+		printer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ndex-sync-progress");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		printer.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				printStatus();
+			}
+		}, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+	}
+
+	public synchronized void stop() {
+		if (printer != null) {
+			printer.shutdownNow();
+			printer = null;
+		}
+	}
+
+	public synchronized void planStarted(String plan, int networkCount) {
+		PlanCounters counters = plans.get(plan);
+		if (counters == null) {
+			counters = new PlanCounters();
+			plans.put(plan, counters);
+		}
+		counters.total.addAndGet(networkCount);
+		counters.start = System.currentTimeMillis();
+		counters.end = 0;
+	}
+
+	public synchronized void planFinished(String plan) {
+		PlanCounters counters = plans.get(plan);
+		if (counters != null)
+			counters.end = System.currentTimeMillis();
+	}
+
+	public NetworkTiming networkStarted(String plan, UUID sourceId) {
+		NetworkTiming timing = new NetworkTiming(plan, sourceId);
+		synchronized (this) {
+			if (networks.size() >= MAX_TIMINGS) {
+				networks.removeFirst();
+				droppedTimings++;
+			}
+			networks.add(timing);
+		}
+		return timing;
+	}
+
+	public void networkFinished(NetworkTiming timing) {
+		timing.finished();
+		PlanCounters counters = getCounters(timing.getPlan());
+		if (counters != null)
+			counters.done.incrementAndGet();
+	}
+
+	public void transferStarted(NetworkTiming timing) {
+		inFlight.incrementAndGet();
+		timing.transferStarted();
+	}
+
+	public void transferFinished(NetworkTiming timing) {
+		timing.transferFinished();
+		inFlight.decrementAndGet();
+	}
+
+	public void validationStarted(NetworkTiming timing) {
+		validating.incrementAndGet();
+		timing.validationStarted();
+	}
+
+	public void validationFinished(NetworkTiming timing) {
+		timing.validationFinished();
+		validating.decrementAndGet();
+	}
+
+	// Wrap a CX stream read from the source server so its bytes are counted as downloaded
+	public InputStream countDownload(InputStream in, final NetworkTiming timing) {
+		return new CountingInputStream(in) {
+			@Override
+			void count(long n) {
+				bytesDown.addAndGet(n);
+				timing.addBytesDown(n);
+			}
+		};
+	}
+
+	// Wrap a CX stream handed to the target server so its bytes are counted as uploaded
+	public InputStream countUpload(InputStream in, final NetworkTiming timing) {
+		return new CountingInputStream(in) {
+			@Override
+			void count(long n) {
+				bytesUp.addAndGet(n);
+				timing.addBytesUp(n);
+			}
+		};
+	}
+
+	// Count source CX bytes the aspect filter dropped
+	public void countSaved(NetworkTiming timing, long n) {
+		bytesSaved.addAndGet(n);
+		timing.addBytesSaved(n);
+	}
+
+	private synchronized PlanCounters getCounters(String plan) {
+		return plans.get(plan);
+	}
+
+	public void printStatus() {
+		LOGGER.info(formatStatus());
+	}
+
+	synchronized String formatStatus() {
+		long now = System.currentTimeMillis();
+		double seconds = Math.max(1, now - lastPrintTime) / 1000.0;
+		long down = bytesDown.get();
+		long up = bytesUp.get();
+		StringBuilder sb = new StringBuilder();
+
+		int sessionTotal = 0;
+		int sessionDone = 0;
+		for (Map.Entry<String, PlanCounters> e : plans.entrySet()) {
+			PlanCounters c = e.getValue();
+			int total = c.total.get();
+			int done = c.done.get();
+			sessionTotal += total;
+			sessionDone += done;
+			if (c.end == 0) {
+				sb.append("\n  plan ").append(e.getKey()).append(": ").append(done).append('/').append(total)
+						.append(" networks, ETA ").append(formatEta(now - c.start, done, total));
+			}
+		}
+		sb.insert(0, "Session: " + sessionDone + "/" + sessionTotal + " networks"
+				+ ", down " + formatBytes((long) ((down - lastBytesDown) / seconds)) + "/s"
+				+ ", up " + formatBytes((long) ((up - lastBytesUp) / seconds)) + "/s"
+				+ ", in flight " + inFlight.get()
+				+ ", validating " + validating.get()
+				+ ", ETA " + formatEta(now - sessionStart, sessionDone, sessionTotal));
+
+		lastPrintTime = now;
+		lastBytesDown = down;
+		lastBytesUp = up;
+		return sb.toString();
+	}
+
+	// Record the error that ended the run early, for the run report
+	public void setFailure(String failure) {
+		this.failure = failure;
+	}
+
+	// Record the sharded session the run report belongs to
+	public void setSession(String session) {
+		this.session = session;
+	}
+
+	// Write the run report as JSON
+	public void writeReport(File file) throws IOException {
+		Map<String, Object> report = new LinkedHashMap<>();
+		List<NetworkTiming> snapshot;
+		List<Map<String, Object>> planList = new ArrayList<>();
+		long dropped;
+		synchronized (this) {
+			snapshot = new ArrayList<>(networks);
+			dropped = droppedTimings;
+			for (Map.Entry<String, PlanCounters> e : plans.entrySet()) {
+				Map<String, Object> p = new LinkedHashMap<>();
+				p.put("plan", e.getKey());
+				p.put("networks", e.getValue().total.get());
+				p.put("done", e.getValue().done.get());
+				p.put("millis", (e.getValue().end == 0 ? System.currentTimeMillis() : e.getValue().end) - e.getValue().start);
+				planList.add(p);
+			}
+		}
+		if (null != session)
+			report.put("session", session);
+		report.put("startTime", sessionStart);
+		report.put("endTime", System.currentTimeMillis());
+		if (null != failure)
+			report.put("failed", failure);
+		report.put("bytesDown", bytesDown.get());
+		report.put("bytesUp", bytesUp.get());
+		report.put("bytesSaved", bytesSaved.get());
+		report.put("plans", planList);
+		report.put("priorities", latencies(snapshot).toReport());
+		report.put("verification", verification(snapshot).toReport());
+		if (dropped > 0)
+			report.put("networksDropped", dropped);
+		report.put("networks", snapshot);
+		new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, report);
+		LOGGER.info("Wrote run report to " + file.getPath());
+	}
+
+	// Per-priority latency of the networks this session changed on the target, and
+	// the results of the checks of their copies
+	public void printLatencies() {
+		List<NetworkTiming> snapshot;
+		synchronized (this) {
+			snapshot = new ArrayList<>(networks);
+		}
+		PriorityLatency latencies = latencies(snapshot);
+		if (!latencies.isEmpty())
+			LOGGER.info(latencies.format());
+		VerificationSummary verification = verification(snapshot);
+		if (!verification.isEmpty())
+			LOGGER.info(verification.format());
+	}
+
+	private static VerificationSummary verification(List<NetworkTiming> timings) {
+		VerificationSummary summary = new VerificationSummary();
+		for (NetworkTiming timing : timings)
+			summary.add(timing.getPlan(), timing.getCorrelationId(), String.valueOf(timing.getSourceId()),
+					String.valueOf(timing.getTargetId()), timing.getVerification(), timing.getMismatch());
+		return summary;
+	}
+
+	private PriorityLatency latencies(List<NetworkTiming> timings) {
+		PriorityLatency latencies = new PriorityLatency();
+		for (NetworkTiming timing : timings) {
+			if (timing.isFinished() && PriorityLatency.counts(timing.getAction()))
+				latencies.add(timing.getPriority(), timing.getStartTime() + timing.getTotalMillis() - sessionStart,
+						timing.getSlotWaitMillis());
+		}
+		return latencies;
+	}
+
+	static String formatEta(long elapsedMillis, int done, int total) {
+		if (done == 0)
+			return "unknown";
+		long remaining = elapsedMillis * (total - done) / done / 1000;
+		return String.format("%d:%02d:%02d", remaining / 3600, (remaining / 60) % 60, remaining % 60);
+	}
+
+	static String formatMillis(long millis) {
+		return String.format("%.1f s", millis / 1000.0);
+	}
+
+	static String formatBytes(long bytes) {
+		if (bytes < 1024)
+			return bytes + " B";
+		if (bytes < 1024 * 1024)
+			return String.format("%.1f KB", bytes / 1024.0);
+		if (bytes < 1024L * 1024 * 1024)
+			return String.format("%.1f MB", bytes / (1024.0 * 1024));
+		return String.format("%.2f GB", bytes / (1024.0 * 1024 * 1024));
+	}
+
+	private static class PlanCounters {
+		final AtomicInteger total = new AtomicInteger();
+		final AtomicInteger done = new AtomicInteger();
+		long start;
+		long end;
+	}
+
+	private abstract static class CountingInputStream extends FilterInputStream {
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		abstract void count(long n);
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				count(1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count(n);
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			if (skipped > 0)
+				count(skipped);
+			return skipped;
+		}
+	}
+
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.ndexbio.model.object.NdexProvenanceEventType;
+import org.ndexbio.model.object.ProvenanceEntity;
+import org.ndexbio.model.object.ProvenanceEvent;
+import org.ndexbio.model.object.SimplePropertyValuePair;
+
+// Bounds the provenance history of networks that are synced again and again.
+// Each copy wraps the source's history in a new sync copy event, so a network
+// copied along a chain of servers, or from a source that is itself refreshed by
+// a sync, gets a history that grows with every run. Compaction keeps the first
+// few sync copy events of each run of consecutive ones and collapses the rest
+// into one event. That event keeps the URI and properties of the entity it
+// replaces, the origin the run of copies started from (with its own history,
+// compacted the same way), the start of the oldest and the end of the newest
+// copy it stands for, and their number. An event compacted by an earlier run is
+// part of the run it is found in, so compacting again after each copy doesn't
+// nest summaries: the new one adds the old one's count and takes over its origin.
+//
+public final class ProvenanceCompactor {
+
+	public static final String COMPACTED_COPIES = "Compacted Sync Copies";
+	public static final String COPY_EVENTS_PROPERTY = "ndex:syncCopyEvents";
+
+	private ProvenanceCompactor() {
+	}
+
+	// Compact the history in place, keeping up to keep sync copy events at the
+	// head of each run of them; returns the root, which may be a new entity
+	public static ProvenanceEntity compact(ProvenanceEntity entity, int keep) {
+		if (null == entity)
+			return null;
+		ProvenanceEntity head = null;
+		ProvenanceEntity current = entity;
+		for (int kept = 0; kept < keep && isSyncCopy(current); kept++) {
+			ProvenanceEntity input = onlyInput(current);
+			if (null == input)
+				return entity;
+			head = current;
+			current = input;
+		}
+		ProvenanceEntity compacted = isInRun(current) ? collapse(current, keep) : compactInputs(current, keep);
+		if (null == head)
+			return compacted;
+		List<ProvenanceEntity> inputs = new ArrayList<>(1);
+		inputs.add(compacted);
+		head.getCreationEvent().setInputs(inputs);
+		return entity;
+	}
+
+	// Replace the run of sync copies, and of earlier summaries of such runs,
+	// starting at first with one entity
+	private static ProvenanceEntity collapse(ProvenanceEntity first, int keep) {
+		long copies = 0;
+		Date started = null;
+		Date ended = null;
+		ProvenanceEntity origin = first;
+		while (null != origin && isInRun(origin)) {
+			ProvenanceEvent event = origin.getCreationEvent();
+			copies += isSyncCopy(origin) ? 1 : copyEvents(event);
+			started = earlier(started, null == event.getStartedAtTime() ? event.getEndedAtTime() : event.getStartedAtTime());
+			ended = later(ended, event.getEndedAtTime());
+			origin = onlyInput(origin);
+		}
+		if (copies < 2 && isSyncCopy(first))
+			return null == origin ? first : replaceInput(first, compact(origin, keep));
+		ProvenanceEvent summary = new ProvenanceEvent(COMPACTED_COPIES, ended);
+		summary.setStartedAtTime(started);
+		List<SimplePropertyValuePair> properties = new ArrayList<>(1);
+		properties.add(new SimplePropertyValuePair(COPY_EVENTS_PROPERTY, String.valueOf(copies)));
+		summary.setProperties(properties);
+		if (null != origin)
+			summary.addInput(compact(origin, keep));
+		ProvenanceEntity compacted = new ProvenanceEntity();
+		compacted.setUri(first.getUri());
+		compacted.setProperties(first.getProperties());
+		compacted.setCreationEvent(summary);
+		return compacted;
+	}
+
+	// Compact the histories of all inputs of an entity that is not a sync copy
+	private static ProvenanceEntity compactInputs(ProvenanceEntity entity, int keep) {
+		ProvenanceEvent event = entity.getCreationEvent();
+		if (null == event || null == event.getInputs())
+			return entity;
+		List<ProvenanceEntity> inputs = new ArrayList<>(event.getInputs().size());
+		for (ProvenanceEntity input : event.getInputs())
+			inputs.add(compact(input, keep));
+		event.setInputs(inputs);
+		return entity;
+	}
+
+	private static ProvenanceEntity replaceInput(ProvenanceEntity entity, ProvenanceEntity input) {
+		List<ProvenanceEntity> inputs = new ArrayList<>(1);
+		inputs.add(input);
+		entity.getCreationEvent().setInputs(inputs);
+		return entity;
+	}
+
+	private static boolean isSyncCopy(ProvenanceEntity entity) {
+		ProvenanceEvent event = entity.getCreationEvent();
+		return null != event && NdexProvenanceEventType.SNYC_COPY.equalsIgnoreCase(event.getEventType());
+	}
+
+	private static boolean isCompacted(ProvenanceEntity entity) {
+		ProvenanceEvent event = entity.getCreationEvent();
+		return null != event && COMPACTED_COPIES.equals(event.getEventType());
+	}
+
+	private static boolean isInRun(ProvenanceEntity entity) {
+		return isSyncCopy(entity) || isCompacted(entity);
+	}
+
+	// The number of copies a compacted event stands for; one if it doesn't say
+	private static long copyEvents(ProvenanceEvent event) {
+		if (null != event.getProperties()) {
+			for (SimplePropertyValuePair property : event.getProperties()) {
+				if (COPY_EVENTS_PROPERTY.equals(property.getName())) {
+					try {
+						return Math.max(1, Long.parseLong(property.getValue()));
+					} catch (NumberFormatException e) {
+						return 1;
+					}
+				}
+			}
+		}
+		return 1;
+	}
+
+	private static ProvenanceEntity onlyInput(ProvenanceEntity entity) {
+		List<ProvenanceEntity> inputs = entity.getCreationEvent().getInputs();
+		return null == inputs || inputs.isEmpty() ? null : inputs.get(0);
+	}
+
+	private static Date earlier(Date a, Date b) {
+		return null == a || (null != b && b.before(a)) ? b : a;
+	}
+
+	private static Date later(Date a, Date b) {
+		return null == a || (null != b && b.after(a)) ? b : a;
+	}
+
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.ndexbio.model.object.NdexProvenanceEventType;
+import org.ndexbio.model.object.ProvenanceEntity;
+import org.ndexbio.model.object.ProvenanceEvent;
+import org.ndexbio.model.object.SimplePropertyValuePair;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Compact projection of a network's provenance history. Matching only looks at
+// the root entity's URI, its creation event (type, end time, first input) and
+// the pav:retrievedFrom property, so the rest of the tree is dropped as soon as
+// the record is built. Records of source networks also keep the whole history,
+// serialized and deflated, since a copy's provenance wraps it: far smaller than
+// the object tree, and no second request when the network is copied.
+//
+public final class ProvenanceRecord {
+
+	public static final long NO_TIME = Long.MIN_VALUE;
+
+	private static final ObjectMapper MAPPER = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	private final String uri;
+	private final boolean hasCreationEvent;
+	private final boolean syncCopy;
+	private final long eventEndedAt;
+	private final String inputUri;
+	private final boolean hasRetrievedFrom;
+	private final UUID retrievedFrom;
+	private final byte[] history;
+
+	@JsonCreator
+	private ProvenanceRecord(@JsonProperty("uri") String uri, @JsonProperty("hasCreationEvent") boolean hasCreationEvent,
+			@JsonProperty("syncCopy") boolean syncCopy, @JsonProperty("eventEndedAt") long eventEndedAt,
+			@JsonProperty("inputUri") String inputUri, @JsonProperty("hasRetrievedFrom") boolean hasRetrievedFrom,
+			@JsonProperty("retrievedFrom") UUID retrievedFrom, @JsonProperty("history") byte[] history) {
+		this.uri = uri;
+		this.hasCreationEvent = hasCreationEvent;
+		this.syncCopy = syncCopy;
+		this.eventEndedAt = eventEndedAt;
+		this.inputUri = inputUri;
+		this.hasRetrievedFrom = hasRetrievedFrom;
+		this.retrievedFrom = retrievedFrom;
+		this.history = history;
+	}
+
+	public static ProvenanceRecord of(ProvenanceEntity entity) {
+		return of(entity, false);
+	}
+
+	// With keepHistory, the record also holds the whole history for readHistory()
+	public static ProvenanceRecord of(ProvenanceEntity entity, boolean keepHistory) {
+		ProvenanceEvent event = entity.getCreationEvent();
+		boolean syncCopy = false;
+		long endedAt = NO_TIME;
+		String inputUri = null;
+		if (event != null) {
+			syncCopy = NdexProvenanceEventType.SNYC_COPY.equalsIgnoreCase(event.getEventType());
+			if (event.getEndedAtTime() != null)
+				endedAt = event.getEndedAtTime().getTime();
+			List<ProvenanceEntity> inputs = event.getInputs();
+			if (inputs != null && inputs.size() > 0)
+				inputUri = inputs.get(0).getUri();
+		}
+		String retrievedFrom = getRetrievedFrom(entity.getProperties());
+		return new ProvenanceRecord(entity.getUri(), event != null, syncCopy, endedAt, inputUri,
+				retrievedFrom != null, parseNetworkId(retrievedFrom), keepHistory ? deflate(entity) : null);
+	}
+
+	private static byte[] deflate(ProvenanceEntity entity) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+		try (DeflaterOutputStream out = new DeflaterOutputStream(bytes)) {
+			MAPPER.writeValue(out, entity);
+		} catch (IOException e) {
+			// can't happen writing to memory; the copy then gets a history without the source's
+			return null;
+		}
+		return bytes.toByteArray();
+	}
+
+	// True if the record holds the whole history
+	@JsonIgnore
+	public boolean hasHistory() {
+		return history != null;
+	}
+
+	// The whole provenance history the record was made from, or null if it wasn't kept
+	public ProvenanceEntity readHistory() throws IOException {
+		if (history == null)
+			return null;
+		try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(history))) {
+			return MAPPER.readValue(in, ProvenanceEntity.class);
+		}
+	}
+
+	// Serialized form for shard files
+	@JsonProperty("history")
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	byte[] getHistoryBytes() {
+		return history;
+	}
+
+	public String getUri() {
+		return uri;
+	}
+
+	@JsonProperty("hasCreationEvent")
+	public boolean hasCreationEvent() {
+		return hasCreationEvent;
+	}
+
+	// true if the creation event (the most recent event) is a sync copy
+	@JsonProperty("syncCopy")
+	public boolean isSyncCopy() {
+		return syncCopy;
+	}
+
+	public long getEventEndedAt() {
+		return eventEndedAt;
+	}
+
+	public String getInputUri() {
+		return inputUri;
+	}
+
+	@JsonProperty("hasRetrievedFrom")
+	public boolean hasRetrievedFrom() {
+		return hasRetrievedFrom;
+	}
+
+	// UUID of the network this one was copied from, or null if pav:retrievedFrom
+	// is missing or doesn't end with a UUID
+	public UUID getRetrievedFrom() {
+		return retrievedFrom;
+	}
+
+	private static String getRetrievedFrom(List<SimplePropertyValuePair> properties) {
+		if (properties == null)
+			return null;
+		for (SimplePropertyValuePair p : properties) {
+			if ("pav:retrievedFrom".equals(p.getName()))
+				return p.getValue();
+		}
+		return null;
+	}
+
+	// pav:retrievedFrom holds either a bare UUID or a URI whose last path segment is the UUID
+	static UUID parseNetworkId(String value) {
+		if (value == null)
+			return null;
+		String candidate = value;
+		try {
+			String path = new URI(value).getPath();
+			if (path != null) {
+				String[] segments = path.split("/");
+				if (segments.length > 0)
+					candidate = segments[segments.length - 1];
+			}
+		} catch (URISyntaxException e) {
+			// not a URI, try it as a plain UUID
+		}
+		try {
+			return UUID.fromString(candidate);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+}
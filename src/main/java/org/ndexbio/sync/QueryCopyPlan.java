@@ -31,8 +31,11 @@
 package org.ndexbio.sync;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.logging.Level;
 
 import org.ndexbio.model.exceptions.NdexException;
+import org.ndexbio.model.object.network.NetworkSummary;
 
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
@@ -53,23 +56,54 @@ public class QueryCopyPlan extends CopyPlan {
 
 	@Override
 	public void findSourceNetworks() throws NdexException{
-		System.out.println("finding up to " + queryLimit 
+		LOGGER.info("finding up to " + queryLimit 
 				+ " source networks by query '" + queryString + "' with accountName " + queryAccountName);
 		try {
 		//	Permissions permissions = Permissions.WRITE;
 	//		if( queryAccountName != null )
 	//			permissions = null;
-			sourceNetworks = this.source.ndex.findNetworks(queryString, queryAccountName, null, false, 0, queryLimit).getNetworks();
+			sourceNetworks = toRecords(this.source.findNetworks(queryString, queryAccountName, 0, queryLimit));
 			LOGGER.info("Found " + sourceNetworks.size() + " networks");
+			if (sourceNetworks.size() >= queryLimit) {
+				// more networks may match than were returned
+				LOGGER.warning("Query returned queryLimit " + queryLimit + " networks, the source set may be incomplete");
+				sourceSetComplete = false;
+			}
 		} catch (IOException e) {
-			LOGGER.severe("Error while finding source networks: " + e.getMessage());
-			e.printStackTrace();
+			sourceSetComplete = false;
+			LOGGER.log(Level.SEVERE, "Error while finding source networks: " + e.getMessage(), e);
 		}
 		
 	}
 
 
 
+	// Owned by queryAccountName, if set, and among the networks the query returns
+	@Override
+	public boolean selects(NetworkSummary network) throws NdexException, IOException {
+		if (null != queryAccountName && !queryAccountName.equalsIgnoreCase(network.getOwner()))
+			return false;
+		for (NetworkSummary found : source.findNetworks(queryString, queryAccountName, 0, queryLimit)) {
+			if (network.getExternalId().equals(found.getExternalId()))
+				return true;
+		}
+		return false;
+	}
+
+
+
+	@Override
+	public List<String> validate() {
+		List<String> problems = super.validate();
+		if (null == queryString)
+			problems.add("no queryString");
+		if (queryLimit <= 0)
+			problems.add("queryLimit must be positive");
+		return problems;
+	}
+
+
+
 	public String getQueryAccountName() {
 		return queryAccountName;
 	}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+// Limits the rate CX bytes are read at, shared by all streams throttled by it.
+// Each read reserves the time its bytes take at the current rate, after the
+// reservations already made, and sleeps until then outside any lock. Reads are
+// cut to small chunks, so concurrent transfers take turns and share the rate
+// evenly; a transfer never waits for more than one chunk of another.
+//
+public final class RateLimiter {
+	private final static Logger LOGGER = Logger.getLogger(RateLimiter.class.getName());
+
+	private static final int CHUNK_SIZE = 32 * 1024;
+
+	private final String name;
+	private final BandwidthProfile profile;
+	private long nextFree = 0;
+	private long lastRate = -1;
+
+	public RateLimiter(String name, BandwidthProfile profile) {
+		this.name = name;
+		this.profile = profile;
+	}
+
+	// Wrap a stream so reading it takes permission from each of the limiters; null
+	// limiters are skipped, and the stream is returned as is if none is left
+	public static InputStream throttle(InputStream in, RateLimiter... limiters) {
+		List<RateLimiter> active = new ArrayList<>(limiters.length);
+		for (RateLimiter limiter : limiters) {
+			if (null != limiter)
+				active.add(limiter);
+		}
+		return active.isEmpty() ? in : new ThrottledInputStream(in, active.toArray(new RateLimiter[0]));
+	}
+
+	// Wait until bytes fit in the current rate
+	public void acquire(int bytes) throws InterruptedIOException {
+		long wait;
+		synchronized (this) {
+			long rate = profile.getRate(LocalTime.now());
+			if (rate != lastRate) {
+				LOGGER.info("Bandwidth for " + name + " is now " + (rate > 0 ? ProgressReporter.formatBytes(rate) + "/s" : "unlimited"));
+				lastRate = rate;
+			}
+			if (rate <= 0)
+				return;
+			long now = System.nanoTime();
+			// no credit for time the limiter was idle
+			long start = Math.max(nextFree, now);
+			nextFree = start + bytes * 1_000_000_000L / rate;
+			wait = start - now;
+		}
+		if (wait <= 0)
+			return;
+		try {
+			Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while throttled by " + name);
+		}
+	}
+
+	private static class ThrottledInputStream extends FilterInputStream {
+		private final RateLimiter[] limiters;
+
+		ThrottledInputStream(InputStream in, RateLimiter[] limiters) {
+			super(in);
+			this.limiters = limiters;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, Math.min(len, CHUNK_SIZE));
+			if (n > 0) {
+				for (RateLimiter limiter : limiters)
+					limiter.acquire(n);
+			}
+			return n;
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			byte[] buffer = new byte[(int) Math.min(n, CHUNK_SIZE)];
+			int read = read(buffer, 0, buffer.length);
+			return Math.max(0, read);
+		}
+	}
+
+}
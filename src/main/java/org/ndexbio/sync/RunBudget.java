@@ -0,0 +1,205 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+// Limits for a copy session: a wall-clock deadline, the number of CX bytes moved
+// and the number of networks copied or updated. Before a transfer starts the plan
+// asks the budget to admit it. The budget estimates the network's size from its
+// edge count and its duration from the throughput of the transfers done so far,
+// and only admits work expected to finish within what is left. Networks not
+// admitted are deferred to the next run; transfers already running are never cut off.
+//
+public class RunBudget {
+	private final static Logger LOGGER = Logger.getLogger(RunBudget.class.getName());
+
+	// assumptions until the first transfers finish
+	private static final long DEFAULT_BYTES_PER_EDGE = 150;
+	private static final long DEFAULT_NETWORK_BYTES = 1024 * 1024;
+	private static final long DEFAULT_BYTES_PER_MILLI = 1024;
+	private static final long DEFAULT_OVERHEAD_MILLIS = 10000;
+	// margin on the duration estimate before it is held against the deadline
+	private static final double SAFETY_FACTOR = 1.5;
+
+	private long deadline = 0;
+	private long maxBytes = 0;
+	private int maxNetworks = 0;
+
+	private int networksStarted = 0;
+	private long bytesUsed = 0;
+	private long bytesReserved = 0;
+	private final Map<NetworkTiming, Reservation> reservations = new HashMap<>();
+	private int deferred = 0;
+	private String exhausted;
+
+	// completed transfers, for the estimates
+	private long doneNetworks = 0;
+	private long doneBytes = 0;
+	private long doneEdges = 0;
+	private long doneTransferMillis = 0;
+	private long doneOverheadMillis = 0;
+
+	public boolean isLimited() {
+		return deadline > 0 || maxBytes > 0 || maxNetworks > 0;
+	}
+
+	// Admit the transfer of a network, or return false if it is expected to exceed the budget
+	public synchronized boolean admit(NetworkRecord network, NetworkTiming timing) {
+		long bytes = estimateBytes(network);
+		String refusal = null;
+		if (maxNetworks > 0 && networksStarted >= maxNetworks) {
+			refusal = "network limit of " + maxNetworks + " reached";
+		} else if (maxBytes > 0 && bytesUsed + bytesReserved + bytes > maxBytes) {
+			refusal = "byte limit of " + ProgressReporter.formatBytes(maxBytes) + " would be exceeded";
+		} else if (deadline > 0 && System.currentTimeMillis() + (long) (estimateMillis(bytes) * SAFETY_FACTOR) > deadline) {
+			refusal = "not expected to finish before the deadline";
+		}
+		if (null != refusal) {
+			deferred++;
+			if (null == exhausted) {
+				exhausted = refusal;
+				LOGGER.warning("Run budget exhausted (" + refusal + "), deferring remaining networks to the next run");
+			}
+			LOGGER.info("Deferring network " + network.getExternalId() + ": " + refusal);
+			return false;
+		}
+		networksStarted++;
+		bytesReserved += bytes;
+		reservations.put(timing, new Reservation(bytes, network.getEdgeCount()));
+		return true;
+	}
+
+	// Account for a network admitted before, once its work is done
+	public synchronized void finished(NetworkTiming timing) {
+		Reservation reservation = reservations.remove(timing);
+		if (null == reservation)
+			return;
+		bytesReserved -= reservation.bytes;
+		bytesUsed += timing.getBytesDown();
+		if (null == timing.getError() && timing.getBytesDown() > 0 && timing.getTransferMillis() > 0) {
+			doneNetworks++;
+			doneBytes += timing.getBytesDown();
+			doneEdges += reservation.edges;
+			doneTransferMillis += timing.getTransferMillis();
+			doneOverheadMillis += Math.max(0, timing.getTotalMillis() - timing.getTransferMillis());
+		}
+	}
+
+	// Expected CX size of a network, from the transfers done so far
+	public synchronized long estimate(NetworkRecord network) {
+		return estimateBytes(network);
+	}
+
+	// Expected CX size of a network before any transfer was measured
+	public static long roughEstimate(NetworkRecord network) {
+		return network.getEdgeCount() > 0 ? network.getEdgeCount() * DEFAULT_BYTES_PER_EDGE : DEFAULT_NETWORK_BYTES;
+	}
+
+	private long estimateBytes(NetworkRecord network) {
+		if (network.getEdgeCount() > 0)
+			return network.getEdgeCount() * (doneEdges > 0 ? Math.max(1, doneBytes / doneEdges) : DEFAULT_BYTES_PER_EDGE);
+		return doneNetworks > 0 ? doneBytes / doneNetworks : DEFAULT_NETWORK_BYTES;
+	}
+
+	private long estimateMillis(long bytes) {
+		long bytesPerMilli = doneTransferMillis > 0 ? Math.max(1, doneBytes / doneTransferMillis) : DEFAULT_BYTES_PER_MILLI;
+		long overhead = doneNetworks > 0 ? doneOverheadMillis / doneNetworks : DEFAULT_OVERHEAD_MILLIS;
+		return bytes / bytesPerMilli + overhead;
+	}
+
+	public synchronized int getDeferred() {
+		return deferred;
+	}
+
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	public void setMaxBytes(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	public void setMaxNetworks(int maxNetworks) {
+		this.maxNetworks = maxNetworks;
+	}
+
+	// "HH:mm" for the next time the clock shows that time, or a local date and time "yyyy-MM-ddTHH:mm"
+	public static long parseDeadline(String value) {
+		try {
+			LocalDateTime deadline;
+			if (value.contains("T")) {
+				deadline = LocalDateTime.parse(value);
+			} else {
+				LocalTime time = LocalTime.parse(value);
+				deadline = LocalDate.now().atTime(time);
+				if (!deadline.isAfter(LocalDateTime.now()))
+					deadline = deadline.plusDays(1);
+			}
+			return deadline.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("Invalid deadline " + value + ", expected HH:mm or yyyy-MM-ddTHH:mm");
+		}
+	}
+
+	// A byte count with an optional K, M or G suffix
+	public static long parseBytes(String value) {
+		String v = value.trim().toUpperCase();
+		long unit = 1;
+		if (v.endsWith("K") || v.endsWith("M") || v.endsWith("G")) {
+			unit = v.endsWith("K") ? 1024L : v.endsWith("M") ? 1024L * 1024 : 1024L * 1024 * 1024;
+			v = v.substring(0, v.length() - 1);
+		}
+		try {
+			return Long.parseLong(v) * unit;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid byte count " + value);
+		}
+	}
+
+	private static class Reservation {
+		final long bytes;
+		final long edges;
+
+		Reservation(long bytes, long edges) {
+			this.bytes = bytes;
+			this.edges = edges;
+		}
+	}
+
+}
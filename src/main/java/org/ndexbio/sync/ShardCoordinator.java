@@ -0,0 +1,287 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.ndexbio.model.exceptions.NdexException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+// Splits a copy session across worker processes that share a directory.
+// The coordinator compiles the plans (see PlanCompiler) and partitions the resulting
+// network actions into shards by source network UUID. Workers (see ShardWorker)
+// claim the shards through lease files and leave a run report and the copies
+// they made next to each shard; the coordinator merges those when all are done.
+//
+// Every session gets an id, which its shard files and shard reports carry, so
+// neither a worker nor the coordinator mistakes files of an earlier session, e.g.
+// one a worker of that session finished late, for the current session's. The
+// coordinator marks the session finished once it has merged the results; workers
+// not given a session id wait for a session that isn't finished.
+//
+// Files in the shard directory:
+//   session.json               session id, shard count and creation time, written once
+//                              all shard files are in place; later marked finished
+//   shard-NNN.json             the session id and network actions of a shard
+//   shard-NNN.lease            lease of the worker running the shard
+//   shard-NNN.report.json      run report of a finished or failed shard, with the session id
+//   shard-NNN.<plan>.mapping   copies made by the shard for plans with a copy mapping
+//   shard-NNN.<plan>.deferred  networks of the plan the shard deferred to the next run
+//
+public class ShardCoordinator {
+	private final static Logger LOGGER = Logger.getLogger(ShardCoordinator.class.getName());
+
+	static final String SESSION_FILE = "session.json";
+	static final String SESSION = "session";
+
+	private final File directory;
+	private final int shardCount;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final String sessionId = UUID.randomUUID().toString();
+	private final Map<String, Object> session = new LinkedHashMap<>();
+
+	public ShardCoordinator(File directory, int shardCount) {
+		this.directory = directory;
+		this.shardCount = shardCount;
+	}
+
+	static String shardName(int shard) {
+		return String.format("shard-%03d", shard);
+	}
+
+	static File shardFile(File directory, String shard) {
+		return new File(directory, shard + ".json");
+	}
+
+	static File reportFile(File directory, String shard) {
+		return new File(directory, shard + ".report.json");
+	}
+
+	static File mappingFile(File directory, String shard, String plan) {
+		return new File(directory, shard + "." + plan.replaceFirst("\\.json$", "") + ".mapping");
+	}
+
+	static File deferredFile(File directory, String shard, String plan) {
+		return new File(directory, shard + "." + plan.replaceFirst("\\.json$", "") + ".deferred");
+	}
+
+	// Whether the shard has a report written in the given session
+	static boolean hasReport(ObjectMapper mapper, File directory, String shard, String sessionId) throws IOException {
+		File report = reportFile(directory, shard);
+		if (!report.isFile())
+			return false;
+		if (sessionId.equals(mapper.readTree(report).path(SESSION).asText()))
+			return true;
+		LOGGER.warning("Ignoring " + report.getName() + " of an earlier session");
+		return false;
+	}
+
+	// Write to a temporary file first, so readers never see a partial file
+	static void writeAtomically(ObjectMapper mapper, File file, Object value) throws IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		mapper.writeValue(tmp, value);
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// Run discovery for all plans and write their network actions to the shard files
+	public void distribute(List<CopyPlan> plans) throws IOException, NdexException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Unable to create shard directory " + directory);
+		clearPreviousSession();
+
+		List<List<NetworkAction>> shards = new ArrayList<>(shardCount);
+		for (int i = 0; i < shardCount; i++)
+			shards.add(new ArrayList<NetworkAction>());
+		new PlanCompiler().compile(plans, group -> {
+			for (CopyPlan plan : group) {
+				for (NetworkAction action : plan.getNetworkActions()) {
+					int shard = Math.floorMod(action.getSource().getExternalId().hashCode(), shardCount);
+					shards.get(shard).add(action);
+				}
+			}
+		});
+
+		for (int i = 0; i < shardCount; i++) {
+			Map<String, Object> shard = new LinkedHashMap<>();
+			shard.put(SESSION, sessionId);
+			shard.put("actions", shards.get(i));
+			writeAtomically(mapper, shardFile(directory, shardName(i)), shard);
+			LOGGER.info("Shard " + shardName(i) + ": " + shards.get(i).size() + " networks");
+		}
+		session.put(SESSION, sessionId);
+		session.put("shards", shardCount);
+		session.put("created", System.currentTimeMillis());
+		writeAtomically(mapper, new File(directory, SESSION_FILE), session);
+		LOGGER.info("Session " + sessionId + " ready in " + directory);
+	}
+
+	// Mark the session finished, so workers started without a session id don't join it
+	public void finish() throws IOException {
+		session.put("finished", System.currentTimeMillis());
+		writeAtomically(mapper, new File(directory, SESSION_FILE), session);
+	}
+
+	public String getSessionId() {
+		return sessionId;
+	}
+
+	private void clearPreviousSession() throws IOException {
+		File[] files = directory.listFiles();
+		if (null == files)
+			return;
+		for (File file : files) {
+			if (file.getName().equals(SESSION_FILE) || file.getName().startsWith("shard-"))
+				Files.delete(file.toPath());
+		}
+	}
+
+	// Fold the copies recorded by the shards into the plans' copy mappings
+	public void mergeCopyMappings(List<CopyPlan> plans) {
+		for (CopyPlan plan : plans) {
+			CopyMapping mapping = plan.getCopyMapping();
+			if (null == mapping)
+				continue;
+			for (int i = 0; i < shardCount; i++) {
+				CopyMapping shardMapping = new CopyMapping(mappingFile(directory, shardName(i), plan.getPlanFileName()));
+				if (shardMapping.load())
+					mapping.merge(shardMapping);
+			}
+			plan.saveCopyMapping();
+		}
+	}
+
+	// Replace the plans' lists of deferred networks with what the shards deferred.
+	// If a shard failed, the networks the plans had deferred before are kept too.
+	public void mergeDeferredNetworks(List<CopyPlan> plans) throws IOException {
+		boolean shardFailed = false;
+		for (int i = 0; i < shardCount; i++) {
+			if (!hasReport(mapper, directory, shardName(i), sessionId)
+					|| mapper.readTree(reportFile(directory, shardName(i))).has("failed"))
+				shardFailed = true;
+		}
+		for (CopyPlan plan : plans) {
+			List<File> files = new ArrayList<>(shardCount);
+			for (int i = 0; i < shardCount; i++)
+				files.add(deferredFile(directory, shardName(i), plan.getPlanFileName()));
+			plan.mergeDeferredNetworks(files, shardFailed);
+		}
+	}
+
+	// Merge the shard run reports into one report for the session
+	public void writeReport(File file) throws IOException {
+		ObjectNode merged = mapper.createObjectNode();
+		long start = Long.MAX_VALUE;
+		long end = 0;
+		long bytesDown = 0;
+		long bytesUp = 0;
+		long bytesSaved = 0;
+		long dropped = 0;
+		Map<String, ObjectNode> plans = new LinkedHashMap<>();
+		ArrayNode networks = mapper.createArrayNode();
+		ObjectNode failed = mapper.createObjectNode();
+		for (int i = 0; i < shardCount; i++) {
+			File shardReport = reportFile(directory, shardName(i));
+			if (!hasReport(mapper, directory, shardName(i), sessionId)) {
+				LOGGER.warning("No report for " + shardName(i));
+				continue;
+			}
+			JsonNode report = mapper.readTree(shardReport);
+			if (report.has("failed")) {
+				LOGGER.severe("Shard " + shardName(i) + " failed: " + report.path("failed").asText());
+				failed.put(shardName(i), report.path("failed").asText());
+			}
+			start = Math.min(start, report.path("startTime").asLong());
+			end = Math.max(end, report.path("endTime").asLong());
+			bytesDown += report.path("bytesDown").asLong();
+			bytesUp += report.path("bytesUp").asLong();
+			bytesSaved += report.path("bytesSaved").asLong();
+			dropped += report.path("networksDropped").asLong();
+			for (JsonNode plan : report.path("plans")) {
+				ObjectNode p = plans.get(plan.path("plan").asText());
+				if (null == p) {
+					plans.put(plan.path("plan").asText(), plan.deepCopy());
+				} else {
+					p.put("networks", p.path("networks").asInt() + plan.path("networks").asInt());
+					p.put("done", p.path("done").asInt() + plan.path("done").asInt());
+					p.put("millis", Math.max(p.path("millis").asLong(), plan.path("millis").asLong()));
+				}
+			}
+			networks.addAll((ArrayNode) report.path("networks"));
+		}
+		PriorityLatency latencies = new PriorityLatency();
+		VerificationSummary verification = new VerificationSummary();
+		for (JsonNode network : networks) {
+			if (PriorityLatency.counts(network.path("action").asText()))
+				latencies.add(network.path("priority").asInt(),
+						network.path("startTime").asLong() + network.path("totalMillis").asLong() - start,
+						network.path("slotWaitMillis").asLong());
+			verification.add(network.path("plan").asText(), network.path("correlationId").asText(),
+					network.path("sourceId").asText(), network.path("targetId").asText(),
+					network.path("verification").textValue(), network.path("mismatch").textValue());
+		}
+		merged.put(SESSION, sessionId);
+		merged.put("startTime", start == Long.MAX_VALUE ? 0 : start);
+		merged.put("endTime", end);
+		merged.put("bytesDown", bytesDown);
+		merged.put("bytesUp", bytesUp);
+		merged.put("bytesSaved", bytesSaved);
+		merged.put("shards", shardCount);
+		if (failed.size() > 0)
+			merged.set("failedShards", failed);
+		merged.putArray("plans").addAll(plans.values());
+		merged.set("priorities", mapper.valueToTree(latencies.toReport()));
+		if (!latencies.isEmpty())
+			LOGGER.info(latencies.format());
+		merged.set("verification", mapper.valueToTree(verification.toReport()));
+		if (!verification.isEmpty())
+			LOGGER.info(verification.format());
+		if (dropped > 0)
+			merged.put("networksDropped", dropped);
+		merged.set("networks", networks);
+		mapper.copy().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file, merged);
+		LOGGER.info("Wrote merged run report to " + file.getPath());
+	}
+
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// A worker's claim on one shard, held as a lease file in the shared shard directory.
+// The file is created exclusively, so only one worker can hold it, and its
+// modification time is renewed while the shard runs. A lease that hasn't been
+// renewed within the timeout belongs to a worker that died and can be taken over.
+//
+public class ShardLease implements AutoCloseable {
+	private final static Logger LOGGER = Logger.getLogger(ShardLease.class.getName());
+
+	private final File file;
+	private final String owner;
+	private final ScheduledExecutorService renewer;
+
+	private ShardLease(File file, String owner, long timeoutMillis) {
+		this.file = file;
+		this.owner = owner;
+		this.renewer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "shard-lease-" + file.getName());
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000, timeoutMillis / 3);
+		renewer.scheduleAtFixedRate(this::renew, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	// Claim the lease on a shard, or return null if another worker holds a live lease on it
+	public static ShardLease claim(File directory, String shard, String owner, long timeoutMillis) throws IOException {
+		File file = new File(directory, shard + ".lease");
+		for (int attempt = 0; attempt < 2; attempt++) {
+			try {
+				Files.write(file.toPath(), owner.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+				return new ShardLease(file, owner, timeoutMillis);
+			} catch (FileAlreadyExistsException e) {
+				long age = System.currentTimeMillis() - file.lastModified();
+				if (age < timeoutMillis)
+					return null;
+				// move the expired lease aside; the rename is atomic, so only one worker takes over
+				File expired = new File(directory, shard + ".lease." + owner + ".expired");
+				try {
+					Files.move(file.toPath(), expired.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				} catch (IOException moveFailed) {
+					return null;
+				}
+				LOGGER.warning("Lease on " + shard + " held by " + read(expired) + " expired " + age / 1000
+						+ " seconds ago, taking over");
+				Files.deleteIfExists(expired.toPath());
+			}
+		}
+		return null;
+	}
+
+	private void renew() {
+		if (!owner.equals(read(file))) {
+			LOGGER.severe("Lost lease " + file.getName() + ", another worker may be running the same shard");
+			renewer.shutdown();
+			return;
+		}
+		if (!file.setLastModified(System.currentTimeMillis()))
+			LOGGER.warning("Unable to renew lease " + file);
+	}
+
+	private static String read(File file) {
+		try {
+			return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	// Give the lease up
+	@Override
+	public void close() {
+		renewer.shutdownNow();
+		if (owner.equals(read(file)) && !file.delete())
+			LOGGER.warning("Unable to remove lease " + file);
+	}
+
+}
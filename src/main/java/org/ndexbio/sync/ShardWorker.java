@@ -0,0 +1,215 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.ndexbio.model.exceptions.NdexException;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Runs shards written by a ShardCoordinator. A worker claims any shard that has
+// no report yet and no live lease, runs its network actions with the plans read
+// from its own copy of the plan directory, and writes the shard's report. It
+// returns once every shard has a report, so a worker whose shards are all taken
+// keeps polling and takes over shards whose worker died. A shard that fails gets
+// a report marked "failed", so it isn't claimed again by every other worker; the
+// worker goes on with the other shards and throws at the end.
+//
+// A worker given a session id only joins that session; otherwise it joins the
+// first session in the directory that the coordinator hasn't marked finished.
+// Shard files and reports of any other session are not its business: a shard
+// file of another session means the coordinator started over, and the worker stops.
+//
+public class ShardWorker {
+	private final static Logger LOGGER = Logger.getLogger(ShardWorker.class.getName());
+
+	private final File directory;
+	private final Map<String, CopyPlan> plans = new LinkedHashMap<>();
+	private final String workerId;
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private SyncExecutor executor = new SyncExecutor(SyncExecutor.SEQUENTIAL);
+	private long leaseTimeout = 600;
+	private long pollInterval = 10;
+	private long progressInterval = 60;
+	private String sessionId;
+
+	public ShardWorker(File directory, List<CopyPlan> plans) {
+		this.directory = directory;
+		for (CopyPlan plan : plans)
+			this.plans.put(plan.getPlanFileName(), plan);
+		// host name and pid, plus a random part in case several workers share a pid namespace
+		this.workerId = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+	}
+
+	public void run() throws IOException, NdexException {
+		List<String> failed = new ArrayList<>();
+		int shardCount = waitForSession();
+		LOGGER.info("Worker " + workerId + " joining session " + sessionId + " with " + shardCount + " shards in "
+				+ directory);
+		while (true) {
+			int pending = 0;
+			for (int i = 0; i < shardCount; i++) {
+				String shard = ShardCoordinator.shardName(i);
+				if (ShardCoordinator.hasReport(mapper, directory, shard, sessionId))
+					continue;
+				pending++;
+				try (ShardLease lease = ShardLease.claim(directory, shard, workerId, leaseTimeout * 1000)) {
+					if (null == lease || ShardCoordinator.hasReport(mapper, directory, shard, sessionId))
+						continue;
+					if (!runShard(shard))
+						failed.add(shard);
+					pending--;
+				}
+			}
+			if (pending == 0)
+				break;
+			LOGGER.info(pending + " shards still running on other workers");
+			sleep(pollInterval);
+		}
+		LOGGER.info("All shards finished");
+		if (!failed.isEmpty())
+			throw new NdexException("Shards failed: " + String.join(", ", failed));
+	}
+
+	// Wait for the session to join and return its shard count
+	private int waitForSession() throws IOException {
+		File session = new File(directory, ShardCoordinator.SESSION_FILE);
+		while (true) {
+			if (session.isFile()) {
+				JsonNode node = mapper.readTree(session);
+				String id = node.path(ShardCoordinator.SESSION).asText();
+				if (null == sessionId ? !node.has("finished") : sessionId.equals(id)) {
+					sessionId = id;
+					return node.path("shards").asInt();
+				}
+				LOGGER.info("Session " + id + " in " + directory + " is not the one to join, waiting for the coordinator");
+			} else {
+				LOGGER.info("Waiting for the coordinator to write " + session);
+			}
+			sleep(pollInterval);
+		}
+	}
+
+	// Run a shard and write its report. Returns false if the shard failed.
+	private boolean runShard(String shard) throws IOException {
+		JsonNode shardFile = mapper.readTree(ShardCoordinator.shardFile(directory, shard));
+		if (!sessionId.equals(shardFile.path(ShardCoordinator.SESSION).asText()))
+			throw new IOException(shard + " belongs to session " + shardFile.path(ShardCoordinator.SESSION).asText()
+					+ ", not " + sessionId + "; the coordinator has started a new session");
+		List<NetworkAction> actions = mapper.convertValue(shardFile.path("actions"),
+				new TypeReference<List<NetworkAction>>() {});
+		LOGGER.info("Running " + shard + " with " + actions.size() + " networks");
+
+		Map<String, List<NetworkAction>> byPlan = new LinkedHashMap<>();
+		for (NetworkAction action : actions)
+			byPlan.computeIfAbsent(action.getPlan(), p -> new ArrayList<NetworkAction>()).add(action);
+
+		ProgressReporter progress = new ProgressReporter();
+		progress.setSession(sessionId);
+		progress.start(progressInterval);
+		boolean succeeded = false;
+		try {
+			// the coordinator wrote the actions in plan priority order; in virtual mode the
+			// plans run at once and the server permits serve higher priorities first
+			executor.forEach(new ArrayList<>(byPlan.entrySet()), e -> {
+				CopyPlan plan = plans.get(e.getKey());
+				if (null == plan)
+					throw new NdexException("Plan " + e.getKey() + " of " + shard + " is not in this worker's plan directory");
+				plan.setProgressReporter(progress);
+				plan.setExecutor(executor);
+				CopyMapping mapping = plan.usesCopyMapping()
+						? new CopyMapping(ShardCoordinator.mappingFile(directory, shard, plan.getPlanFileName()))
+						: null;
+				plan.processActions(e.getValue(), mapping,
+						ShardCoordinator.deferredFile(directory, shard, plan.getPlanFileName()));
+			});
+			succeeded = true;
+		} catch (InterruptedIOException e) {
+			// the worker is stopping; leave the shard to another one
+			throw e;
+		} catch (IOException | NdexException | RuntimeException e) {
+			LOGGER.severe("Shard " + shard + " failed: " + e.getMessage());
+			progress.setFailure(String.valueOf(e.getMessage()));
+		} finally {
+			progress.stop();
+		}
+		// a late report of an earlier session may be in the way
+		File report = ShardCoordinator.reportFile(directory, shard);
+		File tmp = new File(report.getPath() + ".part");
+		progress.writeReport(tmp);
+		Files.move(tmp.toPath(), report.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		LOGGER.info((succeeded ? "Finished " : "Gave up on ") + shard);
+		return succeeded;
+	}
+
+	private static void sleep(long seconds) throws InterruptedIOException {
+		try {
+			Thread.sleep(seconds * 1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for shards");
+		}
+	}
+
+	// Only join the session with this id
+	public void setSession(String sessionId) {
+		this.sessionId = sessionId;
+	}
+
+	public void setExecutor(SyncExecutor executor) {
+		this.executor = executor;
+	}
+
+	// Seconds after which a lease that isn't renewed is taken over by another worker
+	public void setLeaseTimeout(long seconds) {
+		this.leaseTimeout = seconds;
+	}
+
+	public void setProgressInterval(long seconds) {
+		this.progressInterval = seconds;
+	}
+
+}
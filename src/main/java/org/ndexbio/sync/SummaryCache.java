@@ -0,0 +1,90 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ndexbio.model.object.network.NetworkSummary;
+
+// Network summaries read from one server during the session. Entries expire
+// after a short TTL, and NdexServer drops a network's entry whenever the sync
+// itself changes the network, so a read never returns what we know to be stale.
+//
+public class SummaryCache {
+
+	// expired entries are swept out once the cache grows past this
+	private static final int SWEEP_SIZE = 1024;
+
+	private final long ttlMillis;
+	private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+	public SummaryCache(long ttlMillis) {
+		this.ttlMillis = ttlMillis;
+	}
+
+	// The cached summary, or null if there is none or it expired
+	public NetworkSummary get(UUID networkId) {
+		Entry entry = entries.get(networkId);
+		if (null == entry)
+			return null;
+		if (System.currentTimeMillis() - entry.fetchedAt > ttlMillis) {
+			entries.remove(networkId, entry);
+			return null;
+		}
+		return entry.summary;
+	}
+
+	public void put(NetworkSummary summary) {
+		if (ttlMillis <= 0 || null == summary || null == summary.getExternalId())
+			return;
+		entries.put(summary.getExternalId(), new Entry(summary));
+		if (entries.size() > SWEEP_SIZE) {
+			long now = System.currentTimeMillis();
+			entries.values().removeIf(entry -> now - entry.fetchedAt > ttlMillis);
+		}
+	}
+
+	public void invalidate(UUID networkId) {
+		entries.remove(networkId);
+	}
+
+	private static class Entry {
+		final NetworkSummary summary;
+		final long fetchedAt = System.currentTimeMillis();
+
+		Entry(NetworkSummary summary) {
+			this.summary = summary;
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.ndexbio.model.exceptions.NdexException;
+
+// Runs the per-network work of a copy session: summary lookups, provenance
+// fetches and transfers. In "sequential" mode every task runs on the calling
+// thread, one after the other. In "virtual" mode every task gets its own virtual
+// thread; since the work is blocking HTTP I/O, concurrency is then bounded only by
+// the request permits of each NdexServer.
+//
+public class SyncExecutor implements AutoCloseable {
+
+	public static final String SEQUENTIAL = "sequential";
+	public static final String VIRTUAL = "virtual";
+
+	@FunctionalInterface
+	public interface Task<T> {
+		void run(T item) throws IOException, NdexException;
+	}
+
+	private final String mode;
+	private final ExecutorService executor;
+
+	public SyncExecutor(String mode) {
+		if (VIRTUAL.equalsIgnoreCase(mode)) {
+			this.mode = VIRTUAL;
+			this.executor = Executors.newVirtualThreadPerTaskExecutor();
+		} else if (null == mode || SEQUENTIAL.equalsIgnoreCase(mode)) {
+			this.mode = SEQUENTIAL;
+			this.executor = null;
+		} else {
+			throw new IllegalArgumentException("Unknown execution mode " + mode);
+		}
+	}
+
+	public String getMode() {
+		return mode;
+	}
+
+	// Run the task for every item and wait for all of them to finish. The first
+	// exception thrown by a task is rethrown once all tasks are done.
+	public <T> void forEach(Collection<T> items, Task<T> task) throws IOException, NdexException {
+		if (null == executor) {
+			for (T item : items)
+				task.run(item);
+			return;
+		}
+		List<Future<?>> futures = new ArrayList<>(items.size());
+		for (T item : items) {
+			futures.add(executor.submit(() -> {
+				task.run(item);
+				return null;
+			}));
+		}
+		Throwable failure = null;
+		for (Future<?> future : futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				if (null == failure)
+					failure = e.getCause();
+			} catch (InterruptedException e) {
+				for (Future<?> f : futures)
+					f.cancel(true);
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for sync tasks");
+			}
+		}
+		if (failure instanceof IOException)
+			throw (IOException) failure;
+		if (failure instanceof NdexException)
+			throw (NdexException) failure;
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+	}
+
+	@Override
+	public void close() {
+		if (null != executor)
+			executor.shutdown();
+	}
+
+}
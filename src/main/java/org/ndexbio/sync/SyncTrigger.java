@@ -0,0 +1,336 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ndexbio.model.exceptions.NdexException;
+import org.ndexbio.model.object.network.NetworkSummary;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Local HTTP listener for change notifications. A notification names a plan and a
+// source network, and that one network is run through the plan's matching and
+// transfer right away instead of waiting for the next session:
+//
+//     POST /sync?plan=<plan file>&network=<uuid>
+//
+// or the same fields as a JSON object in the body. GET /status returns the counts.
+// A notification is answered 404 if the plan or the source network doesn't exist,
+// 403 if the plan doesn't copy the network (see CopyPlan.selects), and 502 if the
+// source server can't be asked. Those for a network already pending aren't checked again.
+// Notifications for a network are coalesced: the run starts delay milliseconds
+// after the first one, and those arriving until then are answered "coalesced".
+// Notifications arriving while the network runs make it run once more afterwards,
+// so the last change is always picked up, but a burst costs at most two runs.
+// The listener binds to the loopback address only.
+//
+public final class SyncTrigger implements Closeable {
+	private final static Logger LOGGER = Logger.getLogger(SyncTrigger.class.getName());
+
+	public static final String QUEUED = "queued";
+	public static final String COALESCED = "coalesced";
+
+	private final Map<String, CopyPlan> plans = new HashMap<>();
+	private final long delay;
+	private final ObjectMapper mapper = new ObjectMapper();
+	// plan|network -> its pending or running sync
+	private final Map<String, Pending> pending = new HashMap<>();
+	private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "sync-trigger-timer");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+	private final AtomicLong received = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private HttpServer server;
+
+	private static final class Pending {
+		final CopyPlan plan;
+		final UUID networkId;
+		boolean running = false;
+		// a notification came in while running
+		boolean again = false;
+
+		Pending(CopyPlan plan, UUID networkId) {
+			this.plan = plan;
+			this.networkId = networkId;
+		}
+	}
+
+	public SyncTrigger(List<CopyPlan> plans, long delay) {
+		for (CopyPlan plan : plans)
+			this.plans.put(plan.getPlanFileName(), plan);
+		this.delay = Math.max(0, delay);
+	}
+
+	// Start listening on the loopback address; port 0 picks a free port
+	public void start(int port) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/sync", this::handleSync);
+		server.createContext("/status", this::handleStatus);
+		server.setExecutor(threads);
+		server.start();
+		LOGGER.info("Listening for sync notifications on http://" + InetAddress.getLoopbackAddress().getHostAddress()
+				+ ":" + getPort() + "/sync for " + plans.size() + " plans");
+	}
+
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	// The plan of a notification, by plan file name with or without .json
+	CopyPlan findPlan(String name) {
+		if (null == name)
+			return null;
+		CopyPlan plan = plans.get(name);
+		return null != plan ? plan : plans.get(name + ".json");
+	}
+
+	// Schedule a sync of the network, or fold the notification into the one pending.
+	// Returns QUEUED or COALESCED.
+	//
+	public String notify(CopyPlan plan, UUID networkId) {
+		received.incrementAndGet();
+		String key = plan.getPlanFileName() + "|" + networkId;
+		synchronized (pending) {
+			Pending sync = pending.get(key);
+			if (null != sync) {
+				if (sync.running)
+					sync.again = true;
+				coalesced.incrementAndGet();
+				return COALESCED;
+			}
+			sync = new Pending(plan, networkId);
+			pending.put(key, sync);
+			schedule(key, sync);
+			return QUEUED;
+		}
+	}
+
+	private boolean isPending(CopyPlan plan, UUID networkId) {
+		synchronized (pending) {
+			return pending.containsKey(plan.getPlanFileName() + "|" + networkId);
+		}
+	}
+
+	private void schedule(String key, Pending sync) {
+		timer.schedule(() -> threads.execute(() -> run(key, sync)), delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void run(String key, Pending sync) {
+		synchronized (pending) {
+			sync.running = true;
+		}
+		try {
+			sync.plan.processTriggered(sync.networkId);
+			completed.incrementAndGet();
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			LOGGER.log(Level.SEVERE, "Error syncing network " + sync.networkId + " of " + sync.plan.getPlanFileName()
+					+ " on notification: " + e.getMessage(), e);
+		} finally {
+			synchronized (pending) {
+				sync.running = false;
+				if (sync.again) {
+					sync.again = false;
+					schedule(key, sync);
+				} else {
+					pending.remove(key);
+				}
+			}
+		}
+	}
+
+	private void handleSync(HttpExchange exchange) throws IOException {
+		try {
+			if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+				exchange.getResponseHeaders().set("Allow", "POST");
+				respond(exchange, 405, error("use POST"));
+				return;
+			}
+			Map<String, String> fields = parseQuery(exchange.getRequestURI().getRawQuery());
+			if (!fields.containsKey("network"))
+				fields.putAll(parseBody(exchange.getRequestBody()));
+			CopyPlan plan = findPlan(fields.get("plan"));
+			if (null == plan) {
+				respond(exchange, 404, error("unknown plan '" + fields.get("plan") + "'"));
+				return;
+			}
+			UUID networkId;
+			try {
+				networkId = UUID.fromString(String.valueOf(fields.get("network")).trim());
+			} catch (IllegalArgumentException e) {
+				respond(exchange, 400, error("invalid network id '" + fields.get("network") + "'"));
+				return;
+			}
+			if (!isPending(plan, networkId)) {
+				NetworkSummary network;
+				boolean selected;
+				try {
+					network = plan.getTriggeredSource(networkId);
+					selected = null != network && plan.selects(network);
+				} catch (IOException | NdexException e) {
+					respond(exchange, 502, error("unable to look up network " + networkId + ": " + e.getMessage()));
+					return;
+				}
+				if (null == network) {
+					respond(exchange, 404, error("unknown network " + networkId + " in the source of "
+							+ plan.getPlanFileName()));
+					return;
+				}
+				if (!selected) {
+					respond(exchange, 403, error("network " + networkId + " is not in the source set of "
+							+ plan.getPlanFileName()));
+					return;
+				}
+			}
+			Map<String, Object> result = new LinkedHashMap<>();
+			result.put("status", notify(plan, networkId));
+			result.put("plan", plan.getPlanFileName());
+			result.put("network", networkId.toString());
+			respond(exchange, 202, result);
+		} catch (IOException e) {
+			respond(exchange, 400, error("unreadable notification: " + e.getMessage()));
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private void handleStatus(HttpExchange exchange) throws IOException {
+		try {
+			respond(exchange, 200, getStatus());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	public Map<String, Object> getStatus() {
+		Map<String, Object> status = new LinkedHashMap<>();
+		status.put("received", received.get());
+		status.put("coalesced", coalesced.get());
+		status.put("completed", completed.get());
+		status.put("failed", failed.get());
+		synchronized (pending) {
+			status.put("pending", pending.size());
+		}
+		return status;
+	}
+
+	private static Map<String, Object> error(String message) {
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("error", message);
+		return result;
+	}
+
+	private void respond(HttpExchange exchange, int code, Map<String, Object> body) throws IOException {
+		byte[] bytes = mapper.writeValueAsBytes(body);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(code, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	static Map<String, String> parseQuery(String query) {
+		Map<String, String> fields = new HashMap<>();
+		if (null == query)
+			return fields;
+		for (String pair : query.split("&")) {
+			int eq = pair.indexOf('=');
+			if (eq > 0)
+				fields.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+						URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+		}
+		return fields;
+	}
+
+	// Fields of a JSON object body, e.g. {"plan": "...", "network": "..."}
+	private Map<String, String> parseBody(InputStream body) throws IOException {
+		Map<String, String> fields = new HashMap<>();
+		byte[] bytes = body.readAllBytes();
+		if (bytes.length == 0)
+			return fields;
+		Map<?, ?> json = mapper.readValue(bytes, Map.class);
+		for (Map.Entry<?, ?> e : json.entrySet()) {
+			if (null != e.getValue())
+				fields.put(String.valueOf(e.getKey()), String.valueOf(e.getValue()));
+		}
+		return fields;
+	}
+
+	// Stop taking notifications and wait up to timeout milliseconds for the syncs
+	// already started
+	//
+	public void stop(long timeout) {
+		if (null != server)
+			server.stop(0);
+		timer.shutdownNow();
+		threads.shutdown();
+		try {
+			if (!threads.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+				LOGGER.warning("Stopped listening with network syncs still running");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		LOGGER.info("Sync notifications: " + received.get() + " received, " + coalesced.get() + " coalesced, "
+				+ completed.get() + " syncs completed, " + failed.get() + " failed");
+	}
+
+	@Override
+	public void close() {
+		stop(60000);
+	}
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+// Watchdog for CX streams. A guarded stream records when bytes arrive; a single
+// background thread checks all open guarded streams once a second and closes the
+// underlying stream when a transfer exceeds its read timeout, total timeout, or
+// drops below the minimum throughput. Closing the stream unblocks the worker,
+// whose next read then fails with a TransferStalledException. A worker blocked
+// sending the stream to a target that stopped taking data isn't reading, so the
+// guard also runs an abort action given for the stream, e.g. one interrupting the
+// worker to cancel its request.
+//
+public final class TransferGuard {
+	private final static Logger LOGGER = Logger.getLogger(TransferGuard.class.getName());
+
+	private static final Set<GuardedInputStream> streams =
+			Collections.newSetFromMap(new ConcurrentHashMap<GuardedInputStream, Boolean>());
+	private static ScheduledExecutorService watchdog;
+
+	private TransferGuard() {
+	}
+
+	public static InputStream guard(InputStream in, TransferSettings settings, String description) {
+		return guard(in, settings, description, null);
+	}
+
+	public static InputStream guard(InputStream in, TransferSettings settings, String description, Runnable onAbort) {
+		GuardedInputStream guarded = new GuardedInputStream(in, settings, description, onAbort);
+		streams.add(guarded);
+		startWatchdog();
+		return guarded;
+	}
+
+	// Why the watchdog aborted a guarded stream, or null if it didn't
+	public static String getAbortReason(InputStream in) {
+		return in instanceof GuardedInputStream ? ((GuardedInputStream) in).abortReason : null;
+	}
+
+	private static synchronized void startWatchdog() {
+		if (watchdog != null)
+			return;
+		watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ndex-sync-transfer-watchdog");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		watchdog.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				long now = System.currentTimeMillis();
+				for (GuardedInputStream s : streams) {
+					s.check(now);
+				}
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+	}
+
+	private static class GuardedInputStream extends FilterInputStream {
+
+		private final TransferSettings settings;
+		private final String description;
+		private final Runnable onAbort;
+		private final long start;
+		private volatile long lastRead;
+		private volatile long bytes;
+		// throughput window: byte count and time at the start of the current window
+		private long windowStart;
+		private long windowBytes;
+		private volatile String abortReason;
+		// read to the end or closed; too late to abort
+		private boolean finished = false;
+
+		GuardedInputStream(InputStream in, TransferSettings settings, String description, Runnable onAbort) {
+			super(in);
+			this.settings = settings;
+			this.description = description;
+			this.onAbort = onAbort;
+			this.start = System.currentTimeMillis();
+			this.lastRead = start;
+			this.windowStart = start;
+		}
+
+		void check(long now) {
+			if (abortReason != null)
+				return;
+			String reason = null;
+			if (settings.getReadTimeout() > 0 && now - lastRead > settings.getReadTimeout() * 1000L) {
+				reason = "no data received for " + settings.getReadTimeout() + " seconds";
+			} else if (settings.getTransferTimeout() > 0 && now - start > settings.getTransferTimeout() * 1000L) {
+				reason = "transfer took longer than " + settings.getTransferTimeout() + " seconds";
+			} else if (settings.getMinBytesPerSecond() > 0 && settings.getStallWindow() > 0
+					&& now - windowStart >= settings.getStallWindow() * 1000L) {
+				long rate = (bytes - windowBytes) * 1000 / (now - windowStart);
+				if (rate < settings.getMinBytesPerSecond())
+					reason = "throughput " + rate + " B/s below minimum of " + settings.getMinBytesPerSecond() + " B/s";
+				windowStart = now;
+				windowBytes = bytes;
+			}
+			if (reason != null)
+				abort(reason);
+		}
+
+		private synchronized void abort(String reason) {
+			if (finished)
+				return;
+			abortReason = reason;
+			LOGGER.warning("Aborting stalled transfer of " + description + ": " + reason);
+			streams.remove(this);
+			try {
+				in.close();
+			} catch (IOException e) {
+				// we are tearing the stream down anyway
+			}
+			if (null != onAbort)
+				onAbort.run();
+		}
+
+		private synchronized void finish() {
+			finished = true;
+			streams.remove(this);
+		}
+
+		private void progress(long n) throws IOException {
+			if (abortReason != null)
+				throw new TransferStalledException("Transfer of " + description + " aborted: " + abortReason);
+			if (n > 0) {
+				bytes += n;
+				lastRead = System.currentTimeMillis();
+			} else if (n < 0) {
+				// end of stream, nothing left to watch
+				finish();
+			}
+		}
+
+		@Override
+		public int read() throws IOException {
+			progress(0);
+			int b;
+			try {
+				b = super.read();
+			} catch (IOException e) {
+				progress(0);
+				throw e;
+			}
+			progress(b < 0 ? -1 : 1);
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			progress(0);
+			int n;
+			try {
+				n = super.read(b, off, len);
+			} catch (IOException e) {
+				progress(0);
+				throw e;
+			}
+			progress(n);
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			finish();
+			super.close();
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.InterruptedIOException;
+
+// Request permits held on the source and the target server for the whole of one
+// CX transfer, since the download and the upload are open at the same time.
+// When both are the same server the two permits are taken in one step, so that
+// concurrent transfers can't each hold one permit and wait for the other. A
+// server allowing a single request gives a transfer to itself that one permit.
+// Transfers of higher priority plans are served first.
+//
+public final class TransferPermits implements AutoCloseable {
+
+	private final PrioritySemaphore first;
+	private final int firstPermits;
+	private final PrioritySemaphore second;
+
+	private TransferPermits(PrioritySemaphore first, int firstPermits, PrioritySemaphore second) {
+		this.first = first;
+		this.firstPermits = firstPermits;
+		this.second = second;
+	}
+
+	// One permit on a single server, for the download into or the upload from a spool
+	public static TransferPermits acquire(NdexServer server) throws InterruptedIOException {
+		return acquire(server, server.getPriority());
+	}
+
+	public static TransferPermits acquire(NdexServer server, int priority) throws InterruptedIOException {
+		try {
+			server.getPermits().acquire(1, priority);
+			return new TransferPermits(server.getPermits(), 1, null);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a transfer slot");
+		}
+	}
+
+	public static TransferPermits acquire(NdexServer source, NdexServer target) throws InterruptedIOException {
+		PrioritySemaphore a = source.getPermits();
+		PrioritySemaphore b = target.getPermits();
+		int priority = Math.max(source.getPriority(), target.getPriority());
+		try {
+			if (a == b) {
+				// asking for more permits than the semaphore has would wait forever
+				int permits = Math.min(2, a.getPermits());
+				a.acquire(permits, priority);
+				return new TransferPermits(a, permits, null);
+			}
+			// take the two semaphores in a fixed order
+			if (System.identityHashCode(a) > System.identityHashCode(b)) {
+				PrioritySemaphore t = a;
+				a = b;
+				b = t;
+			}
+			a.acquire(1, priority);
+			try {
+				b.acquire(1, priority);
+			} catch (InterruptedException e) {
+				a.release(1);
+				throw e;
+			}
+			return new TransferPermits(a, 1, b);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a transfer slot");
+		}
+	}
+
+	@Override
+	public void close() {
+		first.release(firstPermits);
+		if (null != second)
+			second.release(1);
+	}
+
+}
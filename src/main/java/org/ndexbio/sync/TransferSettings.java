@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+// Limits applied to the CX streams moved by a copy plan, read from the
+// "transfer" object of the plan file. Times are in seconds; 0 disables a check.
+//
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class TransferSettings {
+
+	// abort if no bytes arrive from the source for this long
+	int readTimeout = 300;
+	// abort if the whole transfer takes longer than this
+	int transferTimeout = 0;
+	// abort if fewer than minBytesPerSecond arrive, averaged over stallWindow seconds
+	long minBytesPerSecond = 1024;
+	int stallWindow = 120;
+	// how many times an aborted or failed transfer is started again
+	int retries = 2;
+	// seconds to wait before the first retry; doubled for each further retry
+	int retryDelay = 10;
+	// networks whose CX is expected to exceed this many bytes are spooled to disk
+	// first and uploaded from there; 0 streams every network straight through
+	long spoolThreshold = 512L * 1024 * 1024;
+	// directory for spool files, the system temporary directory if not set
+	String spoolDirectory;
+	// give up on a network the target hasn't validated this long after its upload
+	int validationTimeout = 3600;
+
+	public TransferSettings() {
+		super();
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	public int getTransferTimeout() {
+		return transferTimeout;
+	}
+
+	public void setTransferTimeout(int transferTimeout) {
+		this.transferTimeout = transferTimeout;
+	}
+
+	public long getMinBytesPerSecond() {
+		return minBytesPerSecond;
+	}
+
+	public void setMinBytesPerSecond(long minBytesPerSecond) {
+		this.minBytesPerSecond = minBytesPerSecond;
+	}
+
+	public int getStallWindow() {
+		return stallWindow;
+	}
+
+	public void setStallWindow(int stallWindow) {
+		this.stallWindow = stallWindow;
+	}
+
+	public int getRetries() {
+		return retries;
+	}
+
+	public void setRetries(int retries) {
+		this.retries = retries;
+	}
+
+	public int getRetryDelay() {
+		return retryDelay;
+	}
+
+	public void setRetryDelay(int retryDelay) {
+		this.retryDelay = retryDelay;
+	}
+
+	public long getSpoolThreshold() {
+		return spoolThreshold;
+	}
+
+	public void setSpoolThreshold(long spoolThreshold) {
+		this.spoolThreshold = spoolThreshold;
+	}
+
+	public int getValidationTimeout() {
+		return validationTimeout;
+	}
+
+	public void setValidationTimeout(int validationTimeout) {
+		this.validationTimeout = validationTimeout;
+	}
+
+	public String getSpoolDirectory() {
+		return spoolDirectory;
+	}
+
+	public void setSpoolDirectory(String spoolDirectory) {
+		this.spoolDirectory = spoolDirectory;
+	}
+
+}
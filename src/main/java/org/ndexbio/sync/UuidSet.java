@@ -0,0 +1,121 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+// Set of UUIDs stored as pairs of longs in one open-addressing table, about 16
+// bytes per id plus free slots, instead of a UUID object and a hash map node per
+// id. Used to dedupe id lists of hundreds of thousands of networks.
+//
+public final class UuidSet {
+
+	private static final double MAX_LOAD = 0.6;
+
+	// msb at 2 * slot, lsb at 2 * slot + 1; the nil UUID marks a free slot
+	private long[] table;
+	private int size = 0;
+	private boolean hasNil = false;
+
+	public UuidSet() {
+		this(1024);
+	}
+
+	public UuidSet(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(16, (int) (expected / MAX_LOAD)) - 1) << 1;
+		table = new long[2 * capacity];
+	}
+
+	// Add the UUID; returns false if it was in the set already
+	public boolean add(long msb, long lsb) {
+		if (msb == 0 && lsb == 0) {
+			if (hasNil)
+				return false;
+			hasNil = true;
+			size++;
+			return true;
+		}
+		if (size + 1 > (table.length / 2) * MAX_LOAD)
+			grow();
+		if (!insert(table, msb, lsb))
+			return false;
+		size++;
+		return true;
+	}
+
+	public boolean contains(long msb, long lsb) {
+		if (msb == 0 && lsb == 0)
+			return hasNil;
+		int mask = table.length / 2 - 1;
+		for (int slot = hash(msb, lsb) & mask;; slot = (slot + 1) & mask) {
+			long m = table[2 * slot];
+			long l = table[2 * slot + 1];
+			if (m == 0 && l == 0)
+				return false;
+			if (m == msb && l == lsb)
+				return true;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private static boolean insert(long[] table, long msb, long lsb) {
+		int mask = table.length / 2 - 1;
+		for (int slot = hash(msb, lsb) & mask;; slot = (slot + 1) & mask) {
+			long m = table[2 * slot];
+			long l = table[2 * slot + 1];
+			if (m == 0 && l == 0) {
+				table[2 * slot] = msb;
+				table[2 * slot + 1] = lsb;
+				return true;
+			}
+			if (m == msb && l == lsb)
+				return false;
+		}
+	}
+
+	private void grow() {
+		long[] old = table;
+		table = new long[2 * old.length];
+		for (int i = 0; i < old.length; i += 2) {
+			if (old[i] != 0 || old[i + 1] != 0)
+				insert(table, old[i], old[i + 1]);
+		}
+	}
+
+	private static int hash(long msb, long lsb) {
+		long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+		h ^= h >>> 32;
+		h *= 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 29));
+	}
+
+}
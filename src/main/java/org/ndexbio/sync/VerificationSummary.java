@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Outcome of the checks of a session's copies for the run report: how many copies
+// ended with each CopyVerifier result, and the copies that don't match their source.
+//
+public class VerificationSummary {
+
+	private final Map<String, Integer> results = new TreeMap<>();
+	private final List<Map<String, Object>> mismatches = new ArrayList<>();
+
+	public void add(String plan, String correlationId, String sourceId, String targetId, String verification,
+			String mismatch) {
+		if (null == verification)
+			return;
+		results.merge(verification, 1, Integer::sum);
+		if (!CopyVerifier.MISMATCH.equals(verification))
+			return;
+		Map<String, Object> m = new LinkedHashMap<>();
+		m.put("plan", plan);
+		m.put("corr", correlationId);
+		m.put("sourceId", sourceId);
+		m.put("targetId", targetId);
+		m.put("mismatch", mismatch);
+		mismatches.add(m);
+	}
+
+	public Map<String, Object> toReport() {
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("results", results);
+		report.put("mismatches", mismatches);
+		return report;
+	}
+
+	public String format() {
+		return "Verified copies: " + results + (mismatches.isEmpty() ? "" : ", " + mismatches.size() + " don't match their source");
+	}
+
+	public boolean isEmpty() {
+		return results.isEmpty();
+	}
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+// Checks of the copies a plan made, read from the "verify" object of the plan file.
+// They run after the copy is done, alongside the plan's further transfers.
+//
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class VerifySettings {
+
+	// compare the node and edge counts of every copy with its source
+	boolean counts = true;
+	// share of the copies (0 to 1) whose CX is downloaded again from both servers and
+	// compared by digest
+	double sample = 0;
+	// aspects left out of the digest, e.g. because the server rewrites them
+	List<String> ignoreAspects = new ArrayList<>(Arrays.asList("metaData", "provenanceHistory", "status", "ndexStatus"));
+
+	public VerifySettings() {
+		super();
+	}
+
+	public boolean isCounts() {
+		return counts;
+	}
+
+	public void setCounts(boolean counts) {
+		this.counts = counts;
+	}
+
+	public double getSample() {
+		return sample;
+	}
+
+	public void setSample(double sample) {
+		this.sample = sample;
+	}
+
+	public List<String> getIgnoreAspects() {
+		return ignoreAspects;
+	}
+
+	public void setIgnoreAspects(List<String> ignoreAspects) {
+		this.ignoreAspects = ignoreAspects;
+	}
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class AspectFilterTest {
+
+	private static final String CX = "["
+			+ "{\"numberVerification\":[{\"longNumber\":281474976710655}]},"
+			+ "{\"metaData\":[{\"name\":\"nodes\",\"elementCount\":2},{\"name\":\"cartesianLayout\",\"elementCount\":2}]},"
+			+ "{\"nodes\":[{\"@id\":1,\"n\":\"A\"},{\"@id\":2,\"n\":\"B\"}]},"
+			+ "{\"cartesianLayout\":[{\"node\":1,\"x\":1.5,\"y\":2.0}]},"
+			+ "{\"cartesianLayout\":[{\"node\":2,\"x\":3.5,\"y\":4.0}],\"edges\":[{\"@id\":3,\"s\":1,\"t\":2}]},"
+			+ "{\"status\":[{\"error\":\"\",\"success\":true}]}"
+			+ "]";
+
+	@Test
+	public void dropsAspectsAndTheirMetaData() throws IOException {
+		AspectFilter filter = filter("cartesianLayout");
+		JsonNode cx = new ObjectMapper().readTree(filtered(filter, null));
+		List<String> aspects = new ArrayList<>();
+		for (JsonNode fragment : cx)
+			fragment.fieldNames().forEachRemaining(aspects::add);
+		assertEquals(Arrays.asList("numberVerification", "metaData", "nodes", "edges", "status"), aspects);
+		JsonNode metaData = cx.get(1).get("metaData");
+		assertEquals(1, metaData.size());
+		assertEquals("nodes", metaData.get(0).get("name").asText());
+		assertEquals(2, cx.get(2).get("nodes").size());
+		assertEquals(3, cx.get(3).get("edges").get(0).get("@id").asInt());
+	}
+
+	@Test
+	public void countsTheDroppedBytes() throws IOException {
+		AtomicLong dropped = new AtomicLong();
+		String out = filtered(filter("cartesianLayout"), dropped);
+		long saved = CX.length() - out.length();
+		assertTrue(dropped.get() > 0);
+		// the filter may write the kept parts more compactly, never longer
+		assertTrue("counted " + dropped.get() + " of " + saved, dropped.get() <= saved);
+		assertTrue("counted " + dropped.get() + " of " + saved, dropped.get() >= saved - 10);
+	}
+
+	@Test
+	public void passesTheStreamThroughWhenNothingIsDropped() throws IOException {
+		InputStream in = new ByteArrayInputStream(CX.getBytes(StandardCharsets.UTF_8));
+		assertSame(in, new AspectFilter().filter(in, "test"));
+	}
+
+	@Test
+	public void keepsAspectsNotListed() throws IOException {
+		String out = filtered(filter("citations"), null);
+		assertEquals(new ObjectMapper().readTree(CX), new ObjectMapper().readTree(out));
+		assertFalse(out.isEmpty());
+	}
+
+	private static AspectFilter filter(String... aspects) {
+		AspectFilter filter = new AspectFilter();
+		filter.setDropAspects(new ArrayList<>(Arrays.asList(aspects)));
+		return filter;
+	}
+
+	private static String filtered(AspectFilter filter, AtomicLong dropped) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = filter.filter(new ByteArrayInputStream(CX.getBytes(StandardCharsets.UTF_8)), "test",
+				null == dropped ? null : dropped::addAndGet)) {
+			byte[] buffer = new byte[7];
+			for (int n = in.read(buffer); n != -1; n = in.read(buffer))
+				out.write(buffer, 0, n);
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class CxDigestTest {
+
+	private static final Set<String> NONE = Collections.emptySet();
+
+	@Test
+	public void ignoresElementOrderFragmentsAndKeyOrder() throws IOException {
+		CxDigest a = digest("[{\"nodes\":[{\"@id\":1,\"n\":\"A\"},{\"@id\":2,\"n\":\"B\"}]},"
+				+ "{\"edges\":[{\"@id\":3,\"s\":1,\"t\":2}]}]", NONE);
+		CxDigest b = digest("[{\"edges\":[{\"t\":2,\"s\":1,\"@id\":3}]},{\"nodes\":[{\"n\":\"B\",\"@id\":2}]},"
+				+ "{\"nodes\":[{\"@id\":1.0,\"n\":\"A\"}]}]", NONE);
+		assertEquals(Collections.emptyList(), a.compare(b));
+		assertEquals(2, b.getCount("nodes"));
+		assertEquals(1, b.getCount("edges"));
+		assertEquals(0, b.getCount("citations"));
+	}
+
+	@Test
+	public void reportsAspectsThatDiffer() throws IOException {
+		CxDigest a = digest("[{\"nodes\":[{\"@id\":1,\"n\":\"A\"}]},{\"edges\":[{\"@id\":3,\"s\":1,\"t\":1}]}]", NONE);
+		CxDigest b = digest("[{\"nodes\":[{\"@id\":1,\"n\":\"a\"}]},{\"citations\":[{\"@id\":4}]}]", NONE);
+		List<String> differences = a.compare(b);
+		assertEquals(Arrays.asList("citations (missing vs 1 elements)", "edges (1 elements vs missing)",
+				"nodes (1 elements vs 1 elements)"), differences);
+	}
+
+	@Test
+	public void skipsIgnoredAspects() throws IOException {
+		Set<String> ignore = new HashSet<>(Arrays.asList("provenanceHistory", "status"));
+		CxDigest a = digest("[{\"nodes\":[{\"@id\":1}]},{\"status\":[{\"success\":true}]}]", ignore);
+		CxDigest b = digest("[{\"nodes\":[{\"@id\":1}]},{\"provenanceHistory\":[{\"entity\":{}}]}]", ignore);
+		assertTrue(a.compare(b).isEmpty());
+		assertEquals(0, a.getCount("status"));
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsCxThatIsNotAnArray() throws IOException {
+		digest("{\"nodes\":[]}", NONE);
+	}
+
+	@Test(expected = IOException.class)
+	public void rejectsTruncatedCx() throws IOException {
+		digest("[{\"nodes\":[{\"@id\":1}]}", NONE);
+	}
+
+	private static CxDigest digest(String cx, Set<String> ignore) throws IOException {
+		return CxDigest.of(new ByteArrayInputStream(cx.getBytes(StandardCharsets.UTF_8)), ignore, "test");
+	}
+
+}
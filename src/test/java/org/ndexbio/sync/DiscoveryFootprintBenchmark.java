@@ -0,0 +1,144 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.ndexbio.model.object.NdexProvenanceEventType;
+import org.ndexbio.model.object.ProvenanceEntity;
+import org.ndexbio.model.object.ProvenanceEvent;
+import org.ndexbio.model.object.network.NetworkSummary;
+import org.ndexbio.model.tools.PropertyHelpers;
+
+// Heap held by discovery results: what a plan kept before, full NetworkSummary
+// objects and ProvenanceEntity trees, against the NetworkRecord and
+// ProvenanceRecord it keeps now. Source records keep their history deflated,
+// target records don't. Run with
+//
+//   mvn -q test-compile exec:java -Dexec.classpathScope=test \
+//       -Dexec.mainClass=org.ndexbio.sync.DiscoveryFootprintBenchmark -Dexec.args="20000 3"
+//
+// The arguments are the number of networks on each side and the number of
+// copy events in each provenance history.
+//
+public class DiscoveryFootprintBenchmark {
+
+	public static void main(String[] args) {
+		int networks = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int depth = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+		long base = usedHeap();
+		List<NetworkSummary> summaries = new ArrayList<>(2 * networks);
+		Map<UUID, ProvenanceEntity> provenance = new HashMap<>(4 * networks);
+		for (int i = 0; i < 2 * networks; i++) {
+			NetworkSummary summary = summary(i);
+			summaries.add(summary);
+			provenance.put(summary.getExternalId(), history(summary, depth));
+		}
+		long full = usedHeap() - base;
+
+		List<NetworkRecord> records = new ArrayList<>(2 * networks);
+		Map<UUID, ProvenanceRecord> provenanceRecords = new HashMap<>(4 * networks);
+		for (int i = 0; i < summaries.size(); i++) {
+			NetworkSummary summary = summaries.get(i);
+			records.add(NetworkRecord.of(summary));
+			// the first half are source networks
+			provenanceRecords.put(summary.getExternalId(), ProvenanceRecord.of(provenance.get(summary.getExternalId()), i < networks));
+		}
+		summaries = null;
+		provenance = null;
+		long compact = usedHeap() - base;
+
+		System.out.println(networks + " source and " + networks + " target networks, " + depth + " copy events each");
+		System.out.println("  summaries and provenance trees: " + ProgressReporter.formatBytes(full)
+				+ " (" + full / (2 * networks) + " bytes per network)");
+		System.out.println("  records:                        " + ProgressReporter.formatBytes(compact)
+				+ " (" + compact / (2 * networks) + " bytes per network)");
+		// keep the records reachable until measured
+		System.out.println("  " + records.size() + " records, " + provenanceRecords.size() + " provenance records");
+	}
+
+	private static NetworkSummary summary(int i) {
+		NetworkSummary summary = new NetworkSummary();
+		summary.setExternalId(UUID.randomUUID());
+		summary.setName("Pathway " + i + " - signaling in cell line " + (i % 97));
+		summary.setDescription("Network " + i + " curated from the literature. Nodes are proteins and small molecules, "
+				+ "edges are interactions with their evidence.");
+		summary.setOwner("curator" + (i % 13));
+		summary.setVersion("1." + (i % 7));
+		summary.setModificationTime(new Timestamp(System.currentTimeMillis() - i * 1000L));
+		summary.setCreationTime(new Timestamp(System.currentTimeMillis() - i * 2000L));
+		summary.setEdgeCount(500 + i % 3000);
+		summary.setNodeCount(200 + i % 1000);
+		PropertyHelpers.addProperty("organism", "Human, 9606, Homo sapiens", summary.getProperties());
+		PropertyHelpers.addProperty("reference", "Doe J. et al., Journal of Networks " + (2000 + i % 20), summary.getProperties());
+		return summary;
+	}
+
+	// A history of depth sync copies on top of the original upload
+	private static ProvenanceEntity history(NetworkSummary summary, int depth) {
+		ProvenanceEntity entity = new ProvenanceEntity();
+		entity.setUri("http://public.ndexbio.org/v2/network/" + UUID.randomUUID());
+		ProvenanceEvent upload = new ProvenanceEvent("Program Upload", new Timestamp(System.currentTimeMillis()));
+		entity.setCreationEvent(upload);
+		for (int d = 0; d < depth; d++) {
+			ProvenanceEntity copy = new ProvenanceEntity();
+			copy.setUri("http://dev.ndexbio.org/v2/network/" + UUID.randomUUID());
+			ProvenanceEvent event = new ProvenanceEvent(NdexProvenanceEventType.SNYC_COPY, new Timestamp(System.currentTimeMillis()));
+			event.addInput(entity);
+			copy.setCreationEvent(event);
+			PropertyHelpers.addProperty("dc:title", summary.getName(), copy.getProperties());
+			PropertyHelpers.addProperty("pav:retrievedFrom", entity.getUri(), copy.getProperties());
+			entity = copy;
+		}
+		entity.setUri("http://public.ndexbio.org/v2/network/" + summary.getExternalId());
+		return entity;
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+}
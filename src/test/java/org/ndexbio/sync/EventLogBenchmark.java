@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.File;
+import java.util.UUID;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+// Time spent logging the events of matching: the same FINER events written by an
+// EventLog and through a synchronous java.util.logging FileHandler. Each network
+// logs a start and an end event and two events per candidate, the check and the
+// reason it was rejected. Run with
+//
+//   mvn -q test-compile exec:java -Dexec.classpathScope=test \
+//       -Dexec.mainClass=org.ndexbio.sync.EventLogBenchmark -Dexec.args="20000 20"
+//
+// The arguments are the number of networks and of candidates for each network.
+// The EventLog runs once writing every event and once with -eventSample's default.
+// The time is the one the matching thread spends in the log calls; the EventLog
+// is closed, and its queue written out, separately.
+//
+public class EventLogBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int networks = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int candidates = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		NetworkTiming[] timings = new NetworkTiming[networks];
+		UUID[] candidateIds = new UUID[candidates];
+		for (int i = 0; i < networks; i++)
+			timings[i] = new NetworkTiming("benchmark", UUID.randomUUID());
+		for (int i = 0; i < candidates; i++)
+			candidateIds[i] = UUID.randomUUID();
+
+		System.out.println(networks + " networks, " + candidates + " candidates each, "
+				+ (long) networks * (2 * candidates + 2) + " events");
+		// warm up both paths before timing them
+		eventLog(timings, candidateIds, 0);
+		javaLogging(timings, candidateIds);
+		eventLog(timings, candidateIds, 0);
+		javaLogging(timings, candidateIds);
+		eventLog(timings, candidateIds, 100);
+	}
+
+	private static void eventLog(NetworkTiming[] timings, UUID[] candidates, int sampleEvery) throws Exception {
+		File file = File.createTempFile("events", ".jsonl");
+		file.deleteOnExit();
+		EventLog log = EventLog.open(file, Level.FINER, sampleEvery);
+		long start = System.nanoTime();
+		for (NetworkTiming timing : timings) {
+			log.log(Level.FINER, timing, "match.start", "candidates", candidates.length);
+			for (UUID candidate : candidates) {
+				log.log(Level.FINER, timing, "candidate.check", "candidate", candidate);
+				log.log(Level.FINER, timing, "candidate.rejected", "candidate", candidate, "reason", "name differs");
+			}
+			log.log(Level.FINER, timing, "match.end", "matched", false);
+		}
+		long logged = System.nanoTime() - start;
+		log.close();
+		long closed = System.nanoTime() - start;
+		System.out.println("  EventLog, sample " + String.format("%-4d", sampleEvery) + ": " + logged / 1_000_000 + " ms in log calls, "
+				+ closed / 1_000_000 + " ms until written, " + file.length() / 1024 + " KB");
+		file.delete();
+	}
+
+	private static void javaLogging(NetworkTiming[] timings, UUID[] candidates) throws Exception {
+		File file = File.createTempFile("events", ".log");
+		file.deleteOnExit();
+		Logger logger = Logger.getLogger(EventLogBenchmark.class.getName() + ".jul");
+		logger.setUseParentHandlers(false);
+		logger.setLevel(Level.FINER);
+		FileHandler handler = new FileHandler(file.getPath());
+		handler.setLevel(Level.FINER);
+		handler.setFormatter(new SimpleFormatter());
+		logger.addHandler(handler);
+		long start = System.nanoTime();
+		for (NetworkTiming timing : timings) {
+			String prefix = "corr=" + timing.getCorrelationId() + " plan=" + timing.getPlan() + " network="
+					+ timing.getSourceId() + " ";
+			logger.finer(prefix + "match.start candidates=" + candidates.length);
+			for (UUID candidate : candidates) {
+				logger.finer(prefix + "candidate.check candidate=" + candidate);
+				logger.finer(prefix + "candidate.rejected candidate=" + candidate + " reason=name differs");
+			}
+			logger.finer(prefix + "match.end matched=false");
+		}
+		long logged = System.nanoTime() - start;
+		logger.removeHandler(handler);
+		handler.close();
+		System.out.println("  java.util.logging:   " + logged / 1_000_000 + " ms in log calls, "
+				+ file.length() / 1024 + " KB");
+		file.delete();
+	}
+
+}
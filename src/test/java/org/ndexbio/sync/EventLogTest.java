@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Level;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class EventLogTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test(timeout = 10000)
+	public void writesEventsAsJsonLines() throws IOException {
+		File file = folder.newFile("events.jsonl");
+		NetworkTiming network = new NetworkTiming("plan", UUID.randomUUID());
+		try (EventLog log = EventLog.open(file, Level.FINE, 0)) {
+			log.log(Level.FINEST, network, "skipped");
+			log.log(Level.FINE, network, "copy", "target", 3);
+			log.log(Level.WARNING, null, "failed", "error", "gone", "retry", false);
+		}
+		List<String> lines = Files.readAllLines(file.toPath());
+		assertEquals(2, lines.size());
+		ObjectMapper mapper = new ObjectMapper();
+		JsonNode copy = mapper.readTree(lines.get(0));
+		assertEquals("copy", copy.get("event").asText());
+		assertEquals(network.getCorrelationId(), copy.get("corr").asText());
+		assertEquals(3, copy.get("target").asInt());
+		JsonNode failed = mapper.readTree(lines.get(1));
+		assertEquals("gone", failed.get("error").asText());
+		assertEquals(false, failed.get("retry").asBoolean());
+	}
+
+	@Test(timeout = 10000)
+	public void samplesRepetitiveEvents() throws IOException {
+		File file = folder.newFile("events.jsonl");
+		try (EventLog log = EventLog.open(file, Level.FINE, 10)) {
+			for (int i = 0; i < 100; i++)
+				log.log(Level.FINE, null, "skipped");
+		}
+		List<String> lines = Files.readAllLines(file.toPath());
+		// the first ten, then every tenth standing for ten
+		assertEquals(19, lines.size());
+		assertEquals(10, new ObjectMapper().readTree(lines.get(18)).get("sampled").asInt());
+	}
+
+	// A write error ends the writer; logging and closing must not wait for it after that
+	@Test(timeout = 20000)
+	public void failedLogDropsEventsWithoutBlocking() throws IOException {
+		File full = new File("/dev/full");
+		// every write to /dev/full fails; elsewhere there's nothing to test with
+		if (!full.canWrite())
+			return;
+		EventLog log = EventLog.open(full, Level.FINE, 0);
+		int events = 200 * 1000;
+		for (int i = 0; i < events; i++)
+			log.log(Level.FINE, null, "copy", "index", i);
+		log.close();
+		assertTrue(log.getDropped() > 0);
+	}
+
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Wall time of a batch of network summary lookups through NdexServer in each
+// execution mode, against a local stub NDEx server that answers each lookup after
+// the given latency. Besides the sequential and virtual modes, a fixed pool of
+// platform threads runs the same lookups as the baseline virtual mode replaces.
+// All of them go through the server's request permits. Run with
+//
+//   mvn -q test-compile exec:java -Dexec.classpathScope=test \
+//       -Dexec.mainClass=org.ndexbio.sync.ExecutionModeBenchmark -Dexec.args="400 50 8 8"
+//
+// The arguments are the number of lookups, the latency of the stub server in
+// milliseconds, the server's maxConcurrentRequests and the size of the platform
+// thread pool. Every lookup is of a new network, so none is answered from the
+// summary cache.
+//
+public class ExecutionModeBenchmark {
+
+	private static final String PLATFORM_POOL = "platform pool";
+
+	public static void main(String[] args) throws Exception {
+		int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+		long latency = args.length > 1 ? Long.parseLong(args[1]) : 50;
+		int permits = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+		int poolThreads = args.length > 3 ? Integer.parseInt(args[3]) : permits;
+
+		HttpServer stub = startStub(latency);
+		try {
+			NdexServer server = new NdexServer();
+			server.setRoute("http://127.0.0.1:" + stub.getAddress().getPort() + "/v2");
+			server.setBackend(NdexServer.BACKEND_ASYNC);
+			server.setCompression(NdexServer.COMPRESSION_OFF);
+			server.setMaxConcurrentRequests(permits);
+			server.initialize();
+
+			System.out.println(lookups + " lookups of " + latency + " ms, maxConcurrentRequests " + permits
+					+ ", platform pool of " + poolThreads + " threads");
+			// warm up the client's connections and the JIT
+			run(server, SyncExecutor.VIRTUAL, lookups, poolThreads);
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			for (String mode : new String[] { SyncExecutor.SEQUENTIAL, PLATFORM_POOL, SyncExecutor.VIRTUAL }) {
+				threads.resetPeakThreadCount();
+				long start = System.nanoTime();
+				run(server, mode, lookups, poolThreads);
+				long elapsed = (System.nanoTime() - start) / 1000000;
+				System.out.printf("%-14s %7d ms, peak platform threads %d%n", mode, elapsed, threads.getPeakThreadCount());
+			}
+			System.out.printf("bound with %d permits: %d ms%n", permits, (lookups + permits - 1) / permits * latency);
+		} finally {
+			stub.stop(0);
+		}
+	}
+
+	private static void run(NdexServer server, String mode, int lookups, int poolThreads) throws Exception {
+		List<UUID> ids = new ArrayList<>(lookups);
+		for (int i = 0; i < lookups; i++)
+			ids.add(UUID.randomUUID());
+		if (PLATFORM_POOL.equals(mode)) {
+			ExecutorService pool = Executors.newFixedThreadPool(poolThreads);
+			try {
+				List<Future<?>> results = new ArrayList<>(lookups);
+				for (UUID id : ids)
+					results.add(pool.submit(() -> server.fetchNetworkSummary(id)));
+				for (Future<?> result : results)
+					result.get();
+			} finally {
+				pool.shutdown();
+			}
+			return;
+		}
+		try (SyncExecutor executor = new SyncExecutor(mode)) {
+			executor.forEach(ids, id -> server.fetchNetworkSummary(id));
+		}
+	}
+
+	// Answers the status request right away and every other request, taken for a
+	// summary lookup, after latency milliseconds
+	private static HttpServer startStub(long latency) throws IOException {
+		// without TCP_NODELAY the small answers wait for delayed ACKs, some 40 ms each
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+		HttpServer stub = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		stub.createContext("/", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			if (path.endsWith("/admin/status")) {
+				respond(exchange, "{\"properties\": {\"ServerVersion\": \"2.5.0\"}}");
+				return;
+			}
+			try {
+				Thread.sleep(latency);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			String[] parts = path.split("/");
+			respond(exchange, "{\"externalId\": \"" + parts[parts.length - 2] + "\", \"name\": \"stub\", "
+					+ "\"nodeCount\": 10, \"edgeCount\": 20}");
+		});
+		// the stub mustn't be what limits the lookups
+		stub.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+		stub.start();
+		return stub;
+	}
+
+	private static void respond(HttpExchange exchange, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+}
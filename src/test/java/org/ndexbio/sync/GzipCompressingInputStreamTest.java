@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class GzipCompressingInputStreamTest {
+
+	@Test
+	public void compressesToValidGzip() throws IOException {
+		StringBuilder cx = new StringBuilder("[");
+		for (int i = 0; i < 20000; i++)
+			cx.append("{\"nodes\":[{\"@id\":").append(i).append(",\"n\":\"node ").append(i).append("\"}]},");
+		cx.append("{\"status\":[{\"success\":true}]}]");
+		byte[] data = cx.toString().getBytes(StandardCharsets.UTF_8);
+		byte[] compressed = readAll(new GzipCompressingInputStream(new ByteArrayInputStream(data)));
+		assertTrue(compressed.length < data.length / 4);
+		assertArrayEquals(data, gunzip(compressed));
+	}
+
+	@Test
+	public void compressesRandomDataAndEmptyStreams() throws IOException {
+		byte[] data = new byte[300 * 1024];
+		new Random(1).nextBytes(data);
+		assertArrayEquals(data, gunzip(readAll(new GzipCompressingInputStream(new ByteArrayInputStream(data)))));
+		assertArrayEquals(new byte[0], gunzip(readAll(new GzipCompressingInputStream(new ByteArrayInputStream(new byte[0])))));
+	}
+
+	@Test
+	public void readsByteByByte() throws IOException {
+		byte[] data = "[{\"nodes\":[{\"@id\":1}]}]".getBytes(StandardCharsets.UTF_8);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = new GzipCompressingInputStream(new ByteArrayInputStream(data))) {
+			for (int b = in.read(); b != -1; b = in.read())
+				out.write(b);
+		}
+		assertArrayEquals(data, gunzip(out.toByteArray()));
+	}
+
+	private static byte[] gunzip(byte[] compressed) throws IOException {
+		return readAll(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1000];
+		try {
+			for (int n = in.read(buffer); n != -1; n = in.read(buffer))
+				out.write(buffer, 0, n);
+		} finally {
+			in.close();
+		}
+		return out.toByteArray();
+	}
+
+}
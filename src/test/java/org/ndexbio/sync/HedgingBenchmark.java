@@ -0,0 +1,116 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Latency of lookups to a server with a slow tail, with and without hedging. A
+// lookup holds one of the server's request slots, as NdexServer.lookup does, and
+// its hedge is only sent if another slot is free. Run with
+//
+//   mvn -q test-compile exec:java -Dexec.classpathScope=test \
+//       -Dexec.mainClass=org.ndexbio.sync.HedgingBenchmark -Dexec.args="3000 16 32 2"
+//
+// The arguments are the number of lookups, how many run at a time, the server's
+// maxConcurrentRequests and the percentage of lookups that take 3 s instead of
+// 50 ms. Hedging is at p95 with a budget of 5%, as hedgePercentile 95 sets it.
+//
+public class HedgingBenchmark {
+
+	private static final long FAST_MILLIS = 50;
+	private static final long SLOW_MILLIS = 3000;
+
+	public static void main(String[] args) throws Exception {
+		int lookups = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+		int workers = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		int permits = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+		double slowPercent = args.length > 3 ? Double.parseDouble(args[3]) : 2;
+
+		System.out.println(lookups + " lookups, " + workers + " at a time, " + permits + " request slots, "
+				+ slowPercent + "% at " + SLOW_MILLIS + " ms");
+		run("not hedged", lookups, workers, permits, slowPercent, null);
+		Hedger hedger = new Hedger("benchmark", 95, 5, Math.max(1, permits / 4));
+		run("hedged    ", lookups, workers, permits, slowPercent, hedger);
+		System.out.println("  " + hedger.format());
+	}
+
+	private static void run(String label, int lookups, int workers, int permits, double slowPercent, Hedger hedger)
+			throws InterruptedException {
+		PrioritySemaphore slots = new PrioritySemaphore(permits);
+		Random random = new Random(1);
+		long[] latencies = new long[lookups];
+		AtomicInteger next = new AtomicInteger();
+		long start = System.nanoTime();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int w = 0; w < workers; w++) {
+				executor.submit(() -> {
+					for (int i = next.getAndIncrement(); i < lookups; i = next.getAndIncrement()) {
+						slots.acquire(1, 0);
+						try {
+							long sent = System.nanoTime();
+							if (null == hedger)
+								request(random, slowPercent).join();
+							else
+								hedger.call(() -> request(random, slowPercent), () -> {
+									if (!slots.tryAcquire(1))
+										return null;
+									CompletableFuture<Void> hedge = request(random, slowPercent);
+									hedge.whenComplete((v, e) -> slots.release(1));
+									return hedge;
+								}).join();
+							latencies[i] = (System.nanoTime() - sent) / 1_000_000;
+						} finally {
+							slots.release(1);
+						}
+					}
+					return null;
+				});
+			}
+		}
+		long wall = (System.nanoTime() - start) / 1_000_000;
+		Arrays.sort(latencies);
+		System.out.println("  " + label + ": p50 " + latencies[lookups / 2] + " ms, p99 "
+				+ latencies[Math.min(lookups - 1, lookups * 99 / 100)] + " ms, wall time " + wall + " ms");
+	}
+
+	private static CompletableFuture<Void> request(Random random, double slowPercent) {
+		long millis = random.nextDouble() * 100 < slowPercent ? SLOW_MILLIS : FAST_MILLIS;
+		return CompletableFuture.runAsync(() -> {
+		}, CompletableFuture.delayedExecutor(millis, TimeUnit.MILLISECONDS));
+	}
+
+}
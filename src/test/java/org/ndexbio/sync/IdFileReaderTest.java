@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IdFileReaderTest {
+
+	private static final String A = "0f3c2b1a-9e8d-4c7b-a6f5-e4d3c2b1a098";
+	private static final String B = "7E57D00D-1234-5678-9ABC-DEF012345678";
+	private static final String C = "00000000-0000-0000-0000-000000000001";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void readsPlainUuidsAndNdjson() throws IOException {
+		File file = write("ids.txt", false,
+				A + "\n"
+				+ "\n"
+				+ "\"" + B + "\"\r\n"
+				+ "{\"externalId\": \"" + C + "\", \"name\": \"x\"}\n");
+		List<UUID> ids = read(file);
+		assertEquals(3, ids.size());
+		assertEquals(UUID.fromString(A), ids.get(0));
+		assertEquals(UUID.fromString(B), ids.get(1));
+		assertEquals(UUID.fromString(C), ids.get(2));
+	}
+
+	@Test
+	public void countsLinesWithoutAUuid() throws IOException {
+		File file = write("ids.txt", false,
+				"not an id\n"
+				+ A + "0\n"
+				+ A.replace('-', 'x') + "\n"
+				+ A.substring(1) + "\n"
+				+ "x" + A + "\n");
+		try (IdFileReader reader = new IdFileReader(file)) {
+			assertTrue(reader.next());
+			assertEquals(UUID.fromString(A), new UUID(reader.getMostSignificantBits(), reader.getLeastSignificantBits()));
+			assertFalse(reader.next());
+			assertEquals(5, reader.getLines());
+			assertEquals(4, reader.getInvalid());
+		}
+	}
+
+	@Test
+	public void takesTheFirstUuidOfALine() throws IOException {
+		File file = write("ids.txt", false, "{\"externalId\": \"" + A + "\", \"parent\": \"" + B + "\"}");
+		List<UUID> ids = read(file);
+		assertEquals(1, ids.size());
+		assertEquals(UUID.fromString(A), ids.get(0));
+	}
+
+	@Test
+	public void readsGzippedFiles() throws IOException {
+		StringBuilder text = new StringBuilder();
+		List<UUID> written = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			UUID id = UUID.randomUUID();
+			written.add(id);
+			text.append(id).append('\n');
+		}
+		assertEquals(written, read(write("ids.txt.gz", true, text.toString())));
+	}
+
+	private File write(String name, boolean gzip, String text) throws IOException {
+		File file = folder.newFile(name);
+		try (OutputStream out = gzip ? new GZIPOutputStream(new FileOutputStream(file)) : new FileOutputStream(file)) {
+			out.write(text.getBytes(StandardCharsets.UTF_8));
+		}
+		return file;
+	}
+
+	private static List<UUID> read(File file) throws IOException {
+		List<UUID> ids = new ArrayList<>();
+		try (IdFileReader reader = new IdFileReader(file)) {
+			while (reader.next())
+				ids.add(new UUID(reader.getMostSignificantBits(), reader.getLeastSignificantBits()));
+		}
+		return ids;
+	}
+
+}
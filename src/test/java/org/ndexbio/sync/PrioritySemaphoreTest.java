@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PrioritySemaphoreTest {
+
+	@Test(timeout = 10000)
+	public void servesHigherPriorityWaitersFirst() throws InterruptedException {
+		PrioritySemaphore semaphore = new PrioritySemaphore(1);
+		semaphore.acquire(1, 0);
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		Thread low = waiter(semaphore, 1, 0, "low", order);
+		awaitQueue(semaphore, 1);
+		Thread high = waiter(semaphore, 1, 5, "high", order);
+		awaitQueue(semaphore, 2);
+		semaphore.release(1);
+		low.join();
+		high.join();
+		assertEquals(List.of("high", "low"), order);
+	}
+
+	@Test(timeout = 10000)
+	public void doesNotLetSmallRequestsOvertakeTheHead() throws InterruptedException {
+		PrioritySemaphore semaphore = new PrioritySemaphore(2);
+		semaphore.acquire(2, 0);
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		Thread two = waiter(semaphore, 2, 0, "two", order);
+		awaitQueue(semaphore, 1);
+		Thread one = waiter(semaphore, 1, 0, "one", order);
+		awaitQueue(semaphore, 2);
+		// one permit free: enough for the second waiter, but the first comes first
+		semaphore.release(1);
+		Thread.sleep(100);
+		assertTrue(order.isEmpty());
+		semaphore.release(1);
+		two.join();
+		one.join();
+		assertEquals(List.of("two", "one"), order);
+	}
+
+	@Test
+	public void tryAcquireTakesOnlyFreePermits() {
+		PrioritySemaphore semaphore = new PrioritySemaphore(2);
+		assertEquals(2, semaphore.getPermits());
+		assertTrue(semaphore.tryAcquire(2));
+		assertFalse(semaphore.tryAcquire(1));
+		semaphore.release(1);
+		assertFalse(semaphore.tryAcquire(2));
+		assertTrue(semaphore.tryAcquire(1));
+	}
+
+	@Test(timeout = 10000)
+	public void tryAcquireDoesNotJumpTheQueue() throws InterruptedException {
+		PrioritySemaphore semaphore = new PrioritySemaphore(2);
+		semaphore.acquire(2, 0);
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		Thread waiting = waiter(semaphore, 2, 0, "waiting", order);
+		awaitQueue(semaphore, 1);
+		semaphore.release(1);
+		assertFalse(semaphore.tryAcquire(1));
+		semaphore.release(1);
+		waiting.join();
+		assertEquals(List.of("waiting"), order);
+	}
+
+	@Test(timeout = 10000)
+	public void interruptedWaiterLeavesTheQueue() throws InterruptedException {
+		PrioritySemaphore semaphore = new PrioritySemaphore(1);
+		semaphore.acquire(1, 0);
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		Thread waiting = waiter(semaphore, 1, 0, "waiting", order);
+		awaitQueue(semaphore, 1);
+		waiting.interrupt();
+		waiting.join();
+		assertEquals(0, semaphore.getQueueLength());
+		assertTrue(order.isEmpty());
+		semaphore.release(1);
+		// the permit went back, not to the interrupted waiter
+		semaphore.acquire(1, 0);
+		assertEquals(0, semaphore.getQueueLength());
+	}
+
+	// Starts a thread that takes permits, records its name and gives them back
+	private static Thread waiter(PrioritySemaphore semaphore, int permits, int priority, String name, List<String> order) {
+		Thread thread = new Thread(() -> {
+			try {
+				semaphore.acquire(permits, priority);
+			} catch (InterruptedException e) {
+				return;
+			}
+			order.add(name);
+			semaphore.release(permits);
+		}, name);
+		thread.start();
+		return thread;
+	}
+
+	private static void awaitQueue(PrioritySemaphore semaphore, int length) throws InterruptedException {
+		while (semaphore.getQueueLength() < length)
+			Thread.sleep(5);
+	}
+
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import java.sql.Timestamp;
+import java.util.UUID;
+
+import org.ndexbio.model.object.NdexProvenanceEventType;
+import org.ndexbio.model.object.ProvenanceEntity;
+import org.ndexbio.model.object.ProvenanceEvent;
+import org.ndexbio.model.tools.PropertyHelpers;
+
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+// Size and parse time of a provenance history of many sync copies, in full and
+// compacted by ProvenanceCompactor as maxCopyEvents does. Run with
+//
+//   mvn -q test-compile exec:java -Dexec.classpathScope=test \
+//       -Dexec.mainClass=org.ndexbio.sync.ProvenanceCompactionBenchmark -Dexec.args="2 100 300"
+//
+// The first argument is maxCopyEvents, the others the numbers of copies in the
+// histories measured. The parse time is the average of deserializing the JSON
+// with Jackson after a warm-up. Histories deeper than Jackson's nesting limit
+// can't be written in full.
+//
+public class ProvenanceCompactionBenchmark {
+
+	private static final int ITERATIONS = 10000;
+
+	public static void main(String[] args) throws Exception {
+		int keep = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+		int[] depths = args.length > 1 ? new int[args.length - 1] : new int[] { 100, 300 };
+		for (int i = 1; i < args.length; i++)
+			depths[i - 1] = Integer.parseInt(args[i]);
+
+		ObjectMapper mapper = new ObjectMapper();
+		for (int depth : depths) {
+			String compacted = mapper.writeValueAsString(ProvenanceCompactor.compact(history(depth), keep));
+			System.out.println(depth + " copies, maxCopyEvents " + keep);
+			try {
+				String full = mapper.writeValueAsString(history(depth));
+				System.out.println("  full:      " + ProgressReporter.formatBytes(full.length()) + ", "
+						+ parseMicros(mapper, full) + " us to parse");
+			} catch (JsonMappingException e) {
+				System.out.println("  full:      can't be written, " + e.getOriginalMessage());
+			}
+			System.out.println("  compacted: " + ProgressReporter.formatBytes(compacted.length()) + ", "
+					+ parseMicros(mapper, compacted) + " us to parse");
+		}
+	}
+
+	private static double parseMicros(ObjectMapper mapper, String json) throws Exception {
+		for (int i = 0; i < ITERATIONS; i++)
+			mapper.readValue(json, ProvenanceEntity.class);
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++)
+			mapper.readValue(json, ProvenanceEntity.class);
+		return Math.round((System.nanoTime() - start) / 100.0 / ITERATIONS) / 10.0;
+	}
+
+	// An upload copied depth times along a chain of servers
+	private static ProvenanceEntity history(int depth) {
+		ProvenanceEntity entity = new ProvenanceEntity();
+		entity.setUri("http://public.ndexbio.org/v2/network/" + UUID.randomUUID());
+		entity.setCreationEvent(new ProvenanceEvent("Program Upload", new Timestamp(System.currentTimeMillis())));
+		for (int d = 0; d < depth; d++) {
+			ProvenanceEntity copy = new ProvenanceEntity();
+			copy.setUri("http://" + (d % 2 == 0 ? "dev" : "public") + ".ndexbio.org/v2/network/" + UUID.randomUUID());
+			ProvenanceEvent event = new ProvenanceEvent(NdexProvenanceEventType.SNYC_COPY, new Timestamp(System.currentTimeMillis()));
+			event.setEndedAtTime(new Timestamp(System.currentTimeMillis()));
+			event.addInput(entity);
+			copy.setCreationEvent(event);
+			PropertyHelpers.addProperty("dc:title", "Pathway - signaling in cell line " + d, copy.getProperties());
+			PropertyHelpers.addProperty("pav:retrievedFrom", entity.getUri(), copy.getProperties());
+			entity = copy;
+		}
+		return entity;
+	}
+
+}
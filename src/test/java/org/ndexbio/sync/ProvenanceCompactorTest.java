@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.sql.Timestamp;
+
+import org.junit.Test;
+import org.ndexbio.model.object.NdexProvenanceEventType;
+import org.ndexbio.model.object.ProvenanceEntity;
+import org.ndexbio.model.object.ProvenanceEvent;
+import org.ndexbio.model.object.SimplePropertyValuePair;
+
+public class ProvenanceCompactorTest {
+
+	@Test
+	public void collapsesOlderCopiesIntoOneEvent() {
+		ProvenanceEntity upload = upload();
+		ProvenanceEntity history = copies(upload, 5);
+		ProvenanceEntity third = input(input(history));
+		ProvenanceEntity compacted = ProvenanceCompactor.compact(history, 2);
+
+		assertSame(history, compacted);
+		assertEquals(NdexProvenanceEventType.SNYC_COPY, compacted.getCreationEvent().getEventType());
+		ProvenanceEntity second = input(compacted);
+		assertEquals(NdexProvenanceEventType.SNYC_COPY, second.getCreationEvent().getEventType());
+		ProvenanceEntity collapsed = input(second);
+		ProvenanceEvent summary = collapsed.getCreationEvent();
+		assertEquals(ProvenanceCompactor.COMPACTED_COPIES, summary.getEventType());
+		assertEquals(third.getUri(), collapsed.getUri());
+		assertEquals("3", property(summary, ProvenanceCompactor.COPY_EVENTS_PROPERTY));
+		// the oldest copy started at 1000, the newest of the three ended at 3500
+		assertEquals(1000, summary.getStartedAtTime().getTime());
+		assertEquals(3500, summary.getEndedAtTime().getTime());
+		assertSame(upload, input(collapsed));
+	}
+
+	@Test
+	public void leavesShortHistoriesAlone() {
+		ProvenanceEntity upload = upload();
+		ProvenanceEntity history = copies(upload, 3);
+		ProvenanceEntity compacted = ProvenanceCompactor.compact(history, 2);
+		// a single older copy isn't worth an event of its own
+		assertSame(history, compacted);
+		ProvenanceEntity oldest = input(input(compacted));
+		assertEquals(NdexProvenanceEventType.SNYC_COPY, oldest.getCreationEvent().getEventType());
+		assertSame(upload, input(oldest));
+	}
+
+	@Test
+	public void compactsRunsOfCopiesBelowOtherEvents() {
+		ProvenanceEntity merge = new ProvenanceEntity();
+		merge.setUri("http://public.ndexbio.org/v2/network/merged");
+		ProvenanceEvent event = new ProvenanceEvent("Program Merge", new Timestamp(9000));
+		event.addInput(copies(upload(), 4));
+		event.addInput(upload());
+		merge.setCreationEvent(event);
+
+		ProvenanceEntity compacted = ProvenanceCompactor.compact(merge, 1);
+		ProvenanceEntity first = compacted.getCreationEvent().getInputs().get(0);
+		assertEquals(NdexProvenanceEventType.SNYC_COPY, first.getCreationEvent().getEventType());
+		ProvenanceEvent summary = input(first).getCreationEvent();
+		assertEquals(ProvenanceCompactor.COMPACTED_COPIES, summary.getEventType());
+		assertEquals("3", property(summary, ProvenanceCompactor.COPY_EVENTS_PROPERTY));
+		assertEquals("Program Upload", compacted.getCreationEvent().getInputs().get(1).getCreationEvent().getEventType());
+	}
+
+	// compacting after every copy, as a sync chain does, must not nest summaries
+	@Test
+	public void repeatedCompactionKeepsTheDepthBounded() {
+		ProvenanceEntity upload = upload();
+		ProvenanceEntity history = copies(upload, 5);
+		for (int run = 0; run < 20; run++)
+			history = copies(ProvenanceCompactor.compact(history, 3), 1);
+		history = ProvenanceCompactor.compact(history, 3);
+
+		// three copies, the summary and the upload
+		assertEquals(5, depth(history));
+		ProvenanceEntity collapsed = input(input(input(history)));
+		ProvenanceEvent summary = collapsed.getCreationEvent();
+		assertEquals(ProvenanceCompactor.COMPACTED_COPIES, summary.getEventType());
+		assertEquals("22", property(summary, ProvenanceCompactor.COPY_EVENTS_PROPERTY));
+		assertEquals(1000, summary.getStartedAtTime().getTime());
+		assertSame(upload, input(collapsed));
+	}
+
+	@Test
+	public void handlesMissingHistory() {
+		assertNull(ProvenanceCompactor.compact(null, 2));
+		ProvenanceEntity entity = new ProvenanceEntity();
+		assertSame(entity, ProvenanceCompactor.compact(entity, 2));
+	}
+
+	private static ProvenanceEntity upload() {
+		ProvenanceEntity entity = new ProvenanceEntity();
+		entity.setUri("http://public.ndexbio.org/v2/network/origin");
+		entity.setCreationEvent(new ProvenanceEvent("Program Upload", new Timestamp(500)));
+		return entity;
+	}
+
+	// count sync copies on top of entity; copy i runs from i * 1000 to i * 1000 + 500
+	private static ProvenanceEntity copies(ProvenanceEntity entity, int count) {
+		for (int i = 1; i <= count; i++) {
+			ProvenanceEntity copy = new ProvenanceEntity();
+			copy.setUri("http://dev.ndexbio.org/v2/network/copy" + i);
+			ProvenanceEvent event = new ProvenanceEvent(NdexProvenanceEventType.SNYC_COPY, new Timestamp(i * 1000L + 500));
+			event.setStartedAtTime(new Timestamp(i * 1000L));
+			event.addInput(entity);
+			copy.setCreationEvent(event);
+			entity = copy;
+		}
+		return entity;
+	}
+
+	private static int depth(ProvenanceEntity entity) {
+		int depth = 0;
+		for (; null != entity; depth++) {
+			ProvenanceEvent event = entity.getCreationEvent();
+			entity = null == event || null == event.getInputs() || event.getInputs().isEmpty() ? null : input(entity);
+		}
+		return depth;
+	}
+
+	private static ProvenanceEntity input(ProvenanceEntity entity) {
+		return entity.getCreationEvent().getInputs().get(0);
+	}
+
+	private static String property(ProvenanceEvent event, String name) {
+		for (SimplePropertyValuePair p : event.getProperties())
+			if (name.equals(p.getName()))
+				return p.getValue();
+		return null;
+	}
+
+}
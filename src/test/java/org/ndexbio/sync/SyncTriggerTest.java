@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ndexbio.model.object.network.NetworkSummary;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class SyncTriggerTest {
+
+	private final UUID copied = UUID.randomUUID();
+	private final UUID other = UUID.randomUUID();
+	private final HttpClient client = HttpClient.newHttpClient();
+	private final ObjectMapper mapper = new ObjectMapper();
+	private SyncTrigger trigger;
+
+	@Before
+	public void start() throws IOException {
+		IdCopyPlan plan = new IdCopyPlan();
+		plan.setPlanFileName("ids.json");
+		plan.setIdList(List.of(copied.toString()));
+		plan.setSource(server(copied, other));
+		plan.setTarget(server());
+		// long enough that no sync starts while the test runs
+		trigger = new SyncTrigger(List.of(plan), 60000);
+		trigger.start(0);
+	}
+
+	@After
+	public void stop() {
+		trigger.stop(0);
+	}
+
+	@Test(timeout = 10000)
+	public void queuesAndCoalescesNotifications() throws Exception {
+		JsonNode first = post("/sync?plan=ids.json&network=" + copied, null, 202);
+		assertEquals(SyncTrigger.QUEUED, first.get("status").asText());
+		// the plan without .json, the fields in the body
+		JsonNode second = post("/sync", "{\"plan\": \"ids\", \"network\": \"" + copied + "\"}", 202);
+		assertEquals(SyncTrigger.COALESCED, second.get("status").asText());
+		assertEquals("ids.json", second.get("plan").asText());
+
+		Map<String, Object> status = trigger.getStatus();
+		assertEquals(2L, status.get("received"));
+		assertEquals(1L, status.get("coalesced"));
+		assertEquals(1, status.get("pending"));
+	}
+
+	@Test(timeout = 10000)
+	public void refusesUnknownPlansAndNetworks() throws Exception {
+		post("/sync?plan=nothing.json&network=" + copied, null, 404);
+		post("/sync?plan=ids.json&network=" + UUID.randomUUID(), null, 404);
+		assertEquals(0, trigger.getStatus().get("pending"));
+	}
+
+	@Test(timeout = 10000)
+	public void refusesNetworksOutsideThePlan() throws Exception {
+		JsonNode answer = post("/sync?plan=ids.json&network=" + other, null, 403);
+		assertEquals("network " + other + " is not in the source set of ids.json", answer.get("error").asText());
+		assertEquals(0, trigger.getStatus().get("pending"));
+	}
+
+	@Test(timeout = 10000)
+	public void refusesInvalidNotifications() throws Exception {
+		post("/sync?plan=ids.json&network=not-a-uuid", null, 400);
+		post("/sync", "{\"plan\": ", 400);
+		HttpResponse<String> get = client.send(request("/sync?plan=ids.json&network=" + copied).GET().build(),
+				HttpResponse.BodyHandlers.ofString());
+		assertEquals(405, get.statusCode());
+		assertEquals(0L, trigger.getStatus().get("received"));
+	}
+
+	private JsonNode post(String path, String body, int expectedStatus) throws IOException, InterruptedException {
+		HttpRequest.BodyPublisher publisher = null == body ? HttpRequest.BodyPublishers.noBody()
+				: HttpRequest.BodyPublishers.ofString(body);
+		HttpResponse<String> response = client.send(request(path).POST(publisher).build(),
+				HttpResponse.BodyHandlers.ofString());
+		assertEquals(response.body(), expectedStatus, response.statusCode());
+		return mapper.readTree(response.body());
+	}
+
+	private HttpRequest.Builder request(String path) {
+		return HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + trigger.getPort() + path));
+	}
+
+	// A source server that has the given networks, without initializing a client
+	private static NdexServer server(final UUID... networks) {
+		return new NdexServer() {
+			@Override
+			boolean isInitialized() {
+				return true;
+			}
+
+			@Override
+			public NetworkSummary getCurrentNetworkSummary(UUID networkId) {
+				for (UUID id : networks) {
+					if (id.equals(networkId)) {
+						NetworkSummary summary = new NetworkSummary();
+						summary.setExternalId(id);
+						return summary;
+					}
+				}
+				return null;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InterruptedIOException;
+
+import org.junit.Test;
+
+public class TransferPermitsTest {
+
+	@Test(timeout = 10000)
+	public void transferToTheSameSingleRequestServerTakesItsOnePermit() throws InterruptedIOException {
+		PrioritySemaphore permits = new PrioritySemaphore(1);
+		NdexServer server = server(permits);
+		try (TransferPermits transfer = TransferPermits.acquire(server, server)) {
+			assertFalse(permits.tryAcquire(1));
+		}
+		// released again, so a second transfer doesn't wait forever
+		try (TransferPermits transfer = TransferPermits.acquire(server, server)) {
+			assertFalse(permits.tryAcquire(1));
+		}
+		assertTrue(permits.tryAcquire(1));
+	}
+
+	@Test(timeout = 10000)
+	public void transferToTheSameServerTakesTwoPermits() throws InterruptedIOException {
+		PrioritySemaphore permits = new PrioritySemaphore(4);
+		NdexServer server = server(permits);
+		try (TransferPermits transfer = TransferPermits.acquire(server, server)) {
+			assertTrue(permits.tryAcquire(2));
+			assertFalse(permits.tryAcquire(1));
+			permits.release(2);
+		}
+		assertTrue(permits.tryAcquire(4));
+	}
+
+	@Test(timeout = 10000)
+	public void transferBetweenServersTakesOnePermitOfEach() throws InterruptedIOException {
+		PrioritySemaphore source = new PrioritySemaphore(1);
+		PrioritySemaphore target = new PrioritySemaphore(1);
+		try (TransferPermits transfer = TransferPermits.acquire(server(source), server(target))) {
+			assertFalse(source.tryAcquire(1));
+			assertFalse(target.tryAcquire(1));
+		}
+		assertTrue(source.tryAcquire(1));
+		assertTrue(target.tryAcquire(1));
+	}
+
+	@Test(timeout = 10000)
+	public void singleServerTransferTakesOnePermit() throws InterruptedIOException {
+		PrioritySemaphore permits = new PrioritySemaphore(2);
+		try (TransferPermits transfer = TransferPermits.acquire(server(permits))) {
+			assertTrue(permits.tryAcquire(1));
+			assertFalse(permits.tryAcquire(1));
+			permits.release(1);
+		}
+		assertTrue(permits.tryAcquire(2));
+	}
+
+	// A server whose permits are given, without initializing a client
+	private static NdexServer server(final PrioritySemaphore permits) {
+		return new NdexServer() {
+			@Override
+			PrioritySemaphore getPermits() {
+				return permits;
+			}
+		};
+	}
+
+}
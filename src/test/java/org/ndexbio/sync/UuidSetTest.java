@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2013, 2016, The Regents of the University of California, The Cytoscape Consortium
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its contributors
+ *    may be used to endorse or promote products derived from this software
+ *    without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ */
+package org.ndexbio.sync;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class UuidSetTest {
+
+	@Test
+	public void addsEachIdOnce() {
+		UuidSet set = new UuidSet();
+		UUID id = UUID.randomUUID();
+		assertTrue(set.add(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+		assertFalse(set.add(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+		assertEquals(1, set.size());
+		assertTrue(set.contains(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+		assertFalse(set.contains(id.getMostSignificantBits(), id.getLeastSignificantBits() + 1));
+	}
+
+	@Test
+	public void holdsTheNilUuid() {
+		UuidSet set = new UuidSet();
+		assertFalse(set.contains(0, 0));
+		assertTrue(set.add(0, 0));
+		assertFalse(set.add(0, 0));
+		assertTrue(set.contains(0, 0));
+		assertEquals(1, set.size());
+	}
+
+	@Test
+	public void growsBeyondTheExpectedSize() {
+		UuidSet set = new UuidSet(16);
+		List<UUID> ids = new ArrayList<>();
+		for (int i = 0; i < 10000; i++) {
+			UUID id = UUID.randomUUID();
+			ids.add(id);
+			assertTrue(set.add(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+		}
+		assertEquals(10000, set.size());
+		for (UUID id : ids) {
+			assertTrue(set.contains(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+			assertFalse(set.add(id.getMostSignificantBits(), id.getLeastSignificantBits()));
+		}
+		assertEquals(10000, set.size());
+	}
+
+}